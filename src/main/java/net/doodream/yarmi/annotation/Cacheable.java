@@ -0,0 +1,29 @@
+package net.doodream.yarmi.annotation;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * read-only method whose successful response is cached by the client for given time. calls with the same arguments
+ * are answered from the cache without going over the network until the response expires.
+ * method taking {@link net.doodream.yarmi.net.session.BlobSession} is never cached.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface Cacheable {
+
+    /**
+     * @return time for which the response is valid
+     */
+    long ttl();
+
+    TimeUnit unit() default TimeUnit.MILLISECONDS;
+
+    /**
+     * @return max. number of responses cached for the method, least recently used one is evicted beyond it
+     */
+    int maxEntries() default 256;
+}
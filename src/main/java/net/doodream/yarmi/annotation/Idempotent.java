@@ -0,0 +1,16 @@
+package net.doodream.yarmi.annotation;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * method which is safe to be invoked more than once for single call. client may send backup copy of the call
+ * when the response is late, and takes whichever response arrives first (hedged request).
+ * method taking {@link net.doodream.yarmi.net.session.BlobSession} is never hedged.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface Idempotent {
+}
@@ -0,0 +1,16 @@
+package net.doodream.yarmi.annotation;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * thread invoking the method is interrupted when the client cancels the call (e.g. on timeout),
+ * so the method blocking on interruptible operation can give up early. without this, cancelled call
+ * is still run to completion once it's started, but its response is not sent.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface Interruptible {
+}
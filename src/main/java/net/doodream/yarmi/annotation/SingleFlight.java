@@ -0,0 +1,16 @@
+package net.doodream.yarmi.annotation;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * read-only method whose identical concurrent calls are coalesced by the client. while a call is in flight,
+ * other calls with the same arguments don't make their own request but share the response of the ongoing one.
+ * method taking {@link net.doodream.yarmi.net.session.BlobSession} is never coalesced.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface SingleFlight {
+}
@@ -0,0 +1,284 @@
+package net.doodream.yarmi.client;
+
+import net.doodream.yarmi.data.ControllerInfo;
+import net.doodream.yarmi.data.Endpoint;
+import net.doodream.yarmi.data.RMIError;
+import net.doodream.yarmi.data.RMIServiceInfo;
+import net.doodream.yarmi.data.Response;
+import net.doodream.yarmi.net.ServiceProxy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * service proxy spreading calls over multiple instances (backends) of the same service.
+ * each call is routed by power of two choices, that is, the cheaper one of two randomly chosen backends is taken,
+ * where the cost is EWMA of response time weighted by the calls in flight. so slow or busy backend gets less calls
+ * without herding all the calls to the single best one, and backend without sample is probed right away.
+ *
+ * backends are added and removed as discovery reports them, and backend failing to carry the call is dropped.
+ */
+class BalancedServiceProxy implements ServiceProxy {
+
+    private static final Logger Log = LoggerFactory.getLogger(BalancedServiceProxy.class);
+
+    private final RMIServiceInfo serviceInfo;
+    private final ConcurrentHashMap<String, Backend> backends = new ConcurrentHashMap<>();
+    // snapshot of the backends taken by each call, rebuilt when backend is added or removed
+    private volatile Backend[] snapshot = new Backend[0];
+    private volatile boolean isOpen;
+
+    /**
+     * instance of the service with its latency statistics
+     */
+    private static final class Backend {
+        private final String key;
+        private final ServiceProxy proxy;
+        private final Ewma latency = new Ewma();
+        private final AtomicInteger inFlight = new AtomicInteger(0);
+
+        private Backend(String key, ServiceProxy proxy) {
+            this.key = key;
+            this.proxy = proxy;
+        }
+
+        private long cost() {
+            // backend without sample is compared by calls in flight only
+            return Math.max(latency.get(), 1L) * (inFlight.get() + 1);
+        }
+
+        private void onComplete(long start) {
+            inFlight.decrementAndGet();
+            latency.update(System.nanoTime() - start);
+        }
+    }
+
+    BalancedServiceProxy(Collection<RMIServiceInfo> infos) {
+        if((infos == null) || infos.isEmpty()) {
+            throw new IllegalArgumentException("no service instance");
+        }
+        serviceInfo = infos.iterator().next();
+        for (RMIServiceInfo info : infos) {
+            final String key = keyOf(info);
+            backends.putIfAbsent(key, new Backend(key, RMIServiceInfo.toServiceProxy(info)));
+        }
+        snapshot = backends.values().toArray(new Backend[0]);
+    }
+
+    /**
+     * instances of the service are told apart by their address as well as service information
+     */
+    private static String keyOf(RMIServiceInfo info) {
+        return String.format("%s/%d", info.getProxyFactoryHint(), info.hashCode());
+    }
+
+    @Override
+    public synchronized boolean open() throws IOException {
+        if(isOpen) {
+            return false;
+        }
+        for (Backend backend : backends.values()) {
+            try {
+                backend.proxy.open();
+            } catch (IOException | IllegalAccessException | InstantiationException e) {
+                Log.warn("fail to open backend {} : {}", backend.key, e.getMessage());
+                backends.remove(backend.key);
+            }
+        }
+        if(backends.isEmpty()) {
+            throw new IOException(String.format("no instance of %s available", serviceInfo.getName()));
+        }
+        snapshot = backends.values().toArray(new Backend[0]);
+        isOpen = true;
+        return true;
+    }
+
+    /**
+     * add instance of the service, which is opened right away if this proxy is open
+     * @param info instance reported by discovery
+     * @return false if the instance is already known or can't be opened
+     */
+    boolean add(RMIServiceInfo info) {
+        final String key = keyOf(info);
+        if(backends.containsKey(key)) {
+            return false;
+        }
+        final Backend backend = new Backend(key, RMIServiceInfo.toServiceProxy(info));
+        // backend is opened without the lock, so slow connection doesn't hold calls failing over or other backends
+        final boolean opened = isOpen;
+        if(opened) {
+            try {
+                backend.proxy.open();
+            } catch (IOException | IllegalAccessException | InstantiationException e) {
+                Log.warn("fail to open backend {} : {}", key, e.getMessage());
+                return false;
+            }
+        }
+        synchronized (this) {
+            // this proxy may be closed, or the same instance may be added, while opening the backend
+            if((isOpen == opened) && (backends.putIfAbsent(key, backend) == null)) {
+                snapshot = backends.values().toArray(new Backend[0]);
+                Log.debug("backend added {} ({} backends)", key, snapshot.length);
+                return true;
+            }
+        }
+        closeQuietly(backend, opened);
+        return false;
+    }
+
+    private static void closeQuietly(Backend backend, boolean opened) {
+        if(!opened) {
+            return;
+        }
+        try {
+            backend.proxy.close(true);
+        } catch (IOException e) {
+            Log.debug("fail to close backend {} : {}", backend.key, e.getMessage());
+        }
+    }
+
+    /**
+     * remove instance of the service, so that no more call is routed to it
+     * @param info instance no longer reported by discovery
+     * @return false if the instance is unknown
+     */
+    boolean remove(RMIServiceInfo info) {
+        final Backend backend = backends.get(keyOf(info));
+        return (backend != null) && remove(backend, false);
+    }
+
+    private boolean remove(Backend backend, boolean force) {
+        synchronized (this) {
+            // only the given instance is removed, not the one added again under the same key in the meantime
+            if(!backends.remove(backend.key, backend)) {
+                return false;
+            }
+            snapshot = backends.values().toArray(new Backend[0]);
+        }
+        Log.debug("backend removed {} ({} backends)", backend.key, snapshot.length);
+        try {
+            backend.proxy.close(force);
+        } catch (IOException e) {
+            Log.debug("fail to close backend {} : {}", backend.key, e.getMessage());
+        }
+        return true;
+    }
+
+    /**
+     * @return backend chosen by power of two choices, or null if there is no backend
+     */
+    private Backend select() {
+        final Backend[] candidates = snapshot;
+        switch (candidates.length) {
+            case 0:
+                return null;
+            case 1:
+                return candidates[0];
+            default:
+                final ThreadLocalRandom random = ThreadLocalRandom.current();
+                final int first = random.nextInt(candidates.length);
+                // second one is picked among the others, so two choices are always distinct
+                final int second = (first + 1 + random.nextInt(candidates.length - 1)) % candidates.length;
+                final Backend a = candidates[first];
+                final Backend b = candidates[second];
+                return a.cost() <= b.cost() ? a : b;
+        }
+    }
+
+    @Override
+    public Response<?> request(Endpoint endpoint, long timeoutMilliSec, Object... args) throws IOException {
+        final Backend backend = select();
+        if(backend == null) {
+            return Response.from(RMIError.NOT_FOUND);
+        }
+        final long start = System.nanoTime();
+        backend.inFlight.incrementAndGet();
+        try {
+            return backend.proxy.request(endpoint, timeoutMilliSec, args);
+        } catch (IOException e) {
+            // backend can't carry calls anymore
+            remove(backend, true);
+            throw e;
+        } finally {
+            backend.onComplete(start);
+        }
+    }
+
+    @Override
+    public CompletableFuture<Response> requestAsync(Endpoint endpoint, long timeoutMilliSec, Object... args) {
+        final Backend backend = select();
+        if(backend == null) {
+            return CompletableFuture.completedFuture(Response.from(RMIError.NOT_FOUND));
+        }
+        final long start = System.nanoTime();
+        backend.inFlight.incrementAndGet();
+        final CompletableFuture<Response> call = backend.proxy.requestAsync(endpoint, timeoutMilliSec, args);
+        call.whenComplete((response, throwable) -> {
+            backend.onComplete(start);
+            if((throwable instanceof IOException) || (throwable != null && throwable.getCause() instanceof IOException)) {
+                remove(backend, true);
+            }
+        });
+        return call;
+    }
+
+    @Override
+    public List<CompletableFuture<Response>> requestBatch(List<Endpoint> endpoints, List<Object[]> args, long timeoutMilliSec, boolean ordered) {
+        final Backend backend = select();
+        if(backend == null) {
+            final List<CompletableFuture<Response>> responses = new ArrayList<>(endpoints.size());
+            for (int i = 0; i < endpoints.size(); i++) {
+                responses.add(CompletableFuture.completedFuture(Response.from(RMIError.NOT_FOUND)));
+            }
+            return responses;
+        }
+        // whole batch is taken by single backend, and counted as single call in flight
+        final long start = System.nanoTime();
+        backend.inFlight.incrementAndGet();
+        final List<CompletableFuture<Response>> calls = backend.proxy.requestBatch(endpoints, args, timeoutMilliSec, ordered);
+        CompletableFuture.allOf(calls.toArray(new CompletableFuture[0])).whenComplete((ignored, throwable) -> {
+            backend.onComplete(start);
+            if((throwable instanceof IOException) || (throwable != null && throwable.getCause() instanceof IOException)) {
+                remove(backend, true);
+            }
+        });
+        return calls;
+    }
+
+    @Override
+    public void close(boolean force) throws IOException {
+        final List<Backend> closed;
+        synchronized (this) {
+            isOpen = false;
+            closed = new ArrayList<>(backends.values());
+            backends.clear();
+            snapshot = new Backend[0];
+        }
+        for (Backend backend : closed) {
+            backend.proxy.close(force);
+        }
+    }
+
+    @Override
+    public String who() {
+        return String.format("%s (%d instances)", serviceInfo.getName(), snapshot.length);
+    }
+
+    @Override
+    public boolean provide(Class controller) {
+        boolean result = false;
+        for (ControllerInfo controllerInfo : serviceInfo.getControllerInfos()) {
+            Class stubCls = controllerInfo.getStubCls();
+            result |= controller.equals(stubCls);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,103 @@
+package net.doodream.yarmi.client;
+
+import net.doodream.yarmi.annotation.RMIException;
+import net.doodream.yarmi.data.Endpoint;
+import net.doodream.yarmi.data.Response;
+import net.doodream.yarmi.net.session.BlobSession;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * handler of the recorder proxy created by {@link RMIClient#batch(Object, boolean)}. calls made on the recorder are
+ * not sent right away, but collected until {@link RMIClient#send(Object)} sends them all in single request frame.
+ *
+ * recorded call of sync method returns null, and that of async method returns the future which is completed once
+ * the batch is sent and its response arrives. calls in a batch bypass hedging, caching and coalescing of the client.
+ */
+class BatchRecorder implements InvocationHandler {
+
+    private final RMIClient client;
+    private final boolean ordered;
+    private final List<Endpoint> endpoints = new ArrayList<>();
+    private final List<Object[]> args = new ArrayList<>();
+    // futures returned by recorded async calls, null for sync ones
+    private final List<CompletableFuture<Response>> futures = new ArrayList<>();
+
+    BatchRecorder(RMIClient client, boolean ordered) {
+        this.client = client;
+        this.ordered = ordered;
+    }
+
+    @Override
+    public synchronized Object invoke(Object proxy, Method method, Object[] args) {
+        final Endpoint endpoint = client.endpointOf(method);
+        if(endpoint == null) {
+            return null;
+        }
+        if(hasBlobSession(endpoint)) {
+            throw new IllegalArgumentException(String.format("%s can't be batched with blob session", method.getName()));
+        }
+        endpoints.add(endpoint);
+        this.args.add(args);
+        final CompletableFuture<Response> future = endpoint.isAsync() ? new CompletableFuture<>() : null;
+        futures.add(future);
+        return future;
+    }
+
+    private static boolean hasBlobSession(Endpoint endpoint) {
+        for (Class<?> cls : endpoint.getParameterClasses()) {
+            if(BlobSession.class.isAssignableFrom(cls)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * send the calls recorded so far, and start recording new batch
+     * @return future of the responses in the order of the calls, error responses included
+     */
+    CompletableFuture<List<Response>> send() {
+        final List<Endpoint> endpoints;
+        final List<Object[]> args;
+        final List<CompletableFuture<Response>> futures;
+        synchronized (this) {
+            endpoints = new ArrayList<>(this.endpoints);
+            args = new ArrayList<>(this.args);
+            futures = new ArrayList<>(this.futures);
+            this.endpoints.clear();
+            this.args.clear();
+            this.futures.clear();
+        }
+        if(endpoints.isEmpty()) {
+            return CompletableFuture.completedFuture(new ArrayList<>());
+        }
+        final List<CompletableFuture<Response>> calls = client.invokeBatch(endpoints, args, ordered);
+        for (int i = 0; i < calls.size(); i++) {
+            final CompletableFuture<Response> future = futures.get(i);
+            if(future == null) {
+                continue;
+            }
+            calls.get(i).whenComplete((response, throwable) -> {
+                if(throwable != null) {
+                    future.completeExceptionally(throwable);
+                } else if(response.isSuccessful()) {
+                    future.complete(response);
+                } else {
+                    future.completeExceptionally(new RMIException(response));
+                }
+            });
+        }
+        return CompletableFuture.allOf(calls.toArray(new CompletableFuture[0])).thenApply(ignored -> {
+            final List<Response> responses = new ArrayList<>(calls.size());
+            for (CompletableFuture<Response> call : calls) {
+                responses.add(call.join());
+            }
+            return responses;
+        });
+    }
+}
@@ -0,0 +1,63 @@
+package net.doodream.yarmi.client;
+
+import net.doodream.yarmi.data.Response;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * calls in flight of single {@link net.doodream.yarmi.annotation.SingleFlight} endpoint. the first call for a key
+ * makes the request, and the others arriving until its response share it rather than making their own.
+ */
+final class CallCoalescer {
+
+    private final ConcurrentHashMap<CallKey, CompletableFuture<Response>> flights = new ConcurrentHashMap<>();
+    private final LongAdder coalesced = new LongAdder();
+
+    /**
+     * @param key arguments of the call
+     * @param request makes the request, invoked only if there is no call in flight for the key
+     * @return future of the response for the caller. it's the caller's own one, so cancelling it doesn't affect others
+     */
+    CompletableFuture<Response> join(CallKey key, Supplier<CompletableFuture<Response>> request) {
+        final CompletableFuture<Response> shared = new CompletableFuture<>();
+        final CompletableFuture<Response> ongoing = flights.putIfAbsent(key, shared);
+        if(ongoing != null) {
+            coalesced.increment();
+            return follow(ongoing);
+        }
+        try {
+            request.get().whenComplete((response, throwable) -> {
+                // later calls make new request from now on
+                flights.remove(key, shared);
+                if(throwable != null) {
+                    shared.completeExceptionally(throwable);
+                } else {
+                    shared.complete(response);
+                }
+            });
+        } catch (RuntimeException e) {
+            flights.remove(key, shared);
+            shared.completeExceptionally(e);
+        }
+        return follow(shared);
+    }
+
+    private static CompletableFuture<Response> follow(CompletableFuture<Response> shared) {
+        final CompletableFuture<Response> own = new CompletableFuture<>();
+        shared.whenComplete((response, throwable) -> {
+            if(throwable != null) {
+                own.completeExceptionally(throwable);
+            } else {
+                own.complete(response);
+            }
+        });
+        return own;
+    }
+
+    long getCoalescedCount() {
+        return coalesced.sum();
+    }
+}
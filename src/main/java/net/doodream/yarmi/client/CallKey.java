@@ -0,0 +1,36 @@
+package net.doodream.yarmi.client;
+
+import net.doodream.yarmi.serde.Converter;
+
+import java.util.Arrays;
+
+/**
+ * arguments of a call encoded with the converter of the service, so arguments equal on the wire are
+ * the same key regardless of their {@code equals()}
+ */
+final class CallKey {
+
+    private static final Object[] NO_ARGS = new Object[0];
+
+    private final byte[] encoded;
+    private final int hash;
+
+    private CallKey(byte[] encoded) {
+        this.encoded = encoded;
+        hash = Arrays.hashCode(encoded);
+    }
+
+    static CallKey of(Converter converter, Object[] args) {
+        return new CallKey(converter.convert(args == null ? NO_ARGS : args));
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return (o instanceof CallKey) && Arrays.equals(encoded, ((CallKey) o).encoded);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+}
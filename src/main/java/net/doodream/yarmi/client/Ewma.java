@@ -0,0 +1,43 @@
+package net.doodream.yarmi.client;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * exponentially weighted moving average of response time, which follows recent latency while smoothing out outliers.
+ * weight of a sample decays with the time elapsed since the previous one, so a long-idle average is quickly
+ * overridden by fresh samples rather than being stuck with stale ones.
+ *
+ * the average is peak-sensitive, that is, sample slower than the average replaces it right away, so a backend
+ * getting slow is avoided at once while it takes a while to regain the calls once it gets fast again.
+ */
+final class Ewma {
+
+    // time after which the weight of the average decays to 1/e
+    private static final double DECAY_NANOS = TimeUnit.SECONDS.toNanos(10L);
+
+    private double average;
+    private long lastUpdate;
+    private boolean hasSample;
+
+    /**
+     * @param sample response time in nanoseconds
+     */
+    synchronized void update(long sample) {
+        final long now = System.nanoTime();
+        if(!hasSample || (sample > average)) {
+            average = sample;
+            hasSample = true;
+        } else {
+            final double weight = Math.exp(-(now - lastUpdate) / DECAY_NANOS);
+            average = average * weight + sample * (1.0 - weight);
+        }
+        lastUpdate = now;
+    }
+
+    /**
+     * @return average response time in nanoseconds, 0 if there is no sample yet
+     */
+    synchronized long get() {
+        return (long) average;
+    }
+}
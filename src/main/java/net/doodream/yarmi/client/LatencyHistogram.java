@@ -0,0 +1,89 @@
+package net.doodream.yarmi.client;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * histogram of response time with logarithmic buckets, from which percentile of recent latency is read cheaply.
+ * each bucket covers about 19% wider range than the previous one, so the percentile is accurate within that ratio
+ * while recording is a single atomic increment.
+ *
+ * counts are halved once enough samples are recorded, so old samples fade out and the percentile follows
+ * the current latency of the service.
+ */
+final class LatencyHistogram {
+
+    private static final long MIN_NANOS = TimeUnit.MICROSECONDS.toNanos(100L);
+    // 2^(1/4) growth, 100us * 2^(100/4) covers about an hour
+    private static final int BUCKETS_PER_DOUBLING = 4;
+    private static final int BUCKET_COUNT = 100;
+    private static final long DECAY_THRESHOLD = 1024;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    // number of samples in the histogram, only used to decide when to decay
+    private final AtomicLong total = new AtomicLong(0);
+
+    /**
+     * @param latency response time in nanoseconds
+     */
+    void record(long latency) {
+        counts.incrementAndGet(bucketOf(latency));
+        if(total.incrementAndGet() >= DECAY_THRESHOLD) {
+            decay();
+        }
+    }
+
+    private synchronized void decay() {
+        if(total.get() < DECAY_THRESHOLD) {
+            return;
+        }
+        long remaining = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            long count;
+            do {
+                count = counts.get(i);
+            } while (!counts.compareAndSet(i, count, count >> 1));
+            remaining += count >> 1;
+        }
+        total.set(remaining);
+    }
+
+    /**
+     * @param percentile percentile in (0, 1)
+     * @param minSamples minimum number of samples for the percentile to be meaningful
+     * @return upper bound of the bucket holding the percentile in nanoseconds, or -1 if there are not enough samples
+     */
+    long percentile(double percentile, long minSamples) {
+        long sum = 0;
+        final long[] snapshot = new long[BUCKET_COUNT];
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            snapshot[i] = counts.get(i);
+            sum += snapshot[i];
+        }
+        if(sum < minSamples) {
+            return -1L;
+        }
+        final long rank = (long) Math.ceil(sum * percentile);
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += snapshot[i];
+            if(seen >= rank) {
+                return upperBoundOf(i);
+            }
+        }
+        return upperBoundOf(BUCKET_COUNT - 1);
+    }
+
+    private static int bucketOf(long latency) {
+        if(latency <= MIN_NANOS) {
+            return 0;
+        }
+        final int bucket = (int) Math.ceil(Math.log((double) latency / MIN_NANOS) / Math.log(2) * BUCKETS_PER_DOUBLING);
+        return Math.min(bucket, BUCKET_COUNT - 1);
+    }
+
+    private static long upperBoundOf(int bucket) {
+        return (long) (MIN_NANOS * Math.pow(2, (double) bucket / BUCKETS_PER_DOUBLING));
+    }
+}
@@ -3,12 +3,15 @@ package net.doodream.yarmi.client;
 import net.doodream.yarmi.annotation.RMIException;
 import net.doodream.yarmi.annotation.server.Controller;
 import net.doodream.yarmi.annotation.server.Service;
+import net.doodream.yarmi.data.Deadline;
 import net.doodream.yarmi.data.Endpoint;
 import net.doodream.yarmi.data.RMIError;
 import net.doodream.yarmi.data.RMIServiceInfo;
 import net.doodream.yarmi.data.Response;
 import net.doodream.yarmi.method.RMIMethod;
+import net.doodream.yarmi.net.HashedWheelTimer;
 import net.doodream.yarmi.net.ServiceProxy;
+import net.doodream.yarmi.serde.Converter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -18,9 +21,13 @@ import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  *  {@link RMIClient} build method invocation proxy from {@link ServiceProxy} which is discovered from SDP
@@ -30,18 +37,32 @@ public class RMIClient implements InvocationHandler, Comparable<RMIClient>  {
 
 
     private static final Logger Log = LoggerFactory.getLogger(RMIClient.class);
+    // idempotent call is hedged when it takes longer than this percentile of its recent latency
+    private static final double HEDGE_PERCENTILE = 0.95;
+    private static final long HEDGE_MIN_SAMPLES = 32;
 
     private Map<Method, Endpoint> methodMap;
+    // endpoints by their id, which generated stub looks up
+    private Map<Integer, Endpoint> idMap;
     private ServiceProxy serviceProxy;
     private final AtomicInteger ongoingRequestCount;
     private long timeout;
-    private Long responseTime;
+    // average response time observed by this client
+    private final Ewma responseTime = new Ewma();
+    // latency of idempotent endpoints keyed by endpoint id
+    private final ConcurrentHashMap<Integer, LatencyHistogram> latencies = new ConcurrentHashMap<>();
+    private final LongAdder hedgedCalls = new LongAdder();
+    // response caches of cacheable endpoints keyed by endpoint id, fixed once the client is created
+    private final Map<Integer, ResponseCache> caches = new HashMap<>();
+    // calls in flight of single flight endpoints keyed by endpoint id, fixed once the client is created
+    private final Map<Integer, CallCoalescer> flights = new HashMap<>();
+    // encodes arguments into the key of cache or single flight, only available if there are such endpoints
+    private Converter keyConverter;
     private volatile boolean markToClose;
 
     private RMIClient(ServiceProxy serviceProxy, long timeout) {
         this.serviceProxy = serviceProxy;
         markToClose = false;
-        responseTime = Long.MAX_VALUE;
         this.timeout = timeout;
         ongoingRequestCount = new AtomicInteger(0);
     }
@@ -57,6 +78,11 @@ public class RMIClient implements InvocationHandler, Comparable<RMIClient>  {
 
     private void setMethodEndpointMap(Map<Method, Endpoint> map) {
         this.methodMap = map;
+        final Map<Integer, Endpoint> ids = new HashMap<>();
+        for (Endpoint endpoint : map.values()) {
+            ids.put(endpoint.getId(), endpoint);
+        }
+        this.idMap = ids;
     }
 
     private boolean isClosable() {
@@ -69,7 +95,10 @@ public class RMIClient implements InvocationHandler, Comparable<RMIClient>  {
      * @return
      */
     static RMIClient access(Object proxy) {
-        if(Proxy.isProxyClass(proxy.getClass())) {
+        if(proxy instanceof RMIStub) {
+            return ((RMIStub) proxy).client;
+        }
+        if(!Proxy.isProxyClass(proxy.getClass())) {
             throw new IllegalArgumentException(String.format(Locale.ENGLISH,"invalid proxy : %s", proxy.getClass().getName()));
         }
         return  (RMIClient) Proxy.getInvocationHandler(proxy);
@@ -80,11 +109,7 @@ public class RMIClient implements InvocationHandler, Comparable<RMIClient>  {
      * @param force if true, close regardless its on-going request, otherwise, wait until the all the on-going requests is complete
      */
     public static void destroy(Object proxy, boolean force) throws IOException {
-        if(!Proxy.isProxyClass(proxy.getClass())) {
-            throw new IllegalArgumentException(String.format(Locale.ENGLISH,"invalid proxy : %s", proxy.getClass().getName()));
-        }
-        RMIClient client = (RMIClient) Proxy.getInvocationHandler(proxy);
-        client.close(force);
+        access(proxy).close(force);
     }
 
     /**
@@ -147,6 +172,16 @@ public class RMIClient implements InvocationHandler, Comparable<RMIClient>  {
             for (Method validMethod : validMethods) {
                 final Endpoint endpoint = Endpoint.create(controllerMap.get(validMethod.getDeclaringClass()), validMethod);
                 endpointMap.put(validMethod, endpoint);
+                if(endpoint.getCacheable() != null) {
+                    rmiClient.caches.put(endpoint.getId(), new ResponseCache(endpoint.getCacheable()));
+                }
+                if(endpoint.isSingleFlight()) {
+                    rmiClient.flights.put(endpoint.getId(), new CallCoalescer());
+                }
+            }
+            if(!rmiClient.caches.isEmpty() || !rmiClient.flights.isEmpty()) {
+                // arguments are keyed in the same encoding as they are sent
+                rmiClient.keyConverter = (Converter) serviceInfo.getConverter().newInstance();
             }
 
             rmiClient.setMethodEndpointMap(endpointMap);
@@ -214,6 +249,19 @@ public class RMIClient implements InvocationHandler, Comparable<RMIClient>  {
         if(rmiClient == null) {
             return null;
         }
+        return newCallProxy(svc, ctrl, rmiClient);
+    }
+
+    /**
+     * @return stub generated for the controller if there is single controller with its stub, otherwise dynamic proxy
+     */
+    private static Object newCallProxy(Class<?> svc, Class<?>[] ctrl, RMIClient rmiClient) {
+        if((ctrl != null) && (ctrl.length == 1)) {
+            final Object stub = RMIStub.create(ctrl[0], rmiClient);
+            if(stub != null) {
+                return stub;
+            }
+        }
         return Proxy.newProxyInstance(svc.getClassLoader(), ctrl, rmiClient);
     }
 
@@ -228,6 +276,86 @@ public class RMIClient implements InvocationHandler, Comparable<RMIClient>  {
         return create(serviceInfo, svc, ctrl, 0L);
     }
 
+    /**
+     * create call proxy spreading calls over multiple instances of the service. each call is routed to
+     * the cheaper one of two randomly chosen instances in terms of average response time and calls in flight.
+     * @param serviceInfos instances of the service discovered
+     * @param svc Service definition class
+     * @param ctrl controller definition as interface
+     * @param timeout timeout of each call
+     * @param timeUnit unit of the timeout
+     * @return call proxy instance for controller, or null if no instance is available
+     */
+    public static Object createBalanced(Collection<RMIServiceInfo> serviceInfos, Class<?> svc, Class<?>[] ctrl, long timeout, TimeUnit timeUnit) {
+        final BalancedServiceProxy serviceProxy = new BalancedServiceProxy(serviceInfos);
+        RMIClient rmiClient = createClient(serviceProxy, svc, ctrl, timeUnit.toMillis(timeout));
+        if(rmiClient == null) {
+            return null;
+        }
+        return newCallProxy(svc, ctrl, rmiClient);
+    }
+
+    /**
+     * add instance of the service to the call proxy created by {@link #createBalanced(Collection, Class, Class[], long, TimeUnit)}
+     * @param proxy balanced call proxy
+     * @param serviceInfo instance reported by discovery
+     * @return false if the instance is already known or can't be connected
+     */
+    public static boolean addService(Object proxy, RMIServiceInfo serviceInfo) {
+        return access(proxy).balancer().add(serviceInfo);
+    }
+
+    /**
+     * remove instance of the service from the call proxy created by {@link #createBalanced(Collection, Class, Class[], long, TimeUnit)}
+     * @param proxy balanced call proxy
+     * @param serviceInfo instance no longer reported by discovery
+     * @return false if the instance is unknown
+     */
+    public static boolean removeService(Object proxy, RMIServiceInfo serviceInfo) {
+        return access(proxy).balancer().remove(serviceInfo);
+    }
+
+    /**
+     * create recorder of the calls, which implements the same controller interfaces as the call proxy.
+     * calls made on the recorder are collected, and sent together in single request frame by {@link #send(Object)},
+     * so they take only one round trip. the service runs the calls in parallel.
+     * @param proxy call proxy
+     * @return recorder proxy
+     */
+    public static Object batch(Object proxy) {
+        return batch(proxy, false);
+    }
+
+    /**
+     * @param proxy call proxy
+     * @param ordered if true, the service runs the calls one by one in the recorded order, otherwise in parallel
+     * @return recorder proxy
+     * @see #batch(Object)
+     */
+    public static Object batch(Object proxy, boolean ordered) {
+        final RMIClient client = access(proxy);
+        return Proxy.newProxyInstance(proxy.getClass().getClassLoader(), proxy.getClass().getInterfaces(), new BatchRecorder(client, ordered));
+    }
+
+    /**
+     * send the calls recorded so far, after which the recorder starts new batch
+     * @param batch recorder proxy created by {@link #batch(Object)}
+     * @return future of the responses in the recorded order, error responses included
+     */
+    public static CompletableFuture<List<Response>> send(Object batch) {
+        if(!Proxy.isProxyClass(batch.getClass()) || !(Proxy.getInvocationHandler(batch) instanceof BatchRecorder)) {
+            throw new IllegalArgumentException(String.format(Locale.ENGLISH,"invalid batch : %s", batch.getClass().getName()));
+        }
+        return ((BatchRecorder) Proxy.getInvocationHandler(batch)).send();
+    }
+
+    private BalancedServiceProxy balancer() {
+        if(!(serviceProxy instanceof BalancedServiceProxy)) {
+            throw new IllegalArgumentException("not a balanced proxy");
+        }
+        return (BalancedServiceProxy) serviceProxy;
+    }
+
     @Override
     protected void finalize() throws Throwable {
         super.finalize();
@@ -277,33 +405,274 @@ public class RMIClient implements InvocationHandler, Comparable<RMIClient>  {
 
     @Override
     public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        Endpoint endpoint = methodMap.get(method);
+        if(endpoint == null) {
+            if(markToClose) {
+                throw new RMIException(RMIError.CLOSED.getResponse());
+            }
+            return null;
+        }
+        return call(endpoint, args);
+    }
+
+    /**
+     * make call to the endpoint, which is shared by dynamic proxy and generated stub ({@link RMIStub})
+     */
+    Object call(Endpoint endpoint, Object[] args) throws Throwable {
         if(markToClose) {
             // prevent new request from being made
             throw new RMIException(RMIError.CLOSED.getResponse());
         }
-        Endpoint endpoint = methodMap.get(method);
-        if(endpoint == null) {
-            return null;
+        final ResponseCache cache = caches.get(endpoint.getId());
+        final CallCoalescer flight = flights.get(endpoint.getId());
+        final CallKey key = (cache == null) && (flight == null) ? null : CallKey.of(keyConverter, args);
+        if(cache != null) {
+            final Response cached = cache.get(key);
+            if(cached != null) {
+                return endpoint.isAsync() ? CompletableFuture.completedFuture(cached) : cached;
+            }
         }
         ongoingRequestCount.getAndIncrement();
-        Response response = serviceProxy.request(endpoint, timeout, args);
-        synchronized (ongoingRequestCount) {
-            ongoingRequestCount.decrementAndGet();
-            ongoingRequestCount.notifyAll();
+        final long start = System.nanoTime();
+        if(endpoint.isAsync()) {
+            final CompletableFuture<Response> result = invokeAsync(flight == null ? send(endpoint, args) : flight.join(key, () -> send(endpoint, args)), start);
+            if(cache != null) {
+                result.thenAccept(response -> cache.put(key, response));
+            }
+            return result;
+        }
+        final Response response;
+        try {
+            if(flight != null) {
+                response = await(flight.join(key, () -> send(endpoint, args)));
+            } else {
+                response = endpoint.isIdempotent() ? await(hedge(endpoint, args)) : serviceProxy.request(endpoint, timeout, args);
+            }
+        } finally {
+            // failed call is complete as well, otherwise close(false) waits for it forever
+            onRequestComplete(start);
         }
         if(response.isSuccessful()) {
+            if(cache != null) {
+                cache.put(key, response);
+            }
             return response;
         }
         throw new RMIException(response);
     }
 
+    Endpoint endpointOf(Method method) {
+        return methodMap.get(method);
+    }
+
+    Endpoint endpointOf(int id) {
+        return idMap.get(id);
+    }
+
+    /**
+     * send the calls recorded by {@link BatchRecorder} at once
+     * @return futures of the responses in the order of the calls
+     */
+    List<CompletableFuture<Response>> invokeBatch(List<Endpoint> endpoints, List<Object[]> args, boolean ordered) {
+        if(markToClose) {
+            throw new RMIException(RMIError.CLOSED.getResponse());
+        }
+        ongoingRequestCount.addAndGet(endpoints.size());
+        final long start = System.nanoTime();
+        final List<CompletableFuture<Response>> calls = serviceProxy.requestBatch(endpoints, args, timeout, ordered);
+        for (CompletableFuture<Response> call : calls) {
+            call.whenComplete((response, throwable) -> onRequestComplete(start));
+        }
+        return calls;
+    }
+
+    /**
+     * invoke method returning {@link CompletableFuture}, which is completed exceptionally with {@link RMIException}
+     * for error response
+     */
+    private CompletableFuture<Response> invokeAsync(CompletableFuture<Response> call, long start) {
+        final CompletableFuture<Response> result = new CompletableFuture<>();
+        result.whenComplete((response, throwable) -> {
+            if(result.isCancelled()) {
+                // abandoned by the caller, so the service is told to cancel the call
+                call.cancel(false);
+            }
+        });
+        call.whenComplete((response, throwable) -> {
+            onRequestComplete(start);
+            if(throwable != null) {
+                result.completeExceptionally(throwable);
+            } else if(response.isSuccessful()) {
+                result.complete(response);
+            } else {
+                result.completeExceptionally(new RMIException(response));
+            }
+        });
+        return result;
+    }
+
+    private CompletableFuture<Response> send(Endpoint endpoint, Object[] args) {
+        return endpoint.isIdempotent() ? hedge(endpoint, args) : serviceProxy.requestAsync(endpoint, timeout, args);
+    }
+
+    private static Response await(CompletableFuture<Response> call) throws IOException {
+        try {
+            return call.get();
+        } catch (InterruptedException e) {
+            call.cancel(false);
+            // interrupt is kept for the caller
+            Thread.currentThread().interrupt();
+            return RMIError.TIMEOUT.getResponse();
+        } catch (ExecutionException e) {
+            if(e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    /**
+     * make idempotent call, and send backup copy of it once the response is later than usual (p95 of the endpoint).
+     * the copy is likely to be made on other connection or instance, so the call is not stuck with single slow server.
+     * first successful response completes the call, and the other copy is cancelled.
+     */
+    private CompletableFuture<Response> hedge(Endpoint endpoint, Object[] args) {
+        final LatencyHistogram latency = latencies.computeIfAbsent(endpoint.getId(), id -> new LatencyHistogram());
+        final long delay = latency.percentile(HEDGE_PERCENTILE, HEDGE_MIN_SAMPLES);
+        final long start = System.nanoTime();
+        final CompletableFuture<Response> primary = attempt(endpoint, latency, timeout, args);
+        if((delay < 0) || ((timeout > 0) && (TimeUnit.NANOSECONDS.toMillis(delay) >= timeout))) {
+            // not enough samples yet, or the call would time out before hedging
+            return primary;
+        }
+        final CompletableFuture<Response> result = new CompletableFuture<>();
+        final AtomicReference<CompletableFuture<Response>> backup = new AtomicReference<>();
+        // backup copy is sent by worker thread, which doesn't have the deadline of the caller
+        final Deadline deadline = Deadline.current();
+        // timer only hands the copy over to worker, as sending may block on busy connection
+        final HashedWheelTimer.Timeout hedge = HashedWheelTimer.getDefault().newTimeout(() -> ServiceProxy.getWorkers().execute(() -> {
+            final long remaining = timeout > 0 ? timeout - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) : 0L;
+            if(result.isDone() || ((timeout > 0) && (remaining <= 0))) {
+                return;
+            }
+            hedgedCalls.increment();
+            final Deadline previous = Deadline.attach(deadline);
+            final CompletableFuture<Response> copy;
+            try {
+                copy = attempt(endpoint, latency, remaining, args);
+            } finally {
+                Deadline.restore(previous);
+            }
+            backup.set(copy);
+            copy.whenComplete((response, throwable) -> settle(result, response, throwable, primary));
+            if(result.isDone()) {
+                copy.cancel(false);
+            }
+        }), delay, TimeUnit.NANOSECONDS);
+        primary.whenComplete((response, throwable) -> {
+            hedge.cancel();
+            settle(result, response, throwable, backup.get());
+        });
+        result.whenComplete((response, throwable) -> {
+            if(result.isCancelled()) {
+                primary.cancel(false);
+                final CompletableFuture<Response> copy = backup.get();
+                if(copy != null) {
+                    copy.cancel(false);
+                }
+            }
+        });
+        return result;
+    }
+
+    private CompletableFuture<Response> attempt(Endpoint endpoint, LatencyHistogram latency, long timeout, Object[] args) {
+        final long start = System.nanoTime();
+        final CompletableFuture<Response> call = serviceProxy.requestAsync(endpoint, timeout, args);
+        call.thenAccept(response -> {
+            if(response.isSuccessful()) {
+                latency.record(System.nanoTime() - start);
+            }
+        });
+        return call;
+    }
+
+    /**
+     * complete hedged call with the response of either copy, failure of one copy is ignored while the other may succeed
+     */
+    private static void settle(CompletableFuture<Response> result, Response response, Throwable throwable, CompletableFuture<Response> other) {
+        final boolean isSuccessful = (throwable == null) && response.isSuccessful();
+        if(!isSuccessful && (other != null) && !other.isDone()) {
+            return;
+        }
+        final boolean settled = throwable == null ? result.complete(response) : result.completeExceptionally(throwable);
+        if(settled && (other != null)) {
+            other.cancel(false);
+        }
+    }
+
+    /**
+     * @param proxy call proxy
+     * @return number of the backup copies sent for the idempotent calls late for their response
+     */
+    public static long getHedgedCallCount(Object proxy) {
+        return access(proxy).hedgedCalls.sum();
+    }
+
+    /**
+     * @param proxy call proxy
+     * @return number of calls answered from the response cache
+     */
+    public static long getCacheHitCount(Object proxy) {
+        long hits = 0;
+        for (ResponseCache cache : access(proxy).caches.values()) {
+            hits += cache.getHitCount();
+        }
+        return hits;
+    }
+
+    /**
+     * @param proxy call proxy
+     * @return number of calls to cacheable methods which went over the network
+     */
+    public static long getCacheMissCount(Object proxy) {
+        long misses = 0;
+        for (ResponseCache cache : access(proxy).caches.values()) {
+            misses += cache.getMissCount();
+        }
+        return misses;
+    }
+
+    /**
+     * @param proxy call proxy
+     * @return number of calls which shared the response of identical call in flight instead of making request
+     */
+    public static long getCoalescedCallCount(Object proxy) {
+        long coalesced = 0;
+        for (CallCoalescer flight : access(proxy).flights.values()) {
+            coalesced += flight.getCoalescedCount();
+        }
+        return coalesced;
+    }
+
+    private void onRequestComplete(long start) {
+        responseTime.update(System.nanoTime() - start);
+        synchronized (ongoingRequestCount) {
+            ongoingRequestCount.decrementAndGet();
+            ongoingRequestCount.notifyAll();
+        }
+    }
+
     @Override
     public int compareTo(RMIClient o) {
-        return Math.toIntExact(getResponseDelay() - o.getResponseDelay());
+        return Long.compare(getResponseDelay(), o.getResponseDelay());
     }
 
+    /**
+     * @return average response time in nanoseconds, or {@link Long#MAX_VALUE} if no call is complete yet
+     */
     private long getResponseDelay() {
-        return responseTime;
+        final long delay = responseTime.get();
+        return delay == 0L ? Long.MAX_VALUE : delay;
     }
 
     String who() {
@@ -0,0 +1,127 @@
+package net.doodream.yarmi.client;
+
+import net.doodream.yarmi.data.Endpoint;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.UndeclaredThrowableException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * base of the call proxy generated at compile time by yarmi-processor, which is used by {@link RMIClient} in place of
+ * dynamic proxy when it's available for the controller. generated stub implements the controller interface directly,
+ * and its endpoint ids are computed at compile time. so each call goes straight to the endpoint
+ * without reflective dispatch or lookup of the method.
+ *
+ * stub of controller {@code com.example.UserController} is {@code com.example.UserController_YarmiStub}
+ * (see {@link #SUFFIX}), which is created by its {@link Factory} registered as a service of the class loader.
+ */
+public abstract class RMIStub {
+
+    private static final Logger Log = LoggerFactory.getLogger(RMIStub.class);
+    /**
+     * suffix appended to the name of the controller (nested names joined with '_') for its stub
+     */
+    public static final String SUFFIX = "_YarmiStub";
+    // factories of the stubs found in each class loader, looked up once
+    private static final ConcurrentHashMap<ClassLoader, Map<Class<?>, Factory>> FACTORIES = new ConcurrentHashMap<>();
+
+    /**
+     * factory of generated stub, which is listed in {@code META-INF/services} by yarmi-processor
+     */
+    public interface Factory {
+        /**
+         * @return controller interface the stub implements
+         */
+        Class<?> controller();
+
+        /**
+         * @param client client making the calls
+         * @return new stub
+         * @throws IllegalArgumentException if endpoints of the stub are not exposed by the client
+         */
+        RMIStub create(RMIClient client);
+    }
+
+    final RMIClient client;
+
+    protected RMIStub(RMIClient client) {
+        this.client = client;
+    }
+
+    /**
+     * @param controller controller interface
+     * @param client client making the calls
+     * @return stub generated for the controller, or null if there is none
+     */
+    static Object create(Class<?> controller, RMIClient client) {
+        final ClassLoader loader = controller.getClassLoader();
+        if(loader == null) {
+            return null;
+        }
+        final Factory factory = FACTORIES.computeIfAbsent(loader, RMIStub::load).get(controller);
+        if(factory == null) {
+            return null;
+        }
+        try {
+            return factory.create(client);
+        } catch (IllegalArgumentException e) {
+            // e.g. stub generated for other path of the controller
+            Log.warn("stub of {} doesn't match the client : {}", controller.getName(), e.getMessage());
+            return null;
+        }
+    }
+
+    private static Map<Class<?>, Factory> load(ClassLoader loader) {
+        final Map<Class<?>, Factory> factories = new HashMap<>();
+        try {
+            for (Factory factory : ServiceLoader.load(Factory.class, loader)) {
+                factories.put(factory.controller(), factory);
+            }
+        } catch (ServiceConfigurationError e) {
+            Log.warn("fail to load stubs : {}", e.getMessage());
+        }
+        return factories;
+    }
+
+    /**
+     * look up endpoints of the stub, called once by the constructor of generated stub
+     * @param ids endpoint ids of the methods under each path of the controller, computed at compile time
+     * @return endpoints under the path which the client is made for
+     * @throws IllegalArgumentException if the endpoints under none of the paths are exposed by the client
+     */
+    protected final Endpoint[] endpoints(int[][] ids) {
+        for (int[] candidates : ids) {
+            final Endpoint[] endpoints = new Endpoint[candidates.length];
+            int found = 0;
+            while ((found < candidates.length) && ((endpoints[found] = client.endpointOf(candidates[found])) != null)) {
+                found++;
+            }
+            if(found == candidates.length) {
+                return endpoints;
+            }
+        }
+        throw new IllegalArgumentException("endpoints are not exposed");
+    }
+
+    /**
+     * make call to the endpoint, in the same way as dynamic proxy does
+     * @param args arguments of the call, or null if the method has no parameter
+     * @return response, or future of the response for async method
+     * @throws Throwable exception of the call, which generated stub rethrows if the method declares it
+     */
+    protected final Object call(Endpoint endpoint, Object[] args) throws Throwable {
+        return client.call(endpoint, args);
+    }
+
+    /**
+     * @return exception not declared by the method, wrapped in the same way as dynamic proxy does
+     */
+    protected static UndeclaredThrowableException undeclared(Throwable e) {
+        return new UndeclaredThrowableException(e);
+    }
+}
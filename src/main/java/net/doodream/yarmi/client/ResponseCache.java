@@ -0,0 +1,81 @@
+package net.doodream.yarmi.client;
+
+import net.doodream.yarmi.annotation.Cacheable;
+import net.doodream.yarmi.data.Response;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * bounded cache of successful responses of single {@link Cacheable} endpoint keyed by the arguments ({@link CallKey}).
+ * least recently used entry is evicted once the cache is full.
+ *
+ * cached response is shared among the callers, so it's not supposed to be modified.
+ */
+final class ResponseCache {
+
+    private static final class Entry {
+        private final Response response;
+        private final long expireAt;
+
+        private Entry(Response response, long expireAt) {
+            this.response = response;
+            this.expireAt = expireAt;
+        }
+    }
+
+    private final long ttlNanos;
+    private final LinkedHashMap<CallKey, Entry> entries;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    ResponseCache(Cacheable cacheable) {
+        ttlNanos = cacheable.unit().toNanos(cacheable.ttl());
+        final int maxEntries = Math.max(1, cacheable.maxEntries());
+        entries = new LinkedHashMap<CallKey, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<CallKey, Entry> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * @return cached response, or null if there is no valid one
+     */
+    Response get(CallKey key) {
+        final Entry entry;
+        synchronized (entries) {
+            entry = entries.get(key);
+            if((entry != null) && (entry.expireAt - System.nanoTime() <= 0)) {
+                entries.remove(key);
+                misses.increment();
+                return null;
+            }
+        }
+        if(entry == null) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return entry.response;
+    }
+
+    void put(CallKey key, Response response) {
+        if(!response.isSuccessful()) {
+            return;
+        }
+        synchronized (entries) {
+            entries.put(key, new Entry(response, System.nanoTime() + ttlNanos));
+        }
+    }
+
+    long getHitCount() {
+        return hits.sum();
+    }
+
+    long getMissCount() {
+        return misses.sum();
+    }
+}
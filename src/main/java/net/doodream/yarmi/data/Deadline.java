@@ -0,0 +1,81 @@
+package net.doodream.yarmi.data;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * point in time by which the call should be complete. deadline of the call being handled is current deadline
+ * of the thread invoking the controller, and the calls made from the thread inherit it, so that nested calls
+ * don't outlive the call which they serve.
+ *
+ * deadline travels over the wire as the remaining budget of the call, so clocks of the peers don't have to be synchronized.
+ */
+public final class Deadline {
+
+    private static final ThreadLocal<Deadline> CURRENT = new ThreadLocal<>();
+
+    // System.nanoTime() based
+    private final long deadline;
+
+    private Deadline(long deadline) {
+        this.deadline = deadline;
+    }
+
+    /**
+     * @param timeout time left from now
+     * @param unit unit of the timeout
+     * @return deadline after the timeout
+     */
+    public static Deadline after(long timeout, TimeUnit unit) {
+        return new Deadline(System.nanoTime() + unit.toNanos(timeout));
+    }
+
+    /**
+     * @param start {@link System#nanoTime()} when the budget started to be spent (e.g. arrival of the request)
+     * @param budget budget in milliseconds
+     * @return deadline when the budget is used up
+     */
+    public static Deadline of(long start, long budget) {
+        return new Deadline(start + TimeUnit.MILLISECONDS.toNanos(budget));
+    }
+
+    /**
+     * @return deadline of the call being handled by the calling thread, or null if there is no deadline
+     */
+    public static Deadline current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * make the deadline current one of the calling thread (e.g. to hand it over to other thread)
+     * @param deadline deadline to be current one, can be null
+     * @return previous deadline of the thread, which is supposed to be restored by {@link #restore(Deadline)}
+     */
+    public static Deadline attach(Deadline deadline) {
+        final Deadline previous = CURRENT.get();
+        CURRENT.set(deadline);
+        return previous;
+    }
+
+    /**
+     * @param previous deadline returned by {@link #attach(Deadline)}
+     */
+    public static void restore(Deadline previous) {
+        if(previous == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(previous);
+        }
+    }
+
+    /**
+     * @param unit unit of returned time
+     * @return time left until the deadline, which is negative if it's already passed
+     */
+    public long remaining(TimeUnit unit) {
+        return unit.convert(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+    }
+
+    public boolean isExpired() {
+        return deadline - System.nanoTime() <= 0;
+    }
+}
@@ -2,7 +2,10 @@ package net.doodream.yarmi.data;
 
 
 import com.doodream.cutils.Types;
+import net.doodream.yarmi.annotation.Cacheable;
+import net.doodream.yarmi.annotation.Idempotent;
 import net.doodream.yarmi.annotation.RMIExpose;
+import net.doodream.yarmi.annotation.SingleFlight;
 import net.doodream.yarmi.annotation.method.Delete;
 import net.doodream.yarmi.annotation.method.Get;
 import net.doodream.yarmi.annotation.method.Post;
@@ -14,10 +17,11 @@ import org.slf4j.LoggerFactory;
 
 import java.lang.annotation.Annotation;
 import java.lang.reflect.Method;
+import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -30,8 +34,16 @@ public class Endpoint {
 
     private List<Param> params;
     private String unique;
+    transient int id;
     transient Method jMethod;
     transient Type unwrappedRetType;
+    transient Type responseType;
+    transient boolean async;
+    transient boolean idempotent;
+    transient Cacheable cacheable;
+    transient boolean singleFlight;
+    transient Type[] parameterTypes;
+    transient Class<?>[] parameterClasses;
     transient BlobSession session;
 
     private Endpoint() { }
@@ -47,6 +59,17 @@ public class Endpoint {
 
         public Builder jMethod(Method method) {
             endpoint.jMethod = method;
+            endpoint.async = isAsync(method);
+            endpoint.idempotent = ((method.getAnnotation(Idempotent.class) != null) || (method.getAnnotation(Get.class) != null)) &&
+                    (calcBlobSessionCount(method) == 0);
+            endpoint.cacheable = calcBlobSessionCount(method) == 0 ? method.getAnnotation(Cacheable.class) : null;
+            endpoint.singleFlight = (method.getAnnotation(SingleFlight.class) != null) && (calcBlobSessionCount(method) == 0);
+            endpoint.responseType = endpoint.async ? responseTypeOf(method.getGenericReturnType()) : method.getGenericReturnType();
+            endpoint.parameterTypes = method.getGenericParameterTypes();
+            endpoint.parameterClasses = new Class<?>[endpoint.parameterTypes.length];
+            for (int i = 0; i < endpoint.parameterTypes.length; i++) {
+                endpoint.parameterClasses[i] = boxedClassOf(endpoint.parameterTypes[i]);
+            }
             return this;
         }
 
@@ -57,6 +80,7 @@ public class Endpoint {
 
         public Builder unique(String unique) {
             endpoint.unique = unique;
+            endpoint.id = idOf(unique);
             return this;
         }
 
@@ -66,12 +90,11 @@ public class Endpoint {
     }
 
     public static Endpoint create(Controller controller, Method method) throws IllegalArgumentException {
-        if(!method.getReturnType().equals(Response.class)) {
-            throw new IllegalArgumentException("method should return Response<>");
+        if(!method.getReturnType().equals(Response.class) && !isAsync(method)) {
+            throw new IllegalArgumentException("method should return Response<> or CompletableFuture<Response<>>");
         }
 
 
-        final String unique = getUniqueSignature(method);
         final int blobCount = calcBlobSessionCount(method);
 
         if(blobCount > 1) {
@@ -81,12 +104,17 @@ public class Endpoint {
 
         List<Param> params = buildParamList(method);
 
-        final String methodLookupKey = String.format("%x%x%x", method.hashCode(), controller.path().hashCode(), unique.hashCode()).toUpperCase();
+        final List<String> parameterTypes = new ArrayList<>();
+        for (Type type : method.getGenericParameterTypes()) {
+            parameterTypes.add(type.getTypeName());
+        }
+        final String methodLookupKey = uniqueOf(method.getDeclaringClass().getName(), method.getName(), controller.path(), parameterTypes);
+        final Type responseType = isAsync(method) ? responseTypeOf(method.getGenericReturnType()) : method.getGenericReturnType();
         Type retType;
         try {
-            retType = Types.unwrapType(method.getGenericReturnType().toString())[0];
+            retType = Types.unwrapType(responseType.toString())[0];
         } catch (ClassNotFoundException | IllegalArgumentException e) {
-            retType = method.getGenericReturnType();
+            retType = responseType;
         }
 
         return Endpoint.builder()
@@ -97,6 +125,31 @@ public class Endpoint {
                 .build();
     }
 
+    /**
+     * @return true if the method returns {@code CompletableFuture<Response<>>}, which is completed when the response arrives
+     */
+    private static boolean isAsync(Method method) {
+        return method.getReturnType().equals(CompletableFuture.class) &&
+                (responseTypeOf(method.getGenericReturnType()) != null);
+    }
+
+    /**
+     * @return {@code Response<>} wrapped in the future, or null if the future doesn't hold the response
+     */
+    private static Type responseTypeOf(Type futureType) {
+        if(!(futureType instanceof ParameterizedType)) {
+            return null;
+        }
+        final Type type = ((ParameterizedType) futureType).getActualTypeArguments()[0];
+        if(type.equals(Response.class)) {
+            return type;
+        }
+        if((type instanceof ParameterizedType) && ((ParameterizedType) type).getRawType().equals(Response.class)) {
+            return type;
+        }
+        return null;
+    }
+
     private static List<Param> buildParamList(Method method) {
         final Annotation[][] annotations = method.getParameterAnnotations();
         final List<Param> paramList = new ArrayList<>();
@@ -109,6 +162,37 @@ public class Endpoint {
         return paramList;
     }
 
+    private static Class<?> boxedClassOf(Type type) {
+        if(type instanceof ParameterizedType) {
+            return boxedClassOf(((ParameterizedType) type).getRawType());
+        }
+        if(!(type instanceof Class)) {
+            return Object.class;
+        }
+        final Class<?> cls = (Class<?>) type;
+        if(!cls.isPrimitive()) {
+            return cls;
+        }
+        if(cls == int.class) {
+            return Integer.class;
+        } else if(cls == long.class) {
+            return Long.class;
+        } else if(cls == double.class) {
+            return Double.class;
+        } else if(cls == float.class) {
+            return Float.class;
+        } else if(cls == boolean.class) {
+            return Boolean.class;
+        } else if(cls == short.class) {
+            return Short.class;
+        } else if(cls == byte.class) {
+            return Byte.class;
+        } else if(cls == char.class) {
+            return Character.class;
+        }
+        return Void.class;
+    }
+
     private static int calcBlobSessionCount(Method method) {
         int count = 0;
         final Matcher matcher = TYPE_PATTERN.matcher(Types.getTypeName(method.getGenericReturnType()));
@@ -126,16 +210,24 @@ public class Endpoint {
         return count;
     }
 
-    private static String getUniqueSignature(Method method) {
-        final List<Type> types = Arrays.asList(method.getGenericParameterTypes());
-        if(types.isEmpty()) {
-            types.add(Void.class);
+    /**
+     * build unique lookup key of the endpoint, which is shared with the stubs generated at compile time
+     * @param declaringClass binary name of the class declaring the method
+     * @param name name of the method
+     * @param path path of the controller
+     * @param parameterTypes names of the generic parameter types as given by {@link Type#getTypeName()}
+     * @return unique lookup key, whose {@link #idOf(String)} is id of the endpoint
+     */
+    public static String uniqueOf(String declaringClass, String name, String path, List<String> parameterTypes) {
+        final StringBuilder signature = new StringBuilder();
+        if(parameterTypes.isEmpty()) {
+            signature.append(Void.class.getName()).append('_');
         }
-        StringBuilder builder = new StringBuilder();
-        for (Type type : types) {
-            builder.append(type.getTypeName().concat("_"));
+        for (String type : parameterTypes) {
+            signature.append(type).append('_');
         }
-        return builder.toString();
+        // hash of the method is the same as Method.hashCode()
+        return String.format("%x%x%x", declaringClass.hashCode() ^ name.hashCode(), path.hashCode(), signature.toString().hashCode()).toUpperCase();
     }
 
     private static Annotation getRMIAnnotation(Method method) {
@@ -157,6 +249,21 @@ public class Endpoint {
         return unique;
     }
 
+    /**
+     * id of endpoint which is carried in the frame header
+     * @return hash of unique lookup key
+     */
+    public int getId() {
+        return id;
+    }
+
+    public static int idOf(String unique) {
+        if(unique == null) {
+            return 0;
+        }
+        return unique.hashCode();
+    }
+
     public List<Param> getParams() {
         return params;
     }
@@ -173,6 +280,57 @@ public class Endpoint {
         return unwrappedRetType;
     }
 
+    /**
+     * @return true if the method returns {@code CompletableFuture<Response<>>}
+     */
+    public boolean isAsync() {
+        return async;
+    }
+
+    /**
+     * @return true if the call is safe to be sent more than once (i.e. {@link Idempotent} or {@link Get} without blob session)
+     */
+    public boolean isIdempotent() {
+        return idempotent;
+    }
+
+    /**
+     * @return cache configuration of the method, or null if its response is not cached (see {@link Cacheable})
+     */
+    public Cacheable getCacheable() {
+        return cacheable;
+    }
+
+    /**
+     * @return true if identical concurrent calls share single request (see {@link SingleFlight})
+     */
+    public boolean isSingleFlight() {
+        return singleFlight;
+    }
+
+    /**
+     * @return generic response type of the method, e.g. {@code Response<List<User>>}, which is unwrapped from the future for async method
+     */
+    public Type getResponseType() {
+        return responseType;
+    }
+
+    /**
+     * declared parameter types of the method. the array is shared among all the requests to this endpoint,
+     * so it must not be modified.
+     * @return generic parameter types in declaration order
+     */
+    public Type[] getParameterTypes() {
+        return parameterTypes;
+    }
+
+    /**
+     * @return raw classes of parameter types in declaration order, primitive types are boxed
+     */
+    public Class<?>[] getParameterClasses() {
+        return parameterClasses;
+    }
+
     public void setParams(List<Param> params) {
         this.params = params;
     }
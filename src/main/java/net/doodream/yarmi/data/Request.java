@@ -12,9 +12,8 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
-import java.util.Collections;
-import java.util.List;
-import java.util.concurrent.TimeoutException;
+import java.lang.reflect.Type;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Request contains information for client method invocation consisted with below
@@ -40,8 +39,8 @@ public class Request {
             return request;
         }
 
-        public Builder params(List params) {
-            request.params = params;
+        public Builder args(Object[] args) {
+            request.args = args;
             return this;
         }
 
@@ -54,29 +53,45 @@ public class Request {
             request.session = session;
             return this;
         }
+
+        public Builder responseType(Type type) {
+            request.responseType = type;
+            return this;
+        }
     }
 
     private static final Logger Log = LoggerFactory.getLogger(Request.class);
+    private static final Object[] EMPTY_ARGS = new Object[0];
 
     private transient ClientSocketAdapter client;
 
-    private transient Response response;
+    // only made for the request sent by client
+    private transient CompletableFuture<Response> future;
+
+    private transient Type responseType;
 
     private BlobSession session;
 
     private String endpoint;
 
-    private List<Param> params;
+    // arguments in the declaration order of the endpoint parameters
+    private Object[] args;
 
     private SessionControlMessage scm;
 
     private int nonce;
 
+    // remaining budget of the call in milliseconds when it's sent, 0 if the call has no deadline
+    private long timeout;
+
+    // deadline of the call on the service, which is set when the call arrives
+    private transient Deadline deadline;
+
     // TODO : blob header & blob
 
     public static boolean isValid(Request request) {
         return (request.getEndpoint() != null) &&
-                (request.getParams() != null);
+                (request.getArgs() != null);
     }
 
     public static SessionControlMessageWriter buildSessionMessageWriter(final Writer writer) {
@@ -89,10 +104,22 @@ public class Request {
         return new Builder();
     }
 
-    public synchronized void setResponse(Response response) {
-        Log.trace("notify waiting thread for response ({}) : {}", nonce, response.getBody());
-        this.response = response;
-        this.notifyAll();
+    /**
+     * complete the request with its response. the response is set once, later ones are ignored
+     * @param response response for the request
+     */
+    public void setResponse(Response response) {
+        Log.trace("complete request ({}) : {}", nonce, response.getBody());
+        future.complete(response);
+    }
+
+    /**
+     * get future of the response instead of waiting it. the future is completed by the thread setting the response,
+     * so no thread is blocked while the request is in flight.
+     * @return future completed with the response of this request
+     */
+    public CompletableFuture<Response> toFuture() {
+        return future;
     }
 
 
@@ -100,28 +127,6 @@ public class Request {
         this.client = adapter;
     }
 
-    public synchronized Response getResponse(long timeout) throws TimeoutException {
-        if(response != null) {
-            return response;
-        }
-        Log.trace("wait for response ({}) with timeout {}", nonce, timeout);
-        try {
-            if (timeout > 0) {
-                this.wait(timeout);
-            } else {
-                this.wait();
-            }
-            if (response == null) {
-                Log.error("unexpected null result @ ({})", nonce);
-                return RMIError.TIMEOUT.getResponse();
-            }
-            Log.trace("wake from waiting response ({}) @ {}", nonce, response.getBody());
-            return response;
-        } catch (InterruptedException e) {
-            throw new TimeoutException(e.getMessage());
-        }
-    }
-
     public boolean hasScm() {
         return scm != null;
     }
@@ -131,63 +136,83 @@ public class Request {
     }
 
     public static Request fromEndpoint(Endpoint endpoint, Object ...args) {
+        final Request request;
         if(args == null) {
-            return Request.builder()
-                    .params(Collections.EMPTY_LIST)
+            request = Request.builder()
+                    .args(EMPTY_ARGS)
                     .endpoint(endpoint.getUnique())
+                    .responseType(endpoint.getResponseType())
                     .build();
         } else {
             BlobSession session = BlobSession.findOne(args);
             final Request.Builder builder =  Request.builder()
-                    .params(convertParams(endpoint, args))
-                    .endpoint(endpoint.getUnique());
+                    .args(args)
+                    .endpoint(endpoint.getUnique())
+                    .responseType(endpoint.getResponseType());
 
             if(!session.equals(BlobSession.NULL)) {
                 builder.session(session);
             }
 
-            return builder.build();
+            request = builder.build();
         }
+        request.future = new CompletableFuture<>();
+        return request;
     }
 
-    private static List<Param> convertParams(final Endpoint endpoint, Object[] objects) {
-        if(objects == null || endpoint == null) {
-            return Collections.EMPTY_LIST;
-        }
+    public void setNonce(int nonce) {
+        this.nonce = nonce;
+    }
 
-        List<Param> params = endpoint.getParams();
-        for (int i = 0; i < params.size(); i++) {
-            final Param param = params.get(i);
-            final Object object = objects[i];
-            if(param == null) {
-                continue;
-            }
-            param.apply(object);
-            if(param.isInstanceOf(BlobSession.class)) {
-                if(object != null) {
-                    endpoint.session = (BlobSession) object;
-                }
-            }
-        }
+    /**
+     * @param timeout remaining budget of the call in milliseconds, 0 if the call has no deadline
+     */
+    public void setTimeout(long timeout) {
+        this.timeout = timeout;
+    }
 
-        return params;
+    public long getTimeout() {
+        return timeout;
+    }
 
+    /**
+     * @param deadline deadline of the call on the service
+     */
+    public void setDeadline(Deadline deadline) {
+        this.deadline = deadline;
     }
 
-    public void setNonce(int nonce) {
-        this.nonce = nonce;
+    /**
+     * @return deadline of the call on the service, or null if the call has no deadline
+     */
+    public Deadline getDeadline() {
+        return deadline;
+    }
+
+    /**
+     * @return true if the call can't be complete before its deadline, so nobody waits for its response
+     */
+    public boolean isExpired() {
+        return (deadline != null) && deadline.isExpired();
     }
 
     public BlobSession getSession() {
         return session;
     }
 
-    public List<Param> getParams() {
-        return params;
+    public Object[] getArgs() {
+        return args;
     }
 
     public Response getResponse() {
-        return response;
+        return future == null ? null : future.getNow(null);
+    }
+
+    /**
+     * @return type of the response expected for this request
+     */
+    public Type getResponseType() {
+        return responseType;
     }
 
     public SessionControlMessage getScm() {
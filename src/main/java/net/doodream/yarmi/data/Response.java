@@ -1,6 +1,5 @@
 package net.doodream.yarmi.data;
 
-import com.doodream.cutils.Types;
 import net.doodream.yarmi.net.session.BlobSession;
 import net.doodream.yarmi.net.session.SessionCommand;
 import net.doodream.yarmi.net.session.SessionControlMessage;
@@ -12,7 +11,6 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
-import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
 
 /**
@@ -116,6 +114,13 @@ public class Response<T> {
         return error.getResponse();
     }
 
+    /**
+     * @return new error response for the error, which can be routed (e.g. nonce is set) unlike shared one from {@link #from(RMIError)}
+     */
+    public static Response error(RMIError error) {
+        return error(error.code(), (String) error.getResponse().getBody());
+    }
+
     public static boolean validate(Response res) {
         if(res == null) {
             return false;
@@ -143,6 +148,10 @@ public class Response<T> {
         this.endpoint = endpoint;
     }
 
+    public String getEndpoint() {
+        return endpoint;
+    }
+
     public SessionControlMessage getScm() {
         return scm;
     }
@@ -176,11 +185,8 @@ public class Response<T> {
      * @param type {@link Type} for body content
      */
     public void resolve(Converter converter, Type type) throws IllegalAccessException, InstantiationException, ClassNotFoundException {
-        if(!(type instanceof ParameterizedType)) {
-            Class rawCls = Class.forName(Types.getTypeName(type));
-            if(Types.isCastable(body, rawCls)) {
-                return;
-            }
+        if((type instanceof Class) && ((Class) type).isInstance(body)) {
+            return;
         }
 
         setBody((T) converter.resolve(getBody(), type));
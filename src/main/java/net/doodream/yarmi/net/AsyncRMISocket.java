@@ -0,0 +1,34 @@
+package net.doodream.yarmi.net;
+
+import net.doodream.yarmi.serde.Compression;
+import net.doodream.yarmi.serde.Frame;
+
+import java.io.IOException;
+
+/**
+ * socket whose inbound frames are read by event loop shared among sockets, instead of a thread blocked on its input stream.
+ * the socket is used as blocking one (e.g. for handshake) until {@link #startRead(Compression, FrameListener)} is called.
+ */
+public interface AsyncRMISocket extends RMISocket {
+
+    /**
+     * listener of inbound frames, which is called by the event loop. so it's supposed to hand the frame over
+     * to other thread rather than doing heavy work.
+     */
+    interface FrameListener {
+        void onFrame(Frame frame) throws IOException;
+
+        /**
+         * @param cause error which closed the socket
+         */
+        void onClose(IOException cause);
+    }
+
+    /**
+     * start reading frames by event loop, input stream of the socket can't be used afterward
+     * @param compression compression agreed with the peer
+     * @param listener listener of the frames
+     * @throws IOException socket is not open
+     */
+    void startRead(Compression compression, FrameListener listener) throws IOException;
+}
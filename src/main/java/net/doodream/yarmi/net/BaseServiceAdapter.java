@@ -1,22 +1,28 @@
 package net.doodream.yarmi.net;
 
+import net.doodream.yarmi.data.Deadline;
 import net.doodream.yarmi.data.RMIError;
 import net.doodream.yarmi.data.RMIServiceInfo;
 import net.doodream.yarmi.data.Request;
 import net.doodream.yarmi.data.Response;
+import net.doodream.yarmi.serde.Batching;
 import net.doodream.yarmi.serde.Converter;
+import net.doodream.yarmi.serde.Frame;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.lang.reflect.Type;
 import java.net.InetAddress;
 import java.util.Collections;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Function;
 
 public abstract class BaseServiceAdapter implements ServiceAdapter {
@@ -25,12 +31,91 @@ public abstract class BaseServiceAdapter implements ServiceAdapter {
     private final ExecutorService executorService = Executors.newWorkStealingPool();
     private final Map<RMISocket, Future> handshakeTasks = new ConcurrentHashMap<>();
     private final Set<ClientSocketAdapter> activeClients = Collections.newSetFromMap(new ConcurrentHashMap<>());
+    private final LongAdder droppedCalls = new LongAdder();
+    private final LongAdder interruptedCalls = new LongAdder();
     private volatile boolean listen = false;
     private Future<?> clientReceptionTask;
 
+    /**
+     * call of the client being handled, which can be cancelled by the client
+     */
+    private static final class Call {
+        private static final int QUEUED = 0;
+        private static final int RUNNING = 1;
+        private static final int CANCELLED = 2;
+        private static final int DONE = 3;
+
+        // budget of the call is spent from its arrival, including the time it's queued
+        private final long arrival = System.nanoTime();
+        private int state = QUEUED;
+        private boolean interruptible;
+        private Thread thread;
+
+        /**
+         * @return false if the call is cancelled before it's started
+         */
+        private synchronized boolean start(boolean interruptible) {
+            if(state != QUEUED) {
+                return false;
+            }
+            state = RUNNING;
+            this.interruptible = interruptible;
+            thread = Thread.currentThread();
+            return true;
+        }
+
+        /**
+         * @return {@link #QUEUED} if the call is dropped before it's started, {@link #RUNNING} if the invocation is interrupted,
+         * otherwise the state of the call
+         */
+        private synchronized int cancel() {
+            final int cancelled = state;
+            if(state == DONE) {
+                return DONE;
+            }
+            state = CANCELLED;
+            if(cancelled == RUNNING) {
+                if(!interruptible) {
+                    return CANCELLED;
+                }
+                thread.interrupt();
+            }
+            return cancelled;
+        }
+
+        private synchronized boolean isCancelled() {
+            return state == CANCELLED;
+        }
+
+        /**
+         * called by the thread which started the call, interruption by cancel is cleared so that it doesn't leak into next call
+         */
+        private synchronized void finish() {
+            state = DONE;
+            thread = null;
+            Thread.interrupted();
+        }
+    }
+
+
+    @Override
+    public String listen(RMIServiceInfo serviceInfo, InetAddress network, Function<Request, Response> requestHandler) throws IllegalAccessException, InstantiationException, IOException {
+        // parameter types are unknown, so arguments are decoded generically
+        return listen(serviceInfo, network, new RequestHandler() {
+            @Override
+            public Type[] getParameterTypes(int endpoint) {
+                return null;
+            }
+
+            @Override
+            public Response apply(Request request) {
+                return requestHandler.apply(request);
+            }
+        });
+    }
 
     @Override
-    public synchronized String listen(final RMIServiceInfo serviceInfo, final InetAddress network, final Function<Request, Response> handleRequest) throws IllegalAccessException, InstantiationException, IOException {
+    public synchronized String listen(final RMIServiceInfo serviceInfo, final InetAddress network, final RequestHandler handleRequest) throws IllegalAccessException, InstantiationException, IOException {
         if(listen) {
             throw new IllegalStateException("service already listening");
         }
@@ -44,6 +129,7 @@ public abstract class BaseServiceAdapter implements ServiceAdapter {
 
         final Negotiator negotiator = (Negotiator) serviceInfo.getNegotiator().newInstance();
         final Converter converter = (Converter) serviceInfo.getConverter().newInstance();
+        final Batching batching = Batching.from(serviceInfo.getParams());
         onStart(network);
         clientReceptionTask = executorService.submit(() -> {
             listen = true;
@@ -53,7 +139,7 @@ public abstract class BaseServiceAdapter implements ServiceAdapter {
                     handshakeTasks.put(client, executorService.submit(() -> {
                         try {
                             final RMISocket confirmedClient = negotiator.handshake(client, serviceInfo, converter, false);
-                            final ClientSocketAdapter socketAdapter = ClientSocketAdapter.create(confirmedClient, converter);
+                            final ClientSocketAdapter socketAdapter = ClientSocketAdapter.create(confirmedClient, converter, batching);
                             onHandshakeSuccess(socketAdapter, handleRequest);
                         } catch (IOException e) {
                             Log.error("stop client handle {}", e.getMessage());
@@ -70,39 +156,105 @@ public abstract class BaseServiceAdapter implements ServiceAdapter {
         return getProxyConnectionHint(serviceInfo);
     }
 
-    private void onHandshakeSuccess(final ClientSocketAdapter adapter, final Function<Request, Response> handleRequest) {
-        adapter.startListen(request -> {
-            try {
-                if (Request.isValid(request)) {
-                    executorService.submit(() -> {
-                        try {
-                            if (Log.isTraceEnabled()) {
-                                Log.trace("Request <= {}", request);
-                            }
-                            request.setClient(adapter);
-                            try {
-                                final Response response = handleRequest.apply(request);
-                                if (Log.isTraceEnabled()) {
-                                    Log.trace("Response => {}", response);
-                                }
-                                adapter.write(response);
-                            } catch (Exception e) {
-                                adapter.write(RMIError.INTERNAL_SERVER_ERROR.getResponse());
-                            }
-                        } catch (Exception e) {
-                            handleClientError(adapter, e);
-                        }
-                    });
-                } else {
-                    adapter.write(Response.from(RMIError.BAD_REQUEST));
+    private void onHandshakeSuccess(final ClientSocketAdapter adapter, final RequestHandler handleRequest) {
+        // calls of the client not complete yet, keyed by nonce
+        final Map<Integer, Call> calls = new ConcurrentHashMap<>();
+        adapter.startListen(new ClientSocketAdapter.RequestListener() {
+            // last of the ordered calls, only accessed by the thread reading requests
+            private CompletableFuture<?> ordered = CompletableFuture.completedFuture(null);
+
+            @Override
+            public void onRequest(Frame frame) {
+                final Call call = new Call();
+                calls.put(frame.getNonce(), call);
+                final Runnable task = () -> {
+                    if (!call.start(handleRequest.isInterruptible(frame.getEndpoint()))) {
+                        // cancelled while queued
+                        calls.remove(frame.getNonce(), call);
+                        frame.release();
+                        return;
+                    }
+                    try {
+                        handle(adapter, handleRequest, frame, call);
+                    } finally {
+                        calls.remove(frame.getNonce(), call);
+                        call.finish();
+                    }
+                };
+                if(frame.hasFlag(Frame.FLAG_ORDERED)) {
+                    // runs once the preceding ordered call is complete, whether it succeeded or not
+                    ordered = ordered.whenCompleteAsync((result, throwable) -> task.run(), executorService);
+                    return;
+                }
+                executorService.submit(task);
+            }
+
+            @Override
+            public void onCancel(int nonce) {
+                final Call call = calls.get(nonce);
+                if (call == null) {
+                    return;
+                }
+                switch (call.cancel()) {
+                    case Call.QUEUED:
+                        droppedCalls.increment();
+                        break;
+                    case Call.RUNNING:
+                        interruptedCalls.increment();
+                        break;
+                    default:
+                        break;
                 }
-            } catch (IOException e) {
-                handleClientError(adapter, e);
             }
         });
         activeClients.add(adapter);
     }
 
+    private void handle(ClientSocketAdapter adapter, RequestHandler handleRequest, Frame frame, Call call) {
+        // error is routed by the frame, as the request may not be decoded
+        final int nonce = frame.getNonce();
+        final int endpoint = frame.getEndpoint();
+        try {
+            final Request request = adapter.decode(frame, handleRequest.getParameterTypes(endpoint));
+            if ((request == null) || !Request.isValid(request)) {
+                adapter.write(nonce, endpoint, Response.error(RMIError.BAD_REQUEST));
+                return;
+            }
+            if (Log.isTraceEnabled()) {
+                Log.trace("Request <= {}", request);
+            }
+            request.setClient(adapter);
+            if (request.getTimeout() > 0) {
+                request.setDeadline(Deadline.of(call.arrival, request.getTimeout()));
+            }
+            try {
+                final Response response = handleRequest.apply(request);
+                if (Log.isTraceEnabled()) {
+                    Log.trace("Response => {}", response);
+                }
+                if (call.isCancelled()) {
+                    // nobody waits for the response
+                    return;
+                }
+                adapter.write(response);
+            } catch (Exception e) {
+                adapter.write(nonce, endpoint, Response.error(RMIError.INTERNAL_SERVER_ERROR));
+            }
+        } catch (Exception e) {
+            handleClientError(adapter, e);
+        }
+    }
+
+    @Override
+    public long getDroppedCallCount() {
+        return droppedCalls.sum();
+    }
+
+    @Override
+    public long getInterruptedCallCount() {
+        return interruptedCalls.sum();
+    }
+
     private void handleClientError(ClientSocketAdapter adapter, Throwable throwable) {
         Log.error("Error : ", throwable);
         if(activeClients.remove(adapter)) {
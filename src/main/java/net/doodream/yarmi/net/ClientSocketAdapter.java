@@ -1,21 +1,27 @@
 package net.doodream.yarmi.net;
 
 
+import net.doodream.yarmi.data.Endpoint;
 import net.doodream.yarmi.data.Request;
 import net.doodream.yarmi.data.Response;
 import net.doodream.yarmi.net.session.BlobSession;
 import net.doodream.yarmi.net.session.SessionControlException;
 import net.doodream.yarmi.net.session.SessionControlMessage;
 import net.doodream.yarmi.net.session.param.SCMErrorParam;
+import net.doodream.yarmi.serde.Batching;
+import net.doodream.yarmi.serde.BufferPool;
+import net.doodream.yarmi.serde.Compression;
 import net.doodream.yarmi.serde.Converter;
-import net.doodream.yarmi.serde.Reader;
-import net.doodream.yarmi.serde.Writer;
+import net.doodream.yarmi.serde.Frame;
+import net.doodream.yarmi.serde.FrameReader;
+import net.doodream.yarmi.serde.FrameWriter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.lang.reflect.Type;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -27,30 +33,48 @@ public class ClientSocketAdapter {
     private Logger Log = LoggerFactory.getLogger(ClientSocketAdapter.class);
 
     private RMISocket client;
-    private Reader reader;
-    private Writer writer;
+    private FrameReader reader;
+    private FrameWriter writer;
     private Converter converter;
     private final ExecutorService executorService;
     private final AtomicReference<Future> requestHandleTask = new AtomicReference<>();
     private final ConcurrentHashMap<String, BlobSession> sessionRegistry;
 
+    /**
+     * listener receives frames of the requests, which are not decoded yet.
+     * {@link #decode(Frame)} is supposed to be called by the listener to get actual request.
+     */
     public interface RequestListener {
-        void onRequest(Request request);
+        void onRequest(Frame frame);
+
+        /**
+         * called when the client cancels the call, which may be still queued, running or already complete
+         * @param nonce nonce of the call
+         */
+        void onCancel(int nonce);
     }
 
-    ClientSocketAdapter(RMISocket socket, InputStream in, OutputStream out, Converter converter) {
+    ClientSocketAdapter(RMISocket socket, InputStream in, OutputStream out, Converter converter, Batching batching) {
         client = socket;
         executorService = Executors.newCachedThreadPool();
         sessionRegistry = new ConcurrentHashMap<>();
-        reader = converter.reader(in);
-        writer = converter.writer(out);
+        final Compression compression = NegotiatedSocket.compressionOf(socket);
+        reader = new FrameReader(in, converter, compression);
+        writer = new FrameWriter(out, converter, BufferPool.getDefault(), compression, batching);
         this.converter = converter;
     }
 
     public static ClientSocketAdapter create(final RMISocket client, final Converter converter) throws IOException {
+        return create(client, converter, Batching.NONE);
+    }
+
+    /**
+     * @param batching batching of the responses written concurrently
+     */
+    public static ClientSocketAdapter create(final RMISocket client, final Converter converter, final Batching batching) throws IOException {
         final OutputStream os = client.getOutputStream();
         final InputStream is = client.getInputStream();
-        return new ClientSocketAdapter(client, is, os, converter);
+        return new ClientSocketAdapter(client, is, os, converter, batching);
     }
 
 
@@ -60,7 +84,52 @@ public class ClientSocketAdapter {
             sessionRegistry.put(session.getKey(), session);
             session.start(reader, writer, converter, Response::buildSessionMessageWriter, () -> unregisterSession(session));
         }
-        writer.write(response);
+        if (response.hasScm()) {
+            writer.write(response);
+            return;
+        }
+        writer.write(response.getNonce(), Endpoint.idOf(response.getEndpoint()), response);
+    }
+
+    /**
+     * write response routed by given nonce & endpoint id, e.g. error for the request frame which can't be decoded
+     * @param nonce nonce of the request frame
+     * @param endpoint endpoint id of the request frame
+     * @param response response, which is not to be shared
+     */
+    public void write(int nonce, int endpoint, Response response) throws IOException {
+        response.setNonce(nonce);
+        writer.write(nonce, endpoint, response);
+    }
+
+    /**
+     * decode request from its frame and start blob session conveyed with the request if any.
+     * payload buffer of the frame is released after decoded.
+     * @param frame frame of the request
+     * @param parameterTypes parameter types of the target endpoint which arguments are decoded into, or null if unknown
+     * @return decoded request, or null if the frame can't be decoded into valid request
+     */
+    public Request decode(Frame frame, Type[] parameterTypes) {
+        final Request request;
+        try {
+            request = converter.invertRequest(frame.getBuffer(), parameterTypes);
+        } finally {
+            frame.release();
+        }
+        if (request == null) {
+            return null;
+        }
+        final BlobSession session = request.getSession();
+        if (session != null) {
+            session.init();
+            if (sessionRegistry.putIfAbsent(session.getKey(), session) != null) {
+                Log.warn("session conflict for {}", session.getKey());
+                return null;
+            }
+            session.start(reader, writer, converter, Response::buildSessionMessageWriter, () -> unregisterSession(session));
+            // forward request to transfer session object to application
+        }
+        return request;
     }
 
     @Override
@@ -77,31 +146,33 @@ public class ClientSocketAdapter {
         requestHandleTask.set(executorService.submit(() -> {
             try {
                 while (true) {
-                    final Request request = reader.read(Request.class);
-                    if (request == null) {
-                        return;
+                    final Frame frame = reader.read();
+                    if (frame.hasFlag(Frame.FLAG_CHUNK)) {
+                        handleChunk(frame);
+                        continue;
+                    }
+                    if (frame.hasFlag(Frame.FLAG_CANCEL)) {
+                        frame.release();
+                        listener.onCancel(frame.getNonce());
+                        continue;
+                    }
+                    if (!frame.isControl()) {
+                        // only slice frames here, request is decoded by the listener in its worker thread
+                        listener.onRequest(frame);
+                        continue;
                     }
-                    final BlobSession session = request.getSession();
-                    if (request.hasScm()) {
-                        // request has session control message, route it to dedicated session
-                        try {
-                            // chunk scm is followed by binary stream, must be consumed properly within handleSessionControlMessage
-                            handleSessionControlMessage(request);
-                        } catch (IllegalStateException | IllegalAccessException | InstantiationException | ClassNotFoundException e) {
-                            // dest. session doesn't exist
-                            write(Response.error(request.getScm(), e.getMessage(), SCMErrorParam.ErrorType.INVALID_SESSION));
-                        }
+                    final Request request = converter.invert(frame.getBuffer(), Request.class);
+                    frame.release();
+                    if (request == null || !request.hasScm()) {
                         continue;
                     }
-                    if (session != null) {
-                        session.init();
-                        if (sessionRegistry.put(session.getKey(), session) != null) {
-                            return;
-                        }
-                        session.start(reader, writer, converter, Response::buildSessionMessageWriter, () -> unregisterSession(session));
-                        // forward request to transfer session object to application
+                    // request has session control message, route it to dedicated session
+                    try {
+                        handleSessionControlMessage(request);
+                    } catch (IllegalStateException | IllegalAccessException | InstantiationException | ClassNotFoundException e) {
+                        // dest. session doesn't exist
+                        write(Response.error(request.getScm(), e.getMessage(), SCMErrorParam.ErrorType.INVALID_SESSION));
                     }
-                    listener.onRequest(request);
                 }
             } catch (IOException e) {
                 Log.debug("stop request handling {} : {}", who(), e.getMessage());
@@ -143,6 +214,17 @@ public class ClientSocketAdapter {
         Log.trace("remove session : {}", session.getKey());
     }
 
+    private void handleChunk(Frame chunk) throws IOException {
+        final String key = BlobSession.keyOf(chunk);
+        final BlobSession session = key == null ? null : sessionRegistry.get(key);
+        if (session == null) {
+            Log.warn("no session to handle chunk {}", key);
+            chunk.release();
+            return;
+        }
+        session.handle(chunk);
+    }
+
     private void handleSessionControlMessage(Request request) throws SessionControlException, IllegalStateException, IOException, IllegalAccessException, InstantiationException, ClassNotFoundException {
         final SessionControlMessage scm = request.getScm();
         BlobSession session;
@@ -3,6 +3,7 @@ package net.doodream.yarmi.net;
 import net.doodream.yarmi.data.RMIError;
 import net.doodream.yarmi.data.RMIServiceInfo;
 import net.doodream.yarmi.data.Response;
+import net.doodream.yarmi.serde.Compression;
 import net.doodream.yarmi.serde.Converter;
 import net.doodream.yarmi.serde.Reader;
 import net.doodream.yarmi.serde.Writer;
@@ -10,12 +11,19 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
+/**
+ * client sends its service info, then server replies with the options it agrees on,
+ * which are the fingerprint of layouts and the compression threshold if compression is requested by both peers.
+ */
 public class DefaultNegotiator implements Negotiator {
     private static final Logger Log = LoggerFactory.getLogger(DefaultNegotiator.class);
     private static final long MAX_TIMEOUT = 10L;
+    private static final String KEY_FINGERPRINT = "fingerprint";
 
     @Override
     public RMISocket handshake(RMISocket socket, RMIServiceInfo service, Converter converter, boolean isClient) throws HandshakeFailException {
@@ -23,28 +31,43 @@ public class DefaultNegotiator implements Negotiator {
         try {
             Reader reader = converter.reader(socket.getInputStream());
             Writer writer = converter.writer(socket.getOutputStream());
+            final Compression compression;
             if(isClient) {
-                handshakeFromClient(service, reader, writer);
+                compression = handshakeFromClient(service, converter, reader, writer);
             } else {
-                handshakeFromServer(service, reader, writer);
+                compression = handshakeFromServer(service, converter, reader, writer);
             }
+            Log.debug("Handshake agreed on {}", compression);
+            return new NegotiatedSocket(socket, compression);
         } catch (IOException e) {
             e.printStackTrace();
         }
         return socket;
     }
 
-    private void handshakeFromClient(final RMIServiceInfo service, Reader reader, Writer writer) throws HandshakeFailException {
+    private Compression handshakeFromClient(final RMIServiceInfo service, Converter converter, Reader reader, Writer writer) throws HandshakeFailException {
         try {
+            final String fingerprint = Long.toHexString(converter.fingerprint(service));
+            final Compression requested = Compression.from(service.getParams());
             writer.write(service, MAX_TIMEOUT, TimeUnit.SECONDS);
             Log.debug("write {}", service);
             Response response = reader.read(Response.class,MAX_TIMEOUT, TimeUnit.SECONDS);
             if ((response != null) &&
-                    response.isSuccessful()) {
-                Log.debug("Handshake Success {} (Ver. {})", service.getName(), service.getVersion());
-                return;
+                    response.isSuccessful() && (response.getBody() instanceof Map)) {
+                // server replies with fingerprint of its layouts and the options it agrees on
+                final Map<?, ?> agreed = (Map<?, ?>) response.getBody();
+                if (fingerprint.equals(agreed.get(KEY_FINGERPRINT))) {
+                    Log.debug("Handshake Success {} (Ver. {})", service.getName(), service.getVersion());
+                    final Object threshold = agreed.get(Compression.PARAM_THRESHOLD);
+                    if (!requested.isEnabled() || (threshold == null)) {
+                        return Compression.NONE;
+                    }
+                    return Compression.of(Integer.parseInt(String.valueOf(threshold)), requested.getLevel());
+                }
+                Log.error("Handshake Fail : layout mismatch ({} / {})", fingerprint, agreed.get(KEY_FINGERPRINT));
+            } else {
+                Log.error("Handshake Fail ({}) {}", response.getCode(), response.getBody());
             }
-            Log.error("Handshake Fail ({}) {}",response.getCode(), response.getBody());
         } catch (IOException e) {
             Log.error("error on read : {}", e.getMessage());
         } catch (TimeoutException e) {
@@ -53,11 +76,23 @@ public class DefaultNegotiator implements Negotiator {
         throw new HandshakeFailException();
     }
 
-    private void handshakeFromServer(final RMIServiceInfo service, Reader reader, final Writer writer) throws HandshakeFailException {
+    private Compression handshakeFromServer(final RMIServiceInfo service, Converter converter, Reader reader, final Writer writer) throws HandshakeFailException {
         try {
+            final String fingerprint = Long.toHexString(converter.fingerprint(service));
             final RMIServiceInfo serviceInfo = reader.read(RMIServiceInfo.class, MAX_TIMEOUT, TimeUnit.SECONDS);
             if(serviceInfo.hashCode() == service.hashCode()) {
-                writer.write(Response.success("OK"));
+                final Compression offered = Compression.from(service.getParams());
+                final Compression requested = Compression.from(serviceInfo.getParams());
+                final Map<String, String> agreed = new HashMap<>();
+                agreed.put(KEY_FINGERPRINT, fingerprint);
+                Compression compression = Compression.NONE;
+                if(offered.isEnabled() && requested.isEnabled()) {
+                    // compress only what both peers consider large enough
+                    compression = Compression.of(Math.max(offered.getThreshold(), requested.getThreshold()), offered.getLevel());
+                    agreed.put(Compression.PARAM_THRESHOLD, String.valueOf(compression.getThreshold()));
+                }
+                writer.write(Response.success(agreed));
+                return compression;
             } else {
                 writer.write(RMIError.BAD_REQUEST.getResponse());
                 throw new HandshakeFailException();
@@ -67,6 +102,7 @@ public class DefaultNegotiator implements Negotiator {
         } catch (TimeoutException e) {
             Log.error("timeout on handshake : {}", e.getMessage());
         }
+        return Compression.NONE;
     }
 
 }
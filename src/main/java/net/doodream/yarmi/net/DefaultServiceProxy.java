@@ -1,37 +1,60 @@
 package net.doodream.yarmi.net;
 
-import net.doodream.yarmi.annotation.RMIException;
 import net.doodream.yarmi.data.*;
 import net.doodream.yarmi.net.session.BlobSession;
 import net.doodream.yarmi.net.session.SessionCommand;
 import net.doodream.yarmi.net.session.SessionControlMessage;
+import net.doodream.yarmi.serde.Batching;
+import net.doodream.yarmi.serde.BufferPool;
+import net.doodream.yarmi.serde.Compression;
 import net.doodream.yarmi.serde.Converter;
-import net.doodream.yarmi.serde.Reader;
-import net.doodream.yarmi.serde.Writer;
+import net.doodream.yarmi.serde.Frame;
+import net.doodream.yarmi.serde.FrameReader;
+import net.doodream.yarmi.serde.FrameWriter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
 import java.util.Base64;
+import java.util.List;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
 
 class DefaultServiceProxy implements ServiceProxy {
 
     private static final Logger Log = LoggerFactory.getLogger(DefaultServiceProxy.class);
+    // expires requests of all the proxies
+    static final HashedWheelTimer TIMER = HashedWheelTimer.getDefault();
+    // decodes responses and runs short tasks of all the proxies, idle threads are let go
+    static final ExecutorService WORKERS = Executors.newCachedThreadPool(runnable -> {
+        final Thread thread = new Thread(runnable, "yarmi-proxy-worker");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private static final int PENDING_CALL_CAPACITY = 1 << 12;
 
     private volatile int openSemaphore;
     private volatile boolean isValid;
+    private volatile boolean isRetired;
     private final ConcurrentHashMap<String, BlobSession> sessionRegistry = new ConcurrentHashMap<>();
-    private final ConcurrentHashMap<Integer, Request> requestWaitQueue = new ConcurrentHashMap<>();
+    private final PendingCalls pendingCalls = new PendingCalls(PENDING_CALL_CAPACITY);
     private final AtomicInteger requestId =  new AtomicInteger(0);
+    // calls in flight, which is load of the connection
+    private final AtomicInteger load = new AtomicInteger(0);
+    // chunks and session control messages, handled one by one in order of arrival by a worker thread
+    private final ConcurrentLinkedQueue<Frame> sessionFrames = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean isHandlingSession = new AtomicBoolean(false);
+    private volatile long lastActive = System.nanoTime();
     private final RMIServiceInfo serviceInfo;
     private final RMISocket socket;
-    private final ExecutorService executorService;
     private Converter converter;
-    private Reader reader;
-    private Writer writer;
+    private FrameReader reader;
+    private FrameWriter writer;
     private Future<?> readerTask;
 
     public static DefaultServiceProxy create(RMIServiceInfo info, RMISocket socket) {
@@ -45,7 +68,6 @@ class DefaultServiceProxy implements ServiceProxy {
         serviceInfo = info;
         isValid = false;
         this.socket = socket;
-        executorService = Executors.newCachedThreadPool();
     }
 
     @Override
@@ -58,88 +80,396 @@ class DefaultServiceProxy implements ServiceProxy {
         Negotiator negotiator = (Negotiator) serviceInfo.getNegotiator().newInstance();
         converter = (Converter) serviceInfo.getConverter().newInstance();
         socket.open();
-        reader = converter.reader(socket.getInputStream());
-        writer = converter.writer(socket.getOutputStream());
-        negotiator.handshake(socket, serviceInfo, converter, true);
+        final Compression compression = NegotiatedSocket.compressionOf(negotiator.handshake(socket, serviceInfo, converter, true));
+        writer = new FrameWriter(socket.getOutputStream(), converter, BufferPool.getDefault(), compression, Batching.from(serviceInfo.getParams()));
 
         Log.debug("open proxy for {} : success", serviceInfo.getName());
         isValid = true;
 
-        readerTask = executorService.submit(() -> {
+        if(socket instanceof AsyncRMISocket) {
+            // frames are read by shared event loop, no thread is dedicated to this proxy
+            ((AsyncRMISocket) socket).startRead(compression, new AsyncRMISocket.FrameListener() {
+                @Override
+                public void onFrame(Frame frame) throws IOException {
+                    handleFrame(frame);
+                }
+
+                @Override
+                public void onClose(IOException cause) {
+                    onConnectionLost(cause);
+                }
+            });
+            return true;
+        }
+        reader = new FrameReader(socket.getInputStream(), converter, compression);
+        readerTask = WORKERS.submit(() -> {
             try {
                 while(isValid) {
-                    final Response response = reader.read(Response.class);
-                    if(response == null) {
-                        continue;
-                    }
-                    if(response.hasScm()) {
-                        handleSessionControlMessage(response);
-                        continue;
-                    }
-                    final Request request = requestWaitQueue.get(response.getNonce());
-                    if (request == null) {
-                        Log.warn("no mapped request exists : {}", response);
-                        return;
-                    }
-                    request.setResponse(response);
+                    handleFrame(reader.read());
                 }
-            } catch (IOException | IllegalAccessException | InstantiationException | ClassNotFoundException e) {
-                Log.warn("proxy stopped : {}", e.getMessage());
-            } finally {
-
+            } catch (IOException e) {
+                onConnectionLost(e);
             }
         });
         return true;
     }
 
+    /**
+     * close the proxy whose connection is lost, so that calls in flight fail right away and no more call is taken
+     */
+    private void onConnectionLost(IOException cause) {
+        if(!isValid) {
+            // closed by this side
+            return;
+        }
+        Log.warn("proxy stopped : {}", cause.getMessage());
+        try {
+            actualClose();
+        } catch (IOException e) {
+            Log.debug("fail to close proxy : {}", e.getMessage());
+        }
+    }
+
+    /**
+     * handle frame from the service, which is called by the thread reading the socket
+     */
+    private void handleFrame(Frame frame) {
+        if(frame.hasFlag(Frame.FLAG_CHUNK) || frame.isControl()) {
+            // session may write blob in response (e.g. sender session being acked), which the reading thread
+            // (possibly shared event loop) is not to wait for
+            sessionFrames.offer(frame);
+            if(isHandlingSession.compareAndSet(false, true)) {
+                WORKERS.execute(this::drainSessionFrames);
+            }
+            return;
+        }
+        final Request request = pendingCalls.remove(frame.getNonce());
+        if (request == null) {
+            // response arrived after its request is timed out, or unknown nonce
+            Log.debug("discard response without pending request : {}", frame);
+            frame.release();
+            return;
+        }
+        // only slice frames here, decoding is done by worker threads in parallel
+        WORKERS.execute(() -> onResponseFrame(request, frame));
+    }
+
+    private void drainSessionFrames() {
+        do {
+            Frame frame;
+            while ((frame = sessionFrames.poll()) != null) {
+                try {
+                    handleSessionFrame(frame);
+                } catch (IOException | RuntimeException e) {
+                    Log.warn("fail to handle session frame : {}", e.getMessage());
+                }
+            }
+            isHandlingSession.set(false);
+            // frame queued right before the flag is cleared is taken here
+        } while (!sessionFrames.isEmpty() && isHandlingSession.compareAndSet(false, true));
+    }
+
+    private void handleSessionFrame(Frame frame) throws IOException {
+        if(frame.hasFlag(Frame.FLAG_CHUNK)) {
+            handleChunk(frame);
+            return;
+        }
+        final Response response = converter.invert(frame.getBuffer(), Response.class);
+        frame.release();
+        if(response != null && response.hasScm()) {
+            try {
+                handleSessionControlMessage(response);
+            } catch (IllegalAccessException | InstantiationException | ClassNotFoundException e) {
+                throw new IOException(e);
+            }
+        }
+    }
+
+    private void onResponseFrame(Request request, Frame frame) {
+        try {
+            request.setResponse(decodeResponse(request, frame));
+        } finally {
+            frame.release();
+        }
+    }
+
+    private Response decodeResponse(Request request, Frame frame) {
+        // decode body straight into the type which the request expects
+        Response response = converter.invert(frame.getBuffer(), request.getResponseType());
+        if(response != null) {
+            return response;
+        }
+        // body doesn't fit into expected type (e.g. error message), decode generically and resolve it
+        response = converter.invert(frame.getBuffer(), Response.class);
+        if(response == null) {
+            Log.warn("fail to decode response : {}", frame);
+            return RMIError.BAD_RESPONSE.getResponse();
+        }
+        if(response.isSuccessful()) {
+            try {
+                response.resolve(converter, bodyTypeOf(request.getResponseType()));
+            } catch (IllegalAccessException | InstantiationException | ClassNotFoundException e) {
+                Log.warn("fail to resolve response : {}", e.getMessage());
+                return RMIError.BAD_RESPONSE.getResponse();
+            }
+        }
+        return response;
+    }
+
+    private static Type bodyTypeOf(Type responseType) {
+        if(responseType instanceof ParameterizedType) {
+            return ((ParameterizedType) responseType).getActualTypeArguments()[0];
+        }
+        return Object.class;
+    }
 
     @Override
     public Response request(Endpoint endpoint, long timeoutInMill, Object ...args) throws IOException {
+        final CompletableFuture<Response> call = requestAsync(endpoint, timeoutInMill, args);
+        try {
+            // completed by either the response or its expiry
+            return call.get();
+        } catch (InterruptedException e) {
+            call.cancel(false);
+            // interrupt is kept for the caller
+            Thread.currentThread().interrupt();
+            return RMIError.TIMEOUT.getResponse();
+        } catch (ExecutionException e) {
+            if(e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    @Override
+    public CompletableFuture<Response> requestAsync(Endpoint endpoint, long timeoutInMill, Object ...args) {
+        final CompletableFuture<Response> failure = new CompletableFuture<>();
         if(!isValid) {
-            throw new IOException("proxy closed");
+            failure.completeExceptionally(new IOException("proxy closed"));
+            return failure;
         }
 
         final Request request = Request.fromEndpoint(endpoint, args);
         final boolean hasBlobSession = request.getSession() != null;
+        final long timeout = hasBlobSession? 0L : timeoutOf(timeoutInMill);
+        if(timeout < 0) {
+            // deadline inherited from the call being handled is already passed
+            return CompletableFuture.completedFuture(RMIError.TIMEOUT.getResponse());
+        }
 
         request.setNonce(requestId.incrementAndGet());
+        // remaining budget is sent along with the request, so service doesn't bother with the call nobody waits for
+        request.setTimeout(timeout);
         if(hasBlobSession) {
             registerSession(request.getSession());
         }
         if(Log.isTraceEnabled()) {
             Log.trace("Request => {}", request);
         }
-        requestWaitQueue.put(request.getNonce(), request);
-        long timeout = hasBlobSession? 0L : timeoutInMill;
-        Response response;
-        try {
-            if (timeout > 0) {
-                writer.write(request, timeout, TimeUnit.MILLISECONDS);
-            } else {
-                writer.write(request);
+        // response is put by the thread decoding it, which completes the future
+        final CompletableFuture<Response> future = request.toFuture();
+        pendingCalls.put(request);
+        load.incrementAndGet();
+        // single deadline bounds both writing request and waiting its response
+        final HashedWheelTimer.Timeout expiry = timeout > 0 ?
+                TIMER.newTimeout(() -> expire(request, endpoint), timeout, TimeUnit.MILLISECONDS) : null;
+        // request is queued and written by whichever thread drains the writer, so the caller never waits for the socket
+        writer.writeAsync(request.getNonce(), endpoint.getId(), request, WORKERS).whenCompleteAsync((written, e) -> {
+            if((e != null) && (pendingCalls.remove(request.getNonce()) != null)) {
+                if(expiry != null) {
+                    expiry.cancel();
+                }
+                future.completeExceptionally(e);
             }
-            response = request.getResponse(timeout);
-        } catch (RMIException | TimeoutException e) {
-            response = RMIError.TIMEOUT.getResponse();
-        } finally {
-            requestWaitQueue.remove(request.getNonce());
+        }, WORKERS);
+        return track(request, endpoint, future, expiry);
+    }
+
+    @Override
+    public List<CompletableFuture<Response>> requestBatch(List<Endpoint> endpoints, List<Object[]> args, long timeoutInMill, boolean ordered) {
+        final int size = endpoints.size();
+        final List<CompletableFuture<Response>> results = new ArrayList<>(size);
+        final long timeout = timeoutOf(timeoutInMill);
+        if(!isValid || (timeout < 0)) {
+            final IOException closed = new IOException("proxy closed");
+            for (int i = 0; i < size; i++) {
+                final CompletableFuture<Response> failure = new CompletableFuture<>();
+                if(timeout < 0) {
+                    failure.complete(RMIError.TIMEOUT.getResponse());
+                } else {
+                    failure.completeExceptionally(closed);
+                }
+                results.add(failure);
+            }
+            return results;
         }
 
+        final Request[] requests = new Request[size];
+        final int[] nonces = new int[size];
+        final int[] ids = new int[size];
+        for (int i = 0; i < size; i++) {
+            requests[i] = Request.fromEndpoint(endpoints.get(i), args.get(i));
+            if(requests[i].getSession() != null) {
+                throw new IllegalArgumentException("call with blob session can't be batched");
+            }
+        }
+        final List<CompletableFuture<Response>> futures = new ArrayList<>(size);
+        final HashedWheelTimer.Timeout[] expiries = new HashedWheelTimer.Timeout[size];
+        for (int i = 0; i < size; i++) {
+            final Request request = requests[i];
+            final Endpoint endpoint = endpoints.get(i);
+            request.setNonce(requestId.incrementAndGet());
+            request.setTimeout(timeout);
+            nonces[i] = request.getNonce();
+            ids[i] = endpoint.getId();
+            futures.add(request.toFuture());
+            pendingCalls.put(request);
+            load.incrementAndGet();
+            expiries[i] = timeout > 0 ?
+                    TIMER.newTimeout(() -> expire(request, endpoint), timeout, TimeUnit.MILLISECONDS) : null;
+        }
         try {
-            if (response.isSuccessful()) {
-                response.resolve(converter, endpoint.getUnwrappedRetType());
-                if (response.hasSessionSwitch()) {
-                    response = handleBlobResponse(response);
+            writer.writeBatch(ordered ? Frame.FLAG_ORDERED : Frame.FLAG_NONE, nonces, ids, requests, timeout, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            for (int i = 0; i < size; i++) {
+                expire(requests[i], endpoints.get(i));
+            }
+        } catch (IOException e) {
+            for (int i = 0; i < size; i++) {
+                pendingCalls.remove(nonces[i]);
+                if(expiries[i] != null) {
+                    expiries[i].cancel();
                 }
+                onCallComplete();
+                final CompletableFuture<Response> failure = new CompletableFuture<>();
+                failure.completeExceptionally(e);
+                results.add(failure);
             }
-        } catch (IllegalAccessException | InstantiationException | ClassNotFoundException e) {
-            Log.warn("fail to resolve response");
-            response = RMIError.BAD_RESPONSE.getResponse();
+            return results;
         }
-        return response;
+        for (int i = 0; i < size; i++) {
+            results.add(track(requests[i], endpoints.get(i), futures.get(i), expiries[i]));
+        }
+        return results;
+    }
+
+    /**
+     * @return future of the request sent, which cancels the call on the service when it's abandoned by the caller
+     */
+    private CompletableFuture<Response> track(Request request, Endpoint endpoint, CompletableFuture<Response> future, HashedWheelTimer.Timeout expiry) {
+        final CompletableFuture<Response> result = future.thenApply(response -> {
+            if(expiry != null) {
+                expiry.cancel();
+            }
+            if (response.isSuccessful() && response.hasSessionSwitch()) {
+                return handleBlobResponse(response);
+            }
+            return response;
+        });
+        result.whenComplete((response, throwable) -> {
+            onCallComplete();
+            // abandoned by the caller
+            if(result.isCancelled() && (pendingCalls.remove(request.getNonce()) != null)) {
+                if(expiry != null) {
+                    expiry.cancel();
+                }
+                cancelRemote(request.getNonce(), endpoint);
+            }
+        });
+        return result;
+    }
+
+    private void onCallComplete() {
+        load.decrementAndGet();
+        lastActive = System.nanoTime();
+    }
+
+    /**
+     * @return number of the calls in flight
+     */
+    int getLoad() {
+        return load.get();
+    }
+
+    /**
+     * @return true if there has been no call in flight for the given time
+     */
+    boolean isIdle(long time, TimeUnit unit) {
+        return (load.get() == 0) && (System.nanoTime() - lastActive >= unit.toNanos(time));
+    }
+
+    /**
+     * close the connection taken out of the pool, unless a call has got in flight on it meanwhile
+     * @return true if closed, false if there is a call in flight
+     */
+    synchronized boolean retire() throws IOException {
+        if(load.get() > 0) {
+            return false;
+        }
+        // marked before closing, so that the request rejected by closing is seen as never made
+        isRetired = true;
+        actualClose();
+        return true;
+    }
 
+    /**
+     * @return true if closed by {@link #retire()}
+     */
+    boolean isRetired() {
+        return isRetired;
+    }
 
+    /**
+     * @return true if the proxy can take requests
+     */
+    boolean isOpen() {
+        return isValid && !socket.isClosed();
+    }
 
+    /**
+     * call made by the thread handling other call (e.g. controller) inherits the deadline of the call
+     * @param timeout timeout of the proxy in milliseconds, 0 if there is no timeout
+     * @return timeout of the call in milliseconds, 0 if there is no timeout, or negative if the deadline is already passed
+     */
+    private static long timeoutOf(long timeout) {
+        final Deadline deadline = Deadline.current();
+        if(deadline == null) {
+            return timeout;
+        }
+        final long remaining = deadline.remaining(TimeUnit.MILLISECONDS);
+        if(remaining <= 0) {
+            return -1L;
+        }
+        return timeout > 0 ? Math.min(timeout, remaining) : remaining;
+    }
+
+    /**
+     * complete timed out request unless its response is already taken, so the slot is freed right away
+     * and the response is discarded when it arrives late. service is also told to cancel the call.
+     */
+    private void expire(Request request, Endpoint endpoint) {
+        if(pendingCalls.remove(request.getNonce()) != null) {
+            request.setResponse(RMIError.TIMEOUT.getResponse());
+            cancelRemote(request.getNonce(), endpoint);
+        }
+    }
+
+    /**
+     * let the service drop or interrupt the call, so it doesn't waste its time for the response nobody waits
+     */
+    private void cancelRemote(int nonce, Endpoint endpoint) {
+        if(!isValid) {
+            return;
+        }
+        // not to block the timer thread with the socket
+        WORKERS.execute(() -> {
+            try {
+                writer.write(Frame.FLAG_CANCEL, nonce, endpoint.getId());
+            } catch (IOException e) {
+                Log.debug("fail to cancel call ({}) : {}", nonce, e.getMessage());
+            }
+        });
     }
 
     private Response handleBlobResponse(Response response) {
@@ -156,6 +486,17 @@ class DefaultServiceProxy implements ServiceProxy {
         return RMIError.BAD_RESPONSE.getResponse();
     }
 
+    private void handleChunk(Frame chunk) throws IOException {
+        final String key = BlobSession.keyOf(chunk);
+        final BlobSession session = key == null ? null : sessionRegistry.get(key);
+        if (session == null) {
+            Log.warn("session not available for chunk @ {}", key);
+            chunk.release();
+            return;
+        }
+        session.handle(chunk);
+    }
+
     private void handleSessionControlMessage(Response response) throws IOException, IllegalAccessException, InstantiationException, ClassNotFoundException {
         SessionControlMessage scm = response.getScm();
         BlobSession session;
@@ -217,8 +558,7 @@ class DefaultServiceProxy implements ServiceProxy {
             socket.close();
         }
         cancelReaderTask();
-        executorService.shutdown();
-        for (Request request : requestWaitQueue.values()) {
+        for (Request request : pendingCalls.removeAll()) {
                 // put error response on the request
             request.setResponse(RMIError.CLOSED.getResponse());
                 // wake blocked threads from wait queue
@@ -0,0 +1,247 @@
+package net.doodream.yarmi.net;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * timer expiring large number of timeouts with coarse precision (tick), which is good enough for request timeouts.
+ * timeouts are hashed into buckets of the wheel by their deadline, and single daemon thread expires a bucket on each tick,
+ * so scheduling, cancelling and expiring a timeout are all O(1) regardless of the number of timeouts.
+ *
+ * new timeouts are handed over to the timer thread via lock-free queue, and cancelled timeouts are just marked and
+ * dropped when the timer visits their bucket. tasks are run on the timer thread, so they should be short.
+ * timer thread parks while there is no timeout.
+ */
+public final class HashedWheelTimer {
+
+    private static final Logger Log = LoggerFactory.getLogger(HashedWheelTimer.class);
+    // shared by request timeouts, hedges and housekeeping of all the clients
+    private static final HashedWheelTimer DEFAULT = new HashedWheelTimer(10L, TimeUnit.MILLISECONDS, 512, "yarmi-timer");
+    // keeps ticking for a while after the last timeout, so that back-to-back calls don't wake the thread every time
+    private static final int MAX_IDLE_TICKS = 100;
+    private static final int MAX_TRANSFER_PER_TICK = 1 << 16;
+
+    private final String name;
+    private final long tickInNanos;
+    private final Bucket[] wheel;
+    private final int mask;
+    private final long startTime;
+    private final ConcurrentLinkedQueue<Timeout> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger activeCount = new AtomicInteger(0);
+    private volatile Thread worker;
+    private volatile boolean isParked;
+    // ticks elapsed, only accessed by timer thread
+    private long tick;
+
+    /**
+     * timeout scheduled in the timer
+     */
+    public static final class Timeout {
+        private static final int INIT = 0;
+        private static final int CANCELLED = 1;
+        private static final int EXPIRED = 2;
+        private static final AtomicIntegerFieldUpdater<Timeout> STATE = AtomicIntegerFieldUpdater.newUpdater(Timeout.class, "state");
+
+        private final HashedWheelTimer timer;
+        private final Runnable task;
+        // nanos since start of the timer
+        private final long deadline;
+        private volatile int state;
+        // below are only accessed by timer thread
+        private long remainingRounds;
+        private Timeout next;
+        private Timeout prev;
+
+        private Timeout(HashedWheelTimer timer, Runnable task, long deadline) {
+            this.timer = timer;
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        /**
+         * cancel the timeout
+         * @return false if the timeout is already expired or cancelled
+         */
+        public boolean cancel() {
+            if(!STATE.compareAndSet(this, INIT, CANCELLED)) {
+                return false;
+            }
+            timer.activeCount.decrementAndGet();
+            return true;
+        }
+
+        public boolean isCancelled() {
+            return state == CANCELLED;
+        }
+
+        private void expire() {
+            if(!STATE.compareAndSet(this, INIT, EXPIRED)) {
+                return;
+            }
+            timer.activeCount.decrementAndGet();
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                Log.warn("timeout task failed : {}", e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * doubly linked list of timeouts, only accessed by timer thread
+     */
+    private static final class Bucket {
+        private Timeout head;
+        private Timeout tail;
+
+        private void add(Timeout timeout) {
+            timeout.prev = tail;
+            timeout.next = null;
+            if(tail == null) {
+                head = timeout;
+            } else {
+                tail.next = timeout;
+            }
+            tail = timeout;
+        }
+
+        private Timeout remove(Timeout timeout) {
+            final Timeout next = timeout.next;
+            if(timeout.prev == null) {
+                head = next;
+            } else {
+                timeout.prev.next = next;
+            }
+            if(next == null) {
+                tail = timeout.prev;
+            } else {
+                next.prev = timeout.prev;
+            }
+            timeout.prev = null;
+            timeout.next = null;
+            return next;
+        }
+
+        private void expire() {
+            Timeout timeout = head;
+            while (timeout != null) {
+                if(timeout.isCancelled()) {
+                    timeout = remove(timeout);
+                } else if(timeout.remainingRounds <= 0) {
+                    final Timeout next = remove(timeout);
+                    timeout.expire();
+                    timeout = next;
+                } else {
+                    timeout.remainingRounds--;
+                    timeout = timeout.next;
+                }
+            }
+        }
+    }
+
+    /**
+     * @param tick precision of the timer
+     * @param unit unit of the tick
+     * @param wheelSize number of buckets in the wheel, rounded up to power of 2
+     * @param name name of the timer thread
+     */
+    HashedWheelTimer(long tick, TimeUnit unit, int wheelSize, String name) {
+        int size = 1;
+        while (size < wheelSize) {
+            size <<= 1;
+        }
+        wheel = new Bucket[size];
+        for (int i = 0; i < size; i++) {
+            wheel[i] = new Bucket();
+        }
+        mask = size - 1;
+        tickInNanos = Math.max(1L, unit.toNanos(tick));
+        this.name = name;
+        startTime = System.nanoTime();
+    }
+
+    /**
+     * @return timer shared in the JVM, whose precision is 10 ms
+     */
+    public static HashedWheelTimer getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * schedule task to be run after the delay
+     * @param task task to be run on the timer thread
+     * @param delay delay of the task
+     * @param unit unit of the delay
+     * @return timeout which can be cancelled before it's expired
+     */
+    public Timeout newTimeout(Runnable task, long delay, TimeUnit unit) {
+        final Timeout timeout = new Timeout(this, task, System.nanoTime() - startTime + unit.toNanos(delay));
+        activeCount.incrementAndGet();
+        pending.offer(timeout);
+        if((worker == null) || isParked) {
+            wake();
+        }
+        return timeout;
+    }
+
+    private synchronized void wake() {
+        if(worker == null) {
+            worker = new Thread(this::workLoop, name);
+            worker.setDaemon(true);
+            worker.start();
+            return;
+        }
+        LockSupport.unpark(worker);
+    }
+
+    private void workLoop() {
+        int idleTicks = 0;
+        tick = (System.nanoTime() - startTime) / tickInNanos;
+        while (true) {
+            final long sleep = tickInNanos * (tick + 1) - (System.nanoTime() - startTime);
+            if(sleep > 0) {
+                LockSupport.parkNanos(this, sleep);
+                continue;
+            }
+            transferPending();
+            wheel[(int) (tick & mask)].expire();
+            tick++;
+
+            if(activeCount.get() > 0) {
+                idleTicks = 0;
+                continue;
+            }
+            if(++idleTicks < MAX_IDLE_TICKS) {
+                continue;
+            }
+            isParked = true;
+            if(activeCount.get() == 0) {
+                LockSupport.park(this);
+            }
+            isParked = false;
+            idleTicks = 0;
+            // no timeout is left in the wheel, so elapsed ticks can be skipped
+            tick = Math.max(tick, (System.nanoTime() - startTime) / tickInNanos);
+        }
+    }
+
+    private void transferPending() {
+        Timeout timeout;
+        for (int i = 0; (i < MAX_TRANSFER_PER_TICK) && ((timeout = pending.poll()) != null); i++) {
+            if(timeout.isCancelled()) {
+                continue;
+            }
+            final long due = timeout.deadline / tickInNanos;
+            // deadline already passed is expired on the current tick
+            final long ticks = Math.max(due, tick);
+            timeout.remainingRounds = (ticks - tick) / wheel.length;
+            wheel[(int) (ticks & mask)].add(timeout);
+        }
+    }
+}
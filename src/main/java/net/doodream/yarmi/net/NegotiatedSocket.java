@@ -0,0 +1,71 @@
+package net.doodream.yarmi.net;
+
+import net.doodream.yarmi.serde.Compression;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * socket returned by {@link Negotiator} which carries the options agreed with the peer on handshake
+ */
+public class NegotiatedSocket implements RMISocket {
+
+    private final RMISocket socket;
+    private final Compression compression;
+
+    public NegotiatedSocket(RMISocket socket, Compression compression) {
+        this.socket = socket;
+        this.compression = compression;
+    }
+
+    /**
+     * @param socket socket returned by {@link Negotiator}
+     * @return compression agreed on the socket, or {@link Compression#NONE} if nothing is agreed
+     */
+    public static Compression compressionOf(RMISocket socket) {
+        if(socket instanceof NegotiatedSocket) {
+            return ((NegotiatedSocket) socket).getCompression();
+        }
+        return Compression.NONE;
+    }
+
+    public Compression getCompression() {
+        return compression;
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        return socket.getInputStream();
+    }
+
+    @Override
+    public OutputStream getOutputStream() throws IOException {
+        return socket.getOutputStream();
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+
+    @Override
+    public void open() throws IOException {
+        socket.open();
+    }
+
+    @Override
+    public boolean isConnected() {
+        return socket.isConnected();
+    }
+
+    @Override
+    public boolean isClosed() {
+        return socket.isClosed();
+    }
+
+    @Override
+    public String getRemoteName() {
+        return socket.getRemoteName();
+    }
+}
@@ -0,0 +1,89 @@
+package net.doodream.yarmi.net;
+
+import net.doodream.yarmi.data.Request;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * open addressing table of in-flight calls indexed by nonce. nonces are issued sequentially, so a call is mostly placed
+ * at its home slot (nonce & mask) and found with single probe. slots are claimed and cleared by CAS, so registering,
+ * taking and discarding calls never lock nor box the nonce.
+ *
+ * taking a call out of the table is the claim to complete it, so either its response or its timeout completes the call,
+ * never both. call whose probe range is fully occupied (e.g. by long-running calls from previous lap of nonces)
+ * is kept in overflow map, which is looked up only while it's not empty.
+ */
+final class PendingCalls {
+
+    private static final int MAX_PROBE = 8;
+
+    private final AtomicReferenceArray<Request> slots;
+    private final int mask;
+    private final ConcurrentHashMap<Integer, Request> overflow = new ConcurrentHashMap<>();
+
+    /**
+     * @param capacity expected number of calls in flight, rounded up to power of 2
+     */
+    PendingCalls(int capacity) {
+        int size = 1;
+        while (size < capacity) {
+            size <<= 1;
+        }
+        slots = new AtomicReferenceArray<>(size);
+        mask = size - 1;
+    }
+
+    void put(Request request) {
+        final int home = request.getNonce() & mask;
+        for (int i = 0; i < MAX_PROBE; i++) {
+            if(slots.compareAndSet((home + i) & mask, null, request)) {
+                return;
+            }
+        }
+        overflow.put(request.getNonce(), request);
+    }
+
+    /**
+     * take the call out of the table
+     * @param nonce nonce of the call
+     * @return the call, or null if it's unknown or already taken (e.g. timed out)
+     */
+    Request remove(int nonce) {
+        final int home = nonce & mask;
+        for (int i = 0; i < MAX_PROBE; i++) {
+            final int index = (home + i) & mask;
+            final Request request = slots.get(index);
+            if((request != null) && (request.getNonce() == nonce)) {
+                return slots.compareAndSet(index, request, null) ? request : null;
+            }
+        }
+        if(overflow.isEmpty()) {
+            return null;
+        }
+        return overflow.remove(nonce);
+    }
+
+    /**
+     * take all the calls out of the table
+     * @return calls which were in flight
+     */
+    List<Request> removeAll() {
+        final List<Request> removed = new ArrayList<>();
+        for (int i = 0; i < slots.length(); i++) {
+            final Request request = slots.getAndSet(i, null);
+            if(request != null) {
+                removed.add(request);
+            }
+        }
+        for (Integer nonce : overflow.keySet()) {
+            final Request request = overflow.remove(nonce);
+            if(request != null) {
+                removed.add(request);
+            }
+        }
+        return removed;
+    }
+}
@@ -0,0 +1,363 @@
+package net.doodream.yarmi.net;
+
+import net.doodream.yarmi.data.ControllerInfo;
+import net.doodream.yarmi.data.Endpoint;
+import net.doodream.yarmi.data.RMIServiceInfo;
+import net.doodream.yarmi.data.Response;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+/**
+ * service proxy keeping multiple connections to the same service, so that calls are not serialized through single stream.
+ * each request is made on the least loaded connection (the one with the fewest calls in flight). another connection is
+ * opened when all the connections are busy, and connections beyond minimum are closed after they've been idle for a while.
+ *
+ * pool is configured with {@link net.doodream.yarmi.annotation.AdapterParam} of the service, and the service is reached
+ * with single connection (i.e. {@link DefaultServiceProxy}) if the maximum is not greater than 1.
+ */
+public final class PooledServiceProxy implements ServiceProxy {
+
+    /**
+     * minimum number of connections kept open, 1 if not given
+     */
+    public static final String PARAM_MIN_CONNECTIONS = "pool.connections.min";
+    /**
+     * maximum number of connections, 1 if not given
+     */
+    public static final String PARAM_MAX_CONNECTIONS = "pool.connections.max";
+    /**
+     * time in milliseconds after which idle connection beyond minimum is closed, {@link #DEFAULT_IDLE_TIMEOUT} if not given
+     */
+    public static final String PARAM_IDLE_TIMEOUT = "pool.idle.timeout";
+
+    private static final Logger Log = LoggerFactory.getLogger(PooledServiceProxy.class);
+    private static final long DEFAULT_IDLE_TIMEOUT = 30000L;
+    // calls in flight on the least loaded connection which make the pool grow
+    private static final int GROW_THRESHOLD = 4;
+
+    private final RMIServiceInfo serviceInfo;
+    private final Supplier<RMISocket> sockets;
+    private final int minConnections;
+    private final int maxConnections;
+    private final long idleTimeout;
+    private final AtomicBoolean isGrowing = new AtomicBoolean(false);
+    private final AtomicBoolean isShrinkScheduled = new AtomicBoolean(false);
+    // replaced as a whole when the pool grows or shrinks, so that requests pick a connection without lock
+    private volatile DefaultServiceProxy[] connections = new DefaultServiceProxy[0];
+    // connections taken out of the pool by shrink, which are closed once no call is in flight on them
+    private final List<DefaultServiceProxy> draining = new CopyOnWriteArrayList<>();
+    private int openSemaphore;
+    private volatile boolean isValid;
+
+    private PooledServiceProxy(RMIServiceInfo info, Supplier<RMISocket> sockets, int minConnections, int maxConnections, long idleTimeout) {
+        serviceInfo = info;
+        this.sockets = sockets;
+        this.minConnections = minConnections;
+        this.maxConnections = maxConnections;
+        this.idleTimeout = idleTimeout;
+    }
+
+    /**
+     * @param info service to connect to
+     * @param sockets supplier of new (not opened) socket to the service
+     * @return pooled proxy if the service is configured to be reached by multiple connections, otherwise {@link DefaultServiceProxy}
+     */
+    public static ServiceProxy create(RMIServiceInfo info, Supplier<RMISocket> sockets) {
+        final Map<String, String> params = info.getParams();
+        final int max = intParam(params, PARAM_MAX_CONNECTIONS, 1);
+        if(max <= 1) {
+            return ServiceProxy.getDefault(info, sockets.get());
+        }
+        final int min = Math.min(max, Math.max(1, intParam(params, PARAM_MIN_CONNECTIONS, 1)));
+        final String idleTimeout = params == null ? null : params.get(PARAM_IDLE_TIMEOUT);
+        return new PooledServiceProxy(info, sockets, min, max, idleTimeout == null ? DEFAULT_IDLE_TIMEOUT : Long.parseLong(idleTimeout));
+    }
+
+    private static int intParam(Map<String, String> params, String key, int defaultValue) {
+        if(params == null) {
+            return defaultValue;
+        }
+        final String value = params.get(key);
+        return value == null ? defaultValue : Integer.parseInt(value);
+    }
+
+    @Override
+    public synchronized boolean open() throws IOException, IllegalAccessException, InstantiationException {
+        if(openSemaphore++ > 0) {
+            Log.debug("already opened {} times @ {}", openSemaphore, serviceInfo.getName());
+            return false;
+        }
+        final List<DefaultServiceProxy> opened = new ArrayList<>();
+        try {
+            for (int i = 0; i < minConnections; i++) {
+                opened.add(connect());
+            }
+        } catch (IOException | IllegalAccessException | InstantiationException e) {
+            openSemaphore--;
+            for (DefaultServiceProxy connection : opened) {
+                connection.close(true);
+            }
+            throw e;
+        }
+        connections = opened.toArray(new DefaultServiceProxy[0]);
+        isValid = true;
+        Log.debug("open pool of {} connections for {}", minConnections, serviceInfo.getName());
+        return true;
+    }
+
+    private DefaultServiceProxy connect() throws IOException, IllegalAccessException, InstantiationException {
+        final DefaultServiceProxy connection = DefaultServiceProxy.create(serviceInfo, sockets.get());
+        connection.open();
+        return connection;
+    }
+
+    @Override
+    public Response<?> request(Endpoint endpoint, long timeoutMilliSec, Object... args) throws IOException {
+        while (true) {
+            final DefaultServiceProxy connection = select();
+            try {
+                return connection.request(endpoint, timeoutMilliSec, args);
+            } catch (IOException e) {
+                // connection retired by shrink after being selected rejects the call, which is made again on other one
+                if(!connection.isRetired()) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    @Override
+    public CompletableFuture<Response> requestAsync(Endpoint endpoint, long timeoutMilliSec, Object... args) {
+        try {
+            while (true) {
+                final DefaultServiceProxy connection = select();
+                final CompletableFuture<Response> call = connection.requestAsync(endpoint, timeoutMilliSec, args);
+                if(!isRejected(connection, call)) {
+                    return call;
+                }
+            }
+        } catch (IOException e) {
+            final CompletableFuture<Response> failure = new CompletableFuture<>();
+            failure.completeExceptionally(e);
+            return failure;
+        }
+    }
+
+    @Override
+    public List<CompletableFuture<Response>> requestBatch(List<Endpoint> endpoints, List<Object[]> args, long timeoutMilliSec, boolean ordered) {
+        try {
+            while (true) {
+                // calls of the batch are sent together over single connection
+                final DefaultServiceProxy connection = select();
+                final List<CompletableFuture<Response>> calls = connection.requestBatch(endpoints, args, timeoutMilliSec, ordered);
+                if(calls.isEmpty() || !isRejected(connection, calls.get(0))) {
+                    return calls;
+                }
+            }
+        } catch (IOException e) {
+            final List<CompletableFuture<Response>> failures = new ArrayList<>(endpoints.size());
+            for (int i = 0; i < endpoints.size(); i++) {
+                final CompletableFuture<Response> failure = new CompletableFuture<>();
+                failure.completeExceptionally(e);
+                failures.add(failure);
+            }
+            return failures;
+        }
+    }
+
+    /**
+     * @return true if the call has failed right away as the connection is retired after being selected
+     */
+    private static boolean isRejected(DefaultServiceProxy connection, CompletableFuture<Response> call) {
+        return call.isCompletedExceptionally() && connection.isRetired();
+    }
+
+    /**
+     * @return least loaded connection of the pool
+     * @throws IOException if the pool is closed or no connection is available
+     */
+    private DefaultServiceProxy select() throws IOException {
+        if(!isValid) {
+            throw new IOException("proxy closed");
+        }
+        final DefaultServiceProxy[] snapshot = connections;
+        DefaultServiceProxy selected = null;
+        int minLoad = Integer.MAX_VALUE;
+        int available = 0;
+        for (DefaultServiceProxy connection : snapshot) {
+            if(!connection.isOpen()) {
+                continue;
+            }
+            available++;
+            final int load = connection.getLoad();
+            if(load < minLoad) {
+                minLoad = load;
+                selected = connection;
+            }
+        }
+        if(selected == null) {
+            // all the connections are lost
+            return growNow();
+        }
+        if((available < snapshot.length) || ((minLoad >= GROW_THRESHOLD) && (snapshot.length < maxConnections))) {
+            grow();
+        }
+        return selected;
+    }
+
+    private DefaultServiceProxy growNow() throws IOException {
+        final DefaultServiceProxy connection;
+        try {
+            connection = connect();
+        } catch (IllegalAccessException | InstantiationException e) {
+            throw new IOException(e);
+        }
+        synchronized (this) {
+            final DefaultServiceProxy[] updated = isValid ? replace(connections, connection) : null;
+            if(updated != null) {
+                connections = updated;
+                return connection;
+            }
+        }
+        // pool is closed or filled up by others meanwhile
+        connection.close(true);
+        return select();
+    }
+
+    /**
+     * open another connection (or replace lost ones) in background, so the request doesn't wait for the handshake
+     */
+    private void grow() {
+        if(!isGrowing.compareAndSet(false, true)) {
+            return;
+        }
+        DefaultServiceProxy.WORKERS.execute(() -> {
+            try {
+                growNow();
+                Log.debug("pool grown to {} connections @ {}", connections.length, serviceInfo.getName());
+            } catch (IOException e) {
+                Log.warn("fail to grow pool : {}", e.getMessage());
+            } finally {
+                isGrowing.set(false);
+            }
+            scheduleShrink();
+        });
+    }
+
+    /**
+     * @return connections without the lost ones, with the new connection added, or null if there is no room for it
+     */
+    private DefaultServiceProxy[] replace(DefaultServiceProxy[] current, DefaultServiceProxy connection) {
+        final List<DefaultServiceProxy> updated = new ArrayList<>(current.length + 1);
+        for (DefaultServiceProxy existing : current) {
+            if(existing.isOpen()) {
+                updated.add(existing);
+            }
+        }
+        if(updated.size() >= maxConnections) {
+            return null;
+        }
+        updated.add(connection);
+        return updated.toArray(new DefaultServiceProxy[0]);
+    }
+
+    private void scheduleShrink() {
+        if(((connections.length <= minConnections) && draining.isEmpty()) || !isShrinkScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        DefaultServiceProxy.TIMER.newTimeout(() -> {
+            isShrinkScheduled.set(false);
+            // closing socket is not to be done on the timer thread
+            DefaultServiceProxy.WORKERS.execute(this::shrink);
+        }, idleTimeout, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * take connections beyond minimum which have been idle for the idle timeout out of the pool, and close them
+     * unless a request having selected one before is still in flight on it
+     */
+    private void shrink() {
+        synchronized (this) {
+            if(!isValid) {
+                return;
+            }
+            final List<DefaultServiceProxy> kept = new ArrayList<>(Arrays.asList(connections));
+            for (int i = kept.size() - 1; (i >= 0) && (kept.size() > minConnections); i--) {
+                if(kept.get(i).isIdle(idleTimeout, TimeUnit.MILLISECONDS)) {
+                    draining.add(kept.remove(i));
+                }
+            }
+            connections = kept.toArray(new DefaultServiceProxy[0]);
+        }
+        int closed = 0;
+        for (DefaultServiceProxy connection : draining) {
+            try {
+                if(!connection.retire()) {
+                    // closed by later shrink
+                    continue;
+                }
+            } catch (IOException e) {
+                Log.debug("fail to close idle connection : {}", e.getMessage());
+            }
+            draining.remove(connection);
+            closed++;
+        }
+        if(closed > 0) {
+            Log.debug("pool shrunk to {} connections @ {}", connections.length, serviceInfo.getName());
+        }
+        scheduleShrink();
+    }
+
+    /**
+     * @return number of the connections in the pool
+     */
+    public int size() {
+        return connections.length;
+    }
+
+    @Override
+    public synchronized void close(boolean force) throws IOException {
+        if (--openSemaphore > 0) {
+            Log.debug("not close : proxy still being used by {}", openSemaphore);
+            if(!force) {
+                return;
+            }
+        }
+        isValid = false;
+        final List<DefaultServiceProxy> closed = new ArrayList<>(Arrays.asList(connections));
+        connections = new DefaultServiceProxy[0];
+        closed.addAll(draining);
+        draining.clear();
+        for (DefaultServiceProxy connection : closed) {
+            connection.close(true);
+        }
+        Log.debug("pool for {} closed", serviceInfo.getName());
+    }
+
+    @Override
+    public String who() {
+        final DefaultServiceProxy[] snapshot = connections;
+        return snapshot.length > 0 ? snapshot[0].who() : Integer.toHexString(hashCode());
+    }
+
+    @Override
+    public boolean provide(Class controller) {
+        boolean result = false;
+        for (ControllerInfo controllerInfo : serviceInfo.getControllerInfos()) {
+            Class stubCls = controllerInfo.getStubCls();
+            result |= controller.equals(stubCls);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,28 @@
+package net.doodream.yarmi.net;
+
+import net.doodream.yarmi.data.Request;
+import net.doodream.yarmi.data.Response;
+
+import java.lang.reflect.Type;
+import java.util.function.Function;
+
+/**
+ * RequestHandler handles {@link Request} delivered by {@link ServiceAdapter} and also provides parameter types of
+ * each endpoint, so that the adapter can decode arguments of request directly into them.
+ */
+public interface RequestHandler extends Function<Request, Response> {
+
+    /**
+     * @param endpoint id of endpoint carried in the frame of request
+     * @return declared parameter types of the endpoint, or null if the endpoint is unknown
+     */
+    Type[] getParameterTypes(int endpoint);
+
+    /**
+     * @param endpoint id of endpoint carried in the frame of request
+     * @return true if the invocation of the endpoint can be interrupted when the client cancels the call
+     */
+    default boolean isInterruptible(int endpoint) {
+        return false;
+    }
+}
@@ -39,6 +39,16 @@ public interface ServiceAdapter {
      */
     String listen(RMIServiceInfo serviceInfo, InetAddress network, Function<Request, Response> requestHandler) throws IOException, IllegalAccessException, InstantiationException;
 
+    /**
+     * listen with the handler which also provides parameter types of the endpoints, so that arguments of the request
+     * are decoded directly into them. by default, the request is handled by {@link #listen(RMIServiceInfo, InetAddress, Function)}
+     * as adapter written before this method, which decodes arguments generically
+     * @see #listen(RMIServiceInfo, InetAddress, Function)
+     */
+    default String listen(RMIServiceInfo serviceInfo, InetAddress network, RequestHandler requestHandler) throws IOException, IllegalAccessException, InstantiationException {
+        return listen(serviceInfo, network, (Function<Request, Response>) requestHandler);
+    }
+
     /**
      * return {@link ServiceProxyFactory} which is capable of building {@link ServiceProxy} able to connect to current service adapter
      * 현재 {@link ServiceAdapter}에 대응 되는 client측 peer를 생성 할 수 있는 {@link ServiceProxyFactory}를 반환
@@ -58,4 +68,18 @@ public interface ServiceAdapter {
      * server 측 network 연결을 해제하고 모든 resource 를 반환
      */
     void close();
+
+    /**
+     * @return number of the calls cancelled by the clients before they're started, which are never invoked
+     */
+    default long getDroppedCallCount() {
+        return 0L;
+    }
+
+    /**
+     * @return number of the invocations interrupted as the clients cancel the calls
+     */
+    default long getInterruptedCallCount() {
+        return 0L;
+    }
 }
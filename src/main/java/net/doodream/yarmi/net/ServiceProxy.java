@@ -6,12 +6,23 @@ import net.doodream.yarmi.data.RMIServiceInfo;
 import net.doodream.yarmi.data.Response;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 
 public interface ServiceProxy {
 
     static ServiceProxy getDefault(RMIServiceInfo info, RMISocket socket) {
         return DefaultServiceProxy.create(info, socket);
     }
+
+    /**
+     * @return worker threads shared by the proxies, which take over the work not to be done on timer thread (e.g. sending request)
+     */
+    static Executor getWorkers() {
+        return DefaultServiceProxy.WORKERS;
+    }
         ServiceProxy NULL_PROXY = new ServiceProxy() {
             @Override
             public boolean open() {
@@ -25,6 +36,11 @@ public interface ServiceProxy {
                 return Response.from(RMIError.NOT_FOUND);
             }
 
+            @Override
+            public CompletableFuture<Response> requestAsync(Endpoint endpoint, long timeoutMilliSec, Object... args) {
+                return CompletableFuture.completedFuture(Response.from(RMIError.NOT_FOUND));
+            }
+
             @Override
             public void close(boolean force) {
                 // NO OP
@@ -50,6 +66,41 @@ public interface ServiceProxy {
          */
         boolean open() throws IOException, IllegalAccessException, InstantiationException;
         Response<?> request(Endpoint endpoint, long timeoutMilliSec, Object ...args) throws IOException;
+
+        /**
+         * make request without blocking calling thread. by default, {@link #request(Endpoint, long, Object...)} is made
+         * from worker thread, so the proxy implemented before this method still works
+         * @return future completed with the response when it arrives, or with error response when it's timed out.
+         * the future is completed exceptionally if the request can't be sent.
+         */
+        default CompletableFuture<Response> requestAsync(Endpoint endpoint, long timeoutMilliSec, Object ...args) {
+            final CompletableFuture<Response> future = new CompletableFuture<>();
+            DefaultServiceProxy.WORKERS.execute(() -> {
+                try {
+                    future.complete(request(endpoint, timeoutMilliSec, args));
+                } catch (IOException | RuntimeException e) {
+                    future.completeExceptionally(e);
+                }
+            });
+            return future;
+        }
+
+        /**
+         * make multiple requests at once. proxy sending them in single frame takes only one round trip for all of them,
+         * otherwise they are made one by one with {@link #requestAsync(Endpoint, long, Object...)}
+         * @param endpoints endpoint of each call
+         * @param args arguments of each call
+         * @param ordered true if the service should run the calls one by one in the given order, which is only kept
+         *                by the proxy sending them in single frame. otherwise the calls may run in parallel.
+         * @return futures of the responses in the order of the calls
+         */
+        default List<CompletableFuture<Response>> requestBatch(List<Endpoint> endpoints, List<Object[]> args, long timeoutMilliSec, boolean ordered) {
+            final List<CompletableFuture<Response>> responses = new ArrayList<>(endpoints.size());
+            for (int i = 0; i < endpoints.size(); i++) {
+                responses.add(requestAsync(endpoints.get(i), timeoutMilliSec, args.get(i)));
+            }
+            return responses;
+        }
         void close(boolean force) throws IOException;
         String who();
         boolean provide(Class controller);
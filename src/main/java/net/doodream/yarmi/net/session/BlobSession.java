@@ -1,6 +1,7 @@
 package net.doodream.yarmi.net.session;
 
 import net.doodream.yarmi.serde.Converter;
+import net.doodream.yarmi.serde.Frame;
 import net.doodream.yarmi.serde.Reader;
 import net.doodream.yarmi.serde.Writer;
 import org.slf4j.Logger;
@@ -78,6 +79,19 @@ public class BlobSession implements SessionHandler {
         sessionHandler.handle(scm);
     }
 
+    @Override
+    public void handle(Frame chunk) throws IOException {
+        sessionHandler.handle(chunk);
+    }
+
+    /**
+     * @param chunk frame of raw chunk ({@link Frame#FLAG_CHUNK})
+     * @return key of the session which the chunk is sent to, or null if the chunk is malformed
+     */
+    public static String keyOf(Frame chunk) {
+        return RawChunk.keyOf(chunk);
+    }
+
     public void start(Reader reader, Writer writer, Converter converter, SessionControlMessageWriter.Builder builder, Runnable onTeardown) {
         sessionHandler.start(reader, writer, converter, builder, onTeardown);
     }
@@ -0,0 +1,72 @@
+package net.doodream.yarmi.net.session;
+
+import net.doodream.yarmi.net.session.param.SCMChunkParam;
+import net.doodream.yarmi.serde.Frame;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * chunk of blob session conveyed as raw frame ({@link Frame#FLAG_CHUNK}) instead of session control message.
+ * nonce of the frame is the sequence of the chunk, and its payload is consisted of tiny prefix and the data
+ *
+ *  | type (1) | key length (1) | session key (key length) | data |
+ *
+ * so the data is written straight from the buffer of the sender and read into the buffer which is handed over
+ * to the receiver as is.
+ */
+final class RawChunk {
+
+    private RawChunk() {
+    }
+
+    /**
+     * @param key key of the session
+     * @param type {@link SCMChunkParam#TYPE_CONTINUE} or {@link SCMChunkParam#TYPE_LAST}
+     * @return prefix of the payload
+     */
+    static byte[] prefix(String key, int type) {
+        final byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        if(keyBytes.length > 0xFF) {
+            throw new IllegalArgumentException(String.format("too long session key %s", key));
+        }
+        final byte[] prefix = new byte[keyBytes.length + 2];
+        prefix[0] = (byte) type;
+        prefix[1] = (byte) keyBytes.length;
+        System.arraycopy(keyBytes, 0, prefix, 2, keyBytes.length);
+        return prefix;
+    }
+
+    /**
+     * @return key of the session, or null if the chunk is malformed
+     */
+    static String keyOf(Frame chunk) {
+        final ByteBuffer payload = chunk.getBuffer();
+        if(payload.remaining() < 2) {
+            return null;
+        }
+        final int length = payload.get(payload.position() + 1) & 0xFF;
+        if(payload.remaining() < length + 2) {
+            return null;
+        }
+        final byte[] key = new byte[length];
+        final ByteBuffer duplicate = payload.duplicate();
+        duplicate.position(payload.position() + 2);
+        duplicate.get(key);
+        return new String(key, StandardCharsets.UTF_8);
+    }
+
+    static int typeOf(Frame chunk) {
+        final ByteBuffer payload = chunk.getBuffer();
+        return payload.get(payload.position());
+    }
+
+    /**
+     * @return view of the data in the chunk, which shares the payload buffer of the frame
+     */
+    static ByteBuffer dataOf(Frame chunk) {
+        final ByteBuffer data = chunk.getBuffer().duplicate();
+        data.position(data.position() + 2 + (data.get(data.position() + 1) & 0xFF));
+        return data;
+    }
+}
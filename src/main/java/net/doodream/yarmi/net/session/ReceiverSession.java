@@ -3,6 +3,7 @@ package net.doodream.yarmi.net.session;
 import net.doodream.yarmi.net.session.param.SCMChunkParam;
 import net.doodream.yarmi.net.session.param.SCMErrorParam;
 import net.doodream.yarmi.serde.Converter;
+import net.doodream.yarmi.serde.Frame;
 import net.doodream.yarmi.serde.Reader;
 import net.doodream.yarmi.serde.Writer;
 import org.slf4j.Logger;
@@ -18,24 +19,47 @@ public class ReceiverSession implements Session, SessionHandler {
     private String key;
 //    private InputStream chunkInStream;
 //    private OutputStream chunkOutStream;
-    private final ConcurrentLinkedQueue<byte[]> dataQueue = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<Chunk> dataQueue = new ConcurrentLinkedQueue<>();
     private volatile boolean EOS;
-    private ByteBuffer cBuffer;
+    private Chunk cChunk;
+    private int expectedSequence;
 
     private Converter converter;
     private Runnable onTeardown;
     private long overallRcvSize;
     private SessionControlMessageWriter scmWriter;
 
+    /**
+     * received data, which holds the frame of raw chunk until the data is consumed
+     */
+    private static class Chunk {
+        private final ByteBuffer data;
+        private final Frame frame;
+
+        private Chunk(ByteBuffer data, Frame frame) {
+            this.data = data;
+            this.frame = frame;
+        }
+
+        private void release() {
+            if(frame != null) {
+                frame.release();
+            }
+        }
+    }
+
     ReceiverSession() {
         overallRcvSize = 0L;
     }
 
     @Override
     public int read(byte[] b, int offset, int len) {
-        if(cBuffer == null) {
-            byte[] data;
-            while((data = dataQueue.poll()) == null) {
+        if(len == 0) {
+            return 0;
+        }
+        if(cChunk == null) {
+            Chunk chunk;
+            while((chunk = dataQueue.poll()) == null) {
                 if(EOS) {
                     return -1;
                 }
@@ -47,15 +71,17 @@ public class ReceiverSession implements Session, SessionHandler {
                     }
                 }
             }
-            cBuffer = ByteBuffer.wrap(data);
+            cChunk = chunk;
         }
+        final ByteBuffer cBuffer = cChunk.data;
         final int rsz = cBuffer.remaining();
-        if(rsz >= len) {
+        if(rsz > len) {
             cBuffer.get(b, offset, len);
             return len;
         } else {
             cBuffer.get(b, offset,rsz);
-            cBuffer = null;
+            cChunk.release();
+            cChunk = null;
             int subRsz = read(b, offset + rsz, len - rsz);
             return subRsz > 0 ? (rsz + subRsz) : rsz;
         }
@@ -83,6 +109,15 @@ public class ReceiverSession implements Session, SessionHandler {
                 .build());
 
         onClose();
+        // chunks not consumed by reader, chunks remaining after RESET from peer are still readable until closed
+        if(cChunk != null) {
+            cChunk.release();
+            cChunk = null;
+        }
+        Chunk chunk;
+        while ((chunk = dataQueue.poll()) != null) {
+            chunk.release();
+        }
     }
 
     void setSessionKey(String key) {
@@ -99,13 +134,7 @@ public class ReceiverSession implements Session, SessionHandler {
         switch (command) {
             case CHUNK:
                 SCMChunkParam chunkParam = (SCMChunkParam) param;
-                synchronized (dataQueue) {
-                    dataQueue.offer(((SCMChunkParam) param).getData());
-                    dataQueue.notifyAll();
-                    if(chunkParam.getType() == SCMChunkParam.TYPE_LAST) {
-                        EOS = true;
-                    }
-                }
+                offer(new Chunk(ByteBuffer.wrap(chunkParam.getData()), null), chunkParam.getType());
                 overallRcvSize += chunkParam.getSizeInBytes();
                 break;
             case RESET:
@@ -120,6 +149,31 @@ public class ReceiverSession implements Session, SessionHandler {
         }
     }
 
+    @Override
+    public void handle(Frame chunk) throws IOException {
+        if(chunk.getNonce() != expectedSequence) {
+            Log.warn("unexpected chunk sequence {} (expected {})", chunk.getNonce(), expectedSequence);
+            sendErrorMessage(key, SCMErrorParam.build(SessionCommand.CHUNK, "unexpected sequence", SCMErrorParam.ErrorType.BAD_SEQUENCE));
+            // out-of-order chunk is dropped, not to be read as if it were in sequence
+            chunk.release();
+            return;
+        }
+        expectedSequence = chunk.getNonce() + 1;
+        final ByteBuffer data = RawChunk.dataOf(chunk);
+        overallRcvSize += data.remaining();
+        offer(new Chunk(data, chunk), RawChunk.typeOf(chunk));
+    }
+
+    private void offer(Chunk chunk, int type) {
+        synchronized (dataQueue) {
+            dataQueue.offer(chunk);
+            dataQueue.notifyAll();
+            if(type == SCMChunkParam.TYPE_LAST) {
+                EOS = true;
+            }
+        }
+    }
+
     @Override
     public void start(Reader reader, Writer writer, Converter converter, SessionControlMessageWriter.Builder builder, Runnable onTeardown) {
         this.onTeardown = onTeardown;
@@ -3,6 +3,8 @@ package net.doodream.yarmi.net.session;
 import net.doodream.yarmi.net.session.param.SCMChunkParam;
 import net.doodream.yarmi.net.session.param.SCMErrorParam;
 import net.doodream.yarmi.serde.Converter;
+import net.doodream.yarmi.serde.Frame;
+import net.doodream.yarmi.serde.FrameWriter;
 import net.doodream.yarmi.serde.Reader;
 import net.doodream.yarmi.serde.Writer;
 import org.slf4j.Logger;
@@ -29,6 +31,10 @@ public class SenderSession implements Session, SessionHandler {
     private byte[] bufferSource = new byte[BlobSession.CHUNK_MAX_SIZE_IN_BYTE];
     private ByteBuffer writeBuffer;
     private SessionControlMessageWriter scmWriter;
+    // chunks are written as raw frames if available
+    private FrameWriter frameWriter;
+    private byte[] continuePrefix;
+    private byte[] lastPrefix;
     private int chunkSeqNumber;
     private Map<Integer, SCMChunkParam> chunkLruCache;
 
@@ -58,6 +64,13 @@ public class SenderSession implements Session, SessionHandler {
     }
 
     private void flushOutWriteBuffer(boolean last) throws IOException {
+        if(frameWriter != null) {
+            // data is written straight from the write buffer
+            writeBuffer.flip();
+            frameWriter.writeRaw(Frame.FLAG_CHUNK, chunkSeqNumber++, 0, last ? lastPrefix : continuePrefix, writeBuffer);
+            writeBuffer.clear();
+            return;
+        }
         final int len = writeBuffer.position();
 
         final SCMChunkParam chunkParam = SCMChunkParam.builder()
@@ -134,9 +147,21 @@ public class SenderSession implements Session, SessionHandler {
         }
     }
 
+    @Override
+    public void handle(Frame chunk) throws IOException {
+        // sender never receives chunk, which is dropped rather than failing the connection
+        Log.warn("unexpected chunk for sender session {}", key);
+        chunk.release();
+    }
+
     @Override
     public void start(Reader reader, Writer writer, Converter converter, SessionControlMessageWriter.Builder builder, Runnable onTeardown) {
         this.scmWriter = builder.build(writer);
+        if(writer instanceof FrameWriter) {
+            frameWriter = (FrameWriter) writer;
+            continuePrefix = RawChunk.prefix(key, SCMChunkParam.TYPE_CONTINUE);
+            lastPrefix = RawChunk.prefix(key, SCMChunkParam.TYPE_LAST);
+        }
         this.onTeardown = onTeardown;
         this.converter = converter;
     }
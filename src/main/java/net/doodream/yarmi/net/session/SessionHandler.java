@@ -1,6 +1,7 @@
 package net.doodream.yarmi.net.session;
 
 import net.doodream.yarmi.serde.Converter;
+import net.doodream.yarmi.serde.Frame;
 import net.doodream.yarmi.serde.Reader;
 import net.doodream.yarmi.serde.Writer;
 
@@ -8,6 +9,13 @@ import java.io.IOException;
 
 public interface SessionHandler {
     void handle(SessionControlMessage scm) throws SessionControlException, IOException, IllegalAccessException, InstantiationException, ClassNotFoundException;
+    /**
+     * handle raw chunk of the session, the frame is released by the handler once its data is consumed
+     * @param chunk frame of the chunk
+     * @throws IOException
+     */
+    void handle(Frame chunk) throws IOException;
+
     void start(Reader reader, Writer writer, Converter converter, SessionControlMessageWriter.Builder builder, Runnable onTeardown);
 }
 
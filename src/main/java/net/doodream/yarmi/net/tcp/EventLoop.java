@@ -0,0 +1,220 @@
+package net.doodream.yarmi.net.tcp;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * selector thread serving readiness of many channels. loops are shared by all the sockets in the JVM
+ * (see {@link #next()}), so the number of threads doesn't grow with the number of connections.
+ *
+ * registration and change of interest are handed over to the loop thread as tasks, as they may block
+ * while the selector is selecting.
+ */
+final class EventLoop {
+
+    /**
+     * handler of readiness attached to the selection key
+     */
+    interface Handler {
+        void onReadable();
+
+        void onWritable();
+
+        /**
+         * called when the channel can't be served anymore, as the handler failed or the loop itself stopped
+         * @param cause error which stopped serving the channel
+         */
+        void onClose(IOException cause);
+    }
+
+    private static final Logger Log = LoggerFactory.getLogger(EventLoop.class);
+    private static final EventLoop[] LOOPS = new EventLoop[Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), 4))];
+    private static final AtomicInteger NEXT = new AtomicInteger(0);
+
+    private final String name;
+    private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    // registrations not complete yet, which are failed if the loop stops before serving them
+    private final Set<CompletableFuture<SelectionKey>> registrations = ConcurrentHashMap.newKeySet();
+    private volatile Selector selector;
+    private volatile Thread thread;
+    private volatile boolean isStopped;
+
+    private EventLoop(String name) {
+        this.name = name;
+    }
+
+    /**
+     * @return one of the shared loops in round robin. stopped loop is replaced with new one
+     */
+    static EventLoop next() {
+        final int index = (NEXT.getAndIncrement() & Integer.MAX_VALUE) % LOOPS.length;
+        synchronized (LOOPS) {
+            if(LOOPS[index] == null) {
+                LOOPS[index] = new EventLoop(String.format("yarmi-event-loop-%d", index));
+            }
+            return LOOPS[index];
+        }
+    }
+
+    /**
+     * @return true if called by the thread of this loop
+     */
+    boolean inLoop() {
+        return Thread.currentThread() == thread;
+    }
+
+    /**
+     * register channel to the selector of this loop
+     * @param channel non-blocking channel
+     * @param ops initial interest
+     * @param handler handler of the readiness
+     * @return future completed with the key on the loop thread
+     * @throws IOException fail to open selector, or the loop is stopped
+     */
+    CompletableFuture<SelectionKey> register(SelectableChannel channel, int ops, Handler handler) throws IOException {
+        start();
+        final CompletableFuture<SelectionKey> registered = new CompletableFuture<>();
+        registrations.add(registered);
+        execute(() -> {
+            try {
+                registered.complete(channel.register(selector, ops, handler));
+            } catch (IOException | RuntimeException e) {
+                registered.completeExceptionally(e);
+            } finally {
+                registrations.remove(registered);
+            }
+        });
+        if(isStopped && registrations.remove(registered)) {
+            // stopped before the task is taken
+            registered.completeExceptionally(new IOException("event loop stopped"));
+        }
+        return registered;
+    }
+
+    /**
+     * add interest to the key on the loop thread
+     */
+    void interest(SelectionKey key, int ops) {
+        execute(() -> {
+            try {
+                if(key.isValid()) {
+                    key.interestOps(key.interestOps() | ops);
+                }
+            } catch (CancelledKeyException ignored) { }
+        });
+    }
+
+    void execute(Runnable task) {
+        tasks.offer(task);
+        if(!inLoop()) {
+            selector.wakeup();
+        }
+    }
+
+    private synchronized void start() throws IOException {
+        if(isStopped) {
+            throw new IOException("event loop stopped");
+        }
+        if(thread != null) {
+            return;
+        }
+        selector = Selector.open();
+        thread = new Thread(this::loop, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void loop() {
+        try {
+            while (true) {
+                selector.select();
+                Runnable task;
+                while ((task = tasks.poll()) != null) {
+                    try {
+                        task.run();
+                    } catch (RuntimeException e) {
+                        Log.warn("task failed : {}", e.getMessage());
+                    }
+                }
+                final Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    final SelectionKey key = keys.next();
+                    keys.remove();
+                    dispatch(key);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            Log.error("selector failed : {}", e.getMessage());
+            stop(e instanceof IOException ? (IOException) e : new IOException(e));
+        }
+    }
+
+    private void dispatch(SelectionKey key) {
+        final Handler handler = (Handler) key.attachment();
+        try {
+            if(key.isWritable()) {
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+                handler.onWritable();
+            }
+            if(key.isValid() && key.isReadable()) {
+                handler.onReadable();
+            }
+        } catch (CancelledKeyException ignored) {
+            // channel closed by other thread
+        } catch (RuntimeException e) {
+            // failure of single handler only stops its channel, others on the loop are still served
+            Log.error("handler failed : {}", e.getMessage(), e);
+            key.cancel();
+            closeQuietly(handler, new IOException(e));
+        }
+    }
+
+    /**
+     * take this loop out of the shared ones, and fail everything depending on it
+     */
+    private void stop(IOException cause) {
+        synchronized (this) {
+            isStopped = true;
+        }
+        synchronized (LOOPS) {
+            for (int i = 0; i < LOOPS.length; i++) {
+                if(LOOPS[i] == this) {
+                    LOOPS[i] = null;
+                }
+            }
+        }
+        for (CompletableFuture<SelectionKey> registered : registrations) {
+            registrations.remove(registered);
+            registered.completeExceptionally(cause);
+        }
+        tasks.clear();
+        try {
+            for (SelectionKey key : selector.keys()) {
+                closeQuietly((Handler) key.attachment(), cause);
+            }
+            selector.close();
+        } catch (IOException | RuntimeException e) {
+            Log.debug("fail to close selector : {}", e.getMessage());
+        }
+    }
+
+    private static void closeQuietly(Handler handler, IOException cause) {
+        try {
+            handler.onClose(cause);
+        } catch (RuntimeException e) {
+            Log.warn("fail to close handler : {}", e.getMessage());
+        }
+    }
+}
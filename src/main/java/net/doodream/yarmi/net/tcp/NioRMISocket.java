@@ -0,0 +1,291 @@
+package net.doodream.yarmi.net.tcp;
+
+import net.doodream.yarmi.net.AsyncRMISocket;
+import net.doodream.yarmi.serde.Compression;
+import net.doodream.yarmi.serde.DeadlineOutputStream;
+import net.doodream.yarmi.serde.FrameDecoder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * tcp socket served by shared {@link EventLoop}s. handshake is done over blocking channel, and then the channel is
+ * switched to non-blocking one whose inbound frames are read by the event loop. so no thread is blocked on reading
+ * the socket, however many connections a client has.
+ *
+ * outbound stream writes into the channel directly on the calling thread, and waits for the loop to signal writability
+ * only when the send buffer of the socket is full. the wait is bounded by the deadline of timed write
+ * (see {@link DeadlineOutputStream}), and the socket is closed when it's overrun.
+ */
+public class NioRMISocket implements AsyncRMISocket {
+
+    private static final Logger Log = LoggerFactory.getLogger(NioRMISocket.class);
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+    // bounds time the loop spends for single socket, so others are not starved by busy one
+    private static final int MAX_READS_PER_EVENT = 16;
+
+    private final InetSocketAddress remoteAddress;
+    private final Object writeLock = new Object();
+    private SocketChannel channel;
+    private EventLoop loop;
+    private volatile SelectionKey key;
+    private volatile boolean isWritable;
+    private volatile boolean isClosed;
+    // deadline of the write in progress, only valid while hasDeadline is set
+    private volatile long deadline;
+    private volatile boolean hasDeadline;
+    private volatile FrameListener listener;
+    private OutputStream outputStream;
+
+    public NioRMISocket(String host, int port) {
+        remoteAddress = new InetSocketAddress(host, port);
+    }
+
+    @Override
+    public void open() throws IOException {
+        channel = SocketChannel.open(remoteAddress);
+        outputStream = new ChannelOutputStream();
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        if(channel == null || !channel.isOpen()) {
+            throw new IllegalStateException("Connection is not opened");
+        }
+        if(!channel.isBlocking()) {
+            throw new IllegalStateException("Connection is read by event loop");
+        }
+        return channel.socket().getInputStream();
+    }
+
+    @Override
+    public OutputStream getOutputStream() throws IOException {
+        if(channel == null || !channel.isOpen()) {
+            throw new IllegalStateException("Connection is not opened");
+        }
+        return outputStream;
+    }
+
+    @Override
+    public void startRead(Compression compression, FrameListener listener) throws IOException {
+        if(channel == null || !channel.isOpen()) {
+            throw new IOException("Connection is not opened");
+        }
+        channel.configureBlocking(false);
+        this.listener = listener;
+        loop = EventLoop.next();
+        try {
+            key = loop.register(channel, SelectionKey.OP_READ, new Reader(compression, listener)).get();
+        } catch (InterruptedException e) {
+            close();
+            throw new InterruptedIOException("interrupted while registering");
+        } catch (ExecutionException e) {
+            close();
+            throw new IOException(e.getCause());
+        }
+    }
+
+    /**
+     * reads frames from the channel on the loop thread
+     */
+    private class Reader implements EventLoop.Handler {
+        private final ByteBuffer buffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        private final FrameDecoder decoder;
+        private final FrameListener listener;
+
+        private Reader(Compression compression, FrameListener listener) {
+            decoder = new FrameDecoder(compression);
+            this.listener = listener;
+        }
+
+        @Override
+        public void onReadable() {
+            try {
+                for (int i = 0; i < MAX_READS_PER_EVENT; i++) {
+                    final int read = channel.read(buffer);
+                    if(read < 0) {
+                        throw new EOFException("closed by peer");
+                    }
+                    if(read == 0) {
+                        return;
+                    }
+                    buffer.flip();
+                    decoder.decode(buffer, listener::onFrame);
+                    buffer.clear();
+                }
+            } catch (IOException | RuntimeException e) {
+                // frame the listener fails to handle leaves the stream broken as well
+                onClose(e instanceof IOException ? (IOException) e : new IOException(e));
+            }
+        }
+
+        @Override
+        public void onClose(IOException cause) {
+            decoder.release();
+            if(isClosed) {
+                // closed by this side
+                return;
+            }
+            try {
+                close();
+            } catch (IOException ignored) { }
+            listener.onClose(cause);
+        }
+
+        @Override
+        public void onWritable() {
+            synchronized (writeLock) {
+                isWritable = true;
+                writeLock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * stream writing into the channel, which is blocking one until the channel is read by event loop
+     */
+    private class ChannelOutputStream extends OutputStream implements DeadlineOutputStream {
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            final ByteBuffer src = ByteBuffer.wrap(b, off, len);
+            // interrupted thread closes the channel shared by all the calls, so its interrupt is deferred until written
+            final boolean interrupted = Thread.interrupted();
+            try {
+                while (src.hasRemaining()) {
+                    if(channel.write(src) == 0) {
+                        awaitWritable();
+                    }
+                }
+            } finally {
+                if(interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            NioRMISocket.this.close();
+        }
+
+        @Override
+        public void setDeadline(long deadline) {
+            NioRMISocket.this.deadline = deadline;
+            hasDeadline = true;
+        }
+
+        @Override
+        public void clearDeadline() {
+            hasDeadline = false;
+        }
+    }
+
+    /**
+     * wait until the send buffer of the socket has room. interrupt is deferred to the caller of the stream,
+     * as the frame partially written can't be abandoned. the frame can't be completed after the deadline either,
+     * so the socket is closed once the deadline is overrun
+     */
+    private void awaitWritable() throws IOException {
+        if(loop.inLoop()) {
+            // loop itself can't wait for its own signal, listener is supposed to hand writing over to other thread
+            throw new IOException("socket is written by event loop");
+        }
+        boolean interrupted = false;
+        boolean expired = false;
+        synchronized (writeLock) {
+            isWritable = false;
+            loop.interest(key, SelectionKey.OP_WRITE);
+            while (!isWritable) {
+                if(isClosed) {
+                    throw new IOException("socket closed");
+                }
+                try {
+                    if(!hasDeadline) {
+                        writeLock.wait();
+                        continue;
+                    }
+                    final long remaining = deadline - System.nanoTime();
+                    if(remaining <= 0) {
+                        expired = true;
+                        break;
+                    }
+                    TimeUnit.NANOSECONDS.timedWait(writeLock, remaining);
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        if(interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if(expired) {
+            final SocketTimeoutException cause = new SocketTimeoutException("write timed out");
+            closeOnError(cause);
+            throw cause;
+        }
+    }
+
+    /**
+     * close the socket left broken by this side, so that the listener fails the calls on it right away
+     */
+    private void closeOnError(IOException cause) {
+        if(isClosed) {
+            return;
+        }
+        try {
+            close();
+        } catch (IOException ignored) { }
+        final FrameListener listener = this.listener;
+        if(listener != null) {
+            listener.onClose(cause);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if(isClosed) {
+            return;
+        }
+        isClosed = true;
+        synchronized (writeLock) {
+            writeLock.notifyAll();
+        }
+        if(channel != null) {
+            channel.close();
+        }
+        Log.trace("socket closed {}", remoteAddress);
+    }
+
+    @Override
+    public boolean isConnected() {
+        return (channel != null) && channel.isConnected();
+    }
+
+    @Override
+    public boolean isClosed() {
+        return isClosed || (channel == null) || !channel.isOpen();
+    }
+
+    @Override
+    public String getRemoteName() {
+        return remoteAddress.getHostName();
+    }
+}
@@ -1,6 +1,7 @@
 package net.doodream.yarmi.net.tcp;
 
 import net.doodream.yarmi.data.RMIServiceInfo;
+import net.doodream.yarmi.net.PooledServiceProxy;
 import net.doodream.yarmi.net.ServiceProxy;
 import net.doodream.yarmi.net.ServiceProxyFactory;
 
@@ -29,7 +30,8 @@ public class TcpServiceProxyFactory implements ServiceProxyFactory {
         if(host == null) {
             host = serviceInfo.getProxyFactoryHint();
         }
-        return ServiceProxy.getDefault(serviceInfo, new TcpRMISocket(host, port));
+        final String remoteHost = host;
+        return PooledServiceProxy.create(serviceInfo, () -> new NioRMISocket(remoteHost, port));
     }
 
     @Override
@@ -0,0 +1,86 @@
+package net.doodream.yarmi.serde;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Batching lets {@link FrameWriter} wait for a short window before writing, so that small frames written by
+ * concurrent callers meanwhile are packed into single {@link Frame#FLAG_BATCH} frame and flushed at once.
+ * the window ends early once enough frames are gathered, so the delay added to each call is bounded by the window.
+ *
+ * batching is configured with {@link net.doodream.yarmi.annotation.AdapterParam} of the service. it only affects
+ * the writing side, as every peer unpacks batch frame regardless of its own configuration.
+ */
+public final class Batching {
+
+    /**
+     * time in microseconds the writer waits for other frames to be batched, batching is disabled if not given
+     */
+    public static final String PARAM_WINDOW = "batch.window.us";
+    /**
+     * max. number of frames packed into a batch frame, 32 if not given
+     */
+    public static final String PARAM_MAX_FRAMES = "batch.frames.max";
+
+    public static final Batching NONE = new Batching(0L, 1);
+
+    private static final int DEFAULT_MAX_FRAMES = 32;
+
+    private final long window;
+    private final int maxFrames;
+
+    private Batching(long window, int maxFrames) {
+        this.window = window;
+        this.maxFrames = maxFrames;
+    }
+
+    /**
+     * @param window time in microseconds the writer waits for other frames
+     * @param maxFrames max. number of frames packed into a batch frame
+     */
+    public static Batching of(long window, int maxFrames) {
+        if(window <= 0) {
+            throw new IllegalArgumentException(String.format("invalid window %d", window));
+        }
+        if(maxFrames < 2) {
+            throw new IllegalArgumentException(String.format("invalid max. frames %d", maxFrames));
+        }
+        return new Batching(TimeUnit.MICROSECONDS.toNanos(window), maxFrames);
+    }
+
+    /**
+     * @param params parameters of the service
+     * @return batching configured by the parameters, or {@link #NONE} if not configured
+     */
+    public static Batching from(Map<String, String> params) {
+        if(params == null) {
+            return NONE;
+        }
+        final String window = params.get(PARAM_WINDOW);
+        if(window == null) {
+            return NONE;
+        }
+        final String maxFrames = params.get(PARAM_MAX_FRAMES);
+        return of(Long.parseLong(window), maxFrames == null ? DEFAULT_MAX_FRAMES : Integer.parseInt(maxFrames));
+    }
+
+    public boolean isEnabled() {
+        return this != NONE;
+    }
+
+    /**
+     * @return window in nanoseconds
+     */
+    public long getWindow() {
+        return window;
+    }
+
+    public int getMaxFrames() {
+        return maxFrames;
+    }
+
+    @Override
+    public String toString() {
+        return isEnabled() ? String.format("Batching {window : %dus, max : %d}", TimeUnit.NANOSECONDS.toMicros(window), maxFrames) : "Batching {NONE}";
+    }
+}
@@ -0,0 +1,93 @@
+package net.doodream.yarmi.serde;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * BufferPool recycles {@link ByteBuffer}s used for encoding / decoding messages, so that steady-state
+ * message path doesn't allocate byte array for each message.
+ * buffers are pooled by size classes of power of two. buffers larger than the largest class are
+ * allocated on demand and simply dropped on release.
+ *
+ * acquired buffer should be released exactly once, and must not be used after released.
+ */
+public final class BufferPool {
+
+    private static final int MIN_SHIFT = 9;
+    private static final int MAX_SHIFT = 20;
+    private static final int MAX_POOLED_PER_CLASS = 64;
+    private static final BufferPool DEFAULT = new BufferPool(false);
+
+    private final boolean direct;
+    private final ArrayBlockingQueue<ByteBuffer>[] pools;
+
+    /**
+     * @param direct allocate direct buffer if true, otherwise heap buffer
+     */
+    @SuppressWarnings("unchecked")
+    public BufferPool(boolean direct) {
+        this.direct = direct;
+        pools = new ArrayBlockingQueue[MAX_SHIFT - MIN_SHIFT + 1];
+        for (int i = 0; i < pools.length; i++) {
+            pools[i] = new ArrayBlockingQueue<>(MAX_POOLED_PER_CLASS);
+        }
+    }
+
+    /**
+     * @return shared pool of heap buffers
+     */
+    public static BufferPool getDefault() {
+        return DEFAULT;
+    }
+
+    public boolean isDirect() {
+        return direct;
+    }
+
+    /**
+     * acquire cleared buffer
+     * @param capacity minimum capacity of the buffer
+     * @return buffer whose capacity is not less than requested one
+     */
+    public ByteBuffer acquire(int capacity) {
+        final int sizeClass = sizeClassOf(capacity);
+        if(sizeClass >= pools.length) {
+            return allocate(capacity);
+        }
+        final ByteBuffer buffer = pools[sizeClass].poll();
+        if(buffer == null) {
+            return allocate(1 << (sizeClass + MIN_SHIFT));
+        }
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * return buffer to the pool
+     * @param buffer buffer acquired from this pool
+     */
+    public void release(ByteBuffer buffer) {
+        if((buffer == null) || (buffer.isDirect() != direct)) {
+            return;
+        }
+        final int capacity = buffer.capacity();
+        if(Integer.bitCount(capacity) != 1) {
+            return;
+        }
+        final int sizeClass = sizeClassOf(capacity);
+        if(sizeClass < pools.length) {
+            pools[sizeClass].offer(buffer);
+        }
+    }
+
+    private ByteBuffer allocate(int capacity) {
+        return direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+    }
+
+    private static int sizeClassOf(int capacity) {
+        if(capacity <= (1 << MIN_SHIFT)) {
+            return 0;
+        }
+        return 32 - Integer.numberOfLeadingZeros(capacity - 1) - MIN_SHIFT;
+    }
+}
@@ -0,0 +1,212 @@
+package net.doodream.yarmi.serde;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compression deflates payload of the frame whose length is not less than the threshold.
+ * payload of compressed frame is prefixed with its original length, so it can be inflated into exact size buffer
+ *
+ *  | original length (4) | deflated payload |
+ *
+ * payload is sent as is when it doesn't get smaller by deflating, so small or incompressible messages pay nothing
+ * but a comparison. {@link Deflater} and {@link Inflater} are recycled, as they hold native memory.
+ *
+ * compression is configured with {@link net.doodream.yarmi.annotation.AdapterParam} of the service
+ * and agreed between peers on handshake.
+ */
+public final class Compression {
+
+    /**
+     * minimum payload length in bytes to be compressed, compression is disabled if not given
+     */
+    public static final String PARAM_THRESHOLD = "compression.threshold";
+    /**
+     * deflate level (0 - 9), {@link Deflater#DEFAULT_COMPRESSION} if not given
+     */
+    public static final String PARAM_LEVEL = "compression.level";
+
+    public static final Compression NONE = new Compression(Integer.MAX_VALUE, Deflater.DEFAULT_COMPRESSION);
+
+    private static final int LENGTH_SIZE = 4;
+    private static final int MAX_POOLED = 16;
+
+    private final int threshold;
+    private final int level;
+    private final ArrayBlockingQueue<Deflater> deflaters = new ArrayBlockingQueue<>(MAX_POOLED);
+    private final ArrayBlockingQueue<Inflater> inflaters = new ArrayBlockingQueue<>(MAX_POOLED);
+
+    private Compression(int threshold, int level) {
+        this.threshold = threshold;
+        this.level = level;
+    }
+
+    public static Compression of(int threshold, int level) {
+        if(threshold < 0) {
+            throw new IllegalArgumentException(String.format("invalid threshold %d", threshold));
+        }
+        if((level != Deflater.DEFAULT_COMPRESSION) && ((level < Deflater.NO_COMPRESSION) || (level > Deflater.BEST_COMPRESSION))) {
+            throw new IllegalArgumentException(String.format("invalid level %d", level));
+        }
+        return new Compression(threshold, level);
+    }
+
+    /**
+     * @param params parameters of the service
+     * @return compression configured by the parameters, or {@link #NONE} if not configured
+     */
+    public static Compression from(Map<String, String> params) {
+        if(params == null) {
+            return NONE;
+        }
+        final String threshold = params.get(PARAM_THRESHOLD);
+        if(threshold == null) {
+            return NONE;
+        }
+        final String level = params.get(PARAM_LEVEL);
+        return of(Integer.parseInt(threshold), level == null ? Deflater.DEFAULT_COMPRESSION : Integer.parseInt(level));
+    }
+
+    public boolean isEnabled() {
+        return this != NONE;
+    }
+
+    public int getThreshold() {
+        return threshold;
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    /**
+     * deflate encoded message into a buffer from the pool, keeping same headroom
+     * @param encoded flipped buffer containing headroom and the message
+     * @param headroom bytes reserved at the beginning of the buffer
+     * @param pool pool which the buffer is acquired from
+     * @return flipped buffer containing headroom and compressed message, or null if the message is not compressed
+     */
+    public ByteBuffer deflate(ByteBuffer encoded, int headroom, BufferPool pool) {
+        final int length = encoded.limit() - headroom;
+        if((length < threshold) || (length <= LENGTH_SIZE)) {
+            return null;
+        }
+        final byte[] input;
+        final int offset;
+        if(encoded.hasArray()) {
+            input = encoded.array();
+            offset = encoded.arrayOffset() + headroom;
+        } else {
+            input = new byte[length];
+            final ByteBuffer duplicate = encoded.duplicate();
+            duplicate.position(headroom);
+            duplicate.get(input);
+            offset = 0;
+        }
+        // compressed payload is worth only when it's smaller than original one
+        final int capacity = length - LENGTH_SIZE;
+        final ByteBuffer compressed = pool.acquire(headroom + LENGTH_SIZE + capacity);
+        final byte[] output = compressed.hasArray() ? compressed.array() : new byte[capacity];
+        final int outputOffset = compressed.hasArray() ? compressed.arrayOffset() + headroom + LENGTH_SIZE : 0;
+        final Deflater deflater = acquireDeflater();
+        int written = 0;
+        try {
+            deflater.setInput(input, offset, length);
+            deflater.finish();
+            while (!deflater.finished() && (written < capacity)) {
+                written += deflater.deflate(output, outputOffset + written, capacity - written);
+            }
+            if(!deflater.finished()) {
+                pool.release(compressed);
+                return null;
+            }
+        } finally {
+            releaseDeflater(deflater);
+        }
+        compressed.putInt(headroom, length);
+        if(!compressed.hasArray()) {
+            compressed.position(headroom + LENGTH_SIZE);
+            compressed.put(output, 0, written);
+        }
+        compressed.position(0);
+        compressed.limit(headroom + LENGTH_SIZE + written);
+        return compressed;
+    }
+
+    /**
+     * inflate compressed payload into a buffer from the pool
+     * @param payload heap buffer whose remaining bytes are compressed payload
+     * @param pool pool of heap buffers
+     * @return buffer whose remaining bytes are inflated payload
+     * @throws IOException payload is corrupted
+     */
+    public ByteBuffer inflate(ByteBuffer payload, BufferPool pool) throws IOException {
+        if(payload.remaining() < LENGTH_SIZE) {
+            throw new IOException("truncated compressed payload");
+        }
+        final int length = payload.getInt(payload.position());
+        if((length < 0) || (length > Frame.MAX_PAYLOAD_SIZE)) {
+            throw new IOException(String.format("invalid original length %d", length));
+        }
+        final ByteBuffer inflated = pool.acquire(length);
+        final Inflater inflater = acquireInflater();
+        try {
+            inflater.setInput(payload.array(), payload.arrayOffset() + payload.position() + LENGTH_SIZE, payload.remaining() - LENGTH_SIZE);
+            int read = 0;
+            while (read < length) {
+                final int n = inflater.inflate(inflated.array(), inflated.arrayOffset() + read, length - read);
+                if((n == 0) && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                read += n;
+            }
+            if(read != length) {
+                throw new IOException(String.format("corrupted compressed payload (%d / %d)", read, length));
+            }
+        } catch (DataFormatException e) {
+            pool.release(inflated);
+            throw new IOException(e.getMessage());
+        } catch (IOException e) {
+            pool.release(inflated);
+            throw e;
+        } finally {
+            releaseInflater(inflater);
+        }
+        inflated.limit(length);
+        return inflated;
+    }
+
+    private Deflater acquireDeflater() {
+        final Deflater deflater = deflaters.poll();
+        return deflater != null ? deflater : new Deflater(level);
+    }
+
+    private void releaseDeflater(Deflater deflater) {
+        deflater.reset();
+        if(!deflaters.offer(deflater)) {
+            deflater.end();
+        }
+    }
+
+    private Inflater acquireInflater() {
+        final Inflater inflater = inflaters.poll();
+        return inflater != null ? inflater : new Inflater();
+    }
+
+    private void releaseInflater(Inflater inflater) {
+        inflater.reset();
+        if(!inflaters.offer(inflater)) {
+            inflater.end();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return isEnabled() ? String.format("Compression {threshold : %d, level : %d}", threshold, level) : "Compression {none}";
+    }
+}
@@ -1,8 +1,15 @@
 package net.doodream.yarmi.serde;
 
+import net.doodream.yarmi.data.Endpoint;
+import net.doodream.yarmi.data.RMIServiceInfo;
+import net.doodream.yarmi.data.Request;
+import net.doodream.yarmi.data.Response;
+
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
+import java.nio.ByteBuffer;
 
 /**
  *  Converter class defines how object is converted into byte stream (and vice-versa) comprising of
@@ -20,5 +27,111 @@ public interface Converter {
 
     <T> T invert(byte[] b, Class<T> cls);
 
+    /**
+     * convert object into a buffer acquired from the pool. content is written after the headroom, which the caller
+     * may fill (e.g. with frame header) so that whole message is written at once. the buffer is returned flipped,
+     * and the caller releases it to the pool once it's written.
+     * @param src object to be converted
+     * @param pool pool which the buffer is acquired from
+     * @param headroom bytes reserved at the beginning of the buffer
+     * @return flipped buffer containing headroom and converted object
+     * @throws java.io.UncheckedIOException the object can't be converted, nothing is left acquired from the pool
+     */
+    default ByteBuffer convert(Object src, BufferPool pool, int headroom) {
+        final byte[] bytes = convert(src);
+        final ByteBuffer buffer = pool.acquire(headroom + bytes.length);
+        buffer.position(headroom);
+        buffer.put(bytes);
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * convert remaining bytes of the buffer into object of given type, without changing position of the buffer
+     * @see #invert(byte[], Type)
+     */
+    default <T> T invert(ByteBuffer b, Type type) {
+        final byte[] bytes = new byte[b.remaining()];
+        b.duplicate().get(bytes);
+        return invert(bytes, type);
+    }
+
+    /**
+     * convert byte array into object of given generic type in single pass, so that generic parts of the object
+     * (e.g. body of {@code Response<List<User>>}) don't have to be resolved afterward.
+     * converter which doesn't override this converts into raw class first, and resolves generic parts afterward
+     * @param b byte array
+     * @param type expected type
+     * @return converted object, or null if the byte array can't be converted into given type
+     */
+    default <T> T invert(byte[] b, Type type) {
+        if(type instanceof Class) {
+            return (T) invert(b, (Class<?>) type);
+        }
+        if(!(type instanceof ParameterizedType) || !(((ParameterizedType) type).getRawType() instanceof Class)) {
+            return null;
+        }
+        final ParameterizedType parameterizedType = (ParameterizedType) type;
+        final Object inverted = invert(b, (Class<?>) parameterizedType.getRawType());
+        if(inverted == null) {
+            return null;
+        }
+        try {
+            if(inverted instanceof Response) {
+                ((Response<?>) inverted).resolve(this, parameterizedType.getActualTypeArguments()[0]);
+                return (T) inverted;
+            }
+            return (T) resolve(inverted, type);
+        } catch (ClassNotFoundException | IllegalAccessException | InstantiationException e) {
+            return null;
+        }
+    }
+
+    /**
+     * convert byte array into {@link Request} whose arguments are decoded directly into given parameter types
+     * @param b byte array
+     * @param parameterTypes declared parameter types of the target endpoint, or null if unknown. the converter
+     *                       may cache per array instance, so it's supposed to be the one from {@link Endpoint#getParameterTypes()}
+     * @return converted request, or null if the byte array can't be converted
+     */
+    default Request invertRequest(byte[] b, Type[] parameterTypes) {
+        // arguments are decoded generically, and resolved against the parameter types if known
+        final Request request = invert(b, Request.class);
+        if((request == null) || (parameterTypes == null)) {
+            return request;
+        }
+        final Object[] args = request.getArgs();
+        if((args == null) || (args.length != parameterTypes.length)) {
+            return request;
+        }
+        try {
+            for (int i = 0; i < args.length; i++) {
+                args[i] = resolve(args[i], parameterTypes[i]);
+            }
+        } catch (ClassNotFoundException | IllegalAccessException | InstantiationException e) {
+            return null;
+        }
+        return request;
+    }
+
+    /**
+     * @see #invertRequest(byte[], Type[])
+     */
+    default Request invertRequest(ByteBuffer b, Type[] parameterTypes) {
+        final byte[] bytes = new byte[b.remaining()];
+        b.duplicate().get(bytes);
+        return invertRequest(bytes, parameterTypes);
+    }
+
     Object resolve(Object unresolved, Type type) throws ClassNotFoundException, IllegalAccessException, InstantiationException;
+
+    /**
+     * fingerprint of the layouts which the converter uses for given service. it's compared between peers
+     * during the handshake, so that peers which can't decode each other's messages are rejected early.
+     * @param service service to be served (or consumed) with the converter
+     * @return fingerprint of layouts, 0 if the format doesn't depend on layouts (e.g. carries field names)
+     */
+    default long fingerprint(RMIServiceInfo service) {
+        return 0L;
+    }
 }
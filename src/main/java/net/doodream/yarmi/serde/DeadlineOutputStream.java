@@ -0,0 +1,23 @@
+package net.doodream.yarmi.serde;
+
+/**
+ * output stream bounding its own blocking write by a deadline (e.g. the one waiting for the socket to be writable).
+ * {@link FrameWriter} hands the deadline of timed write over to such stream, instead of interrupting the writing
+ * thread with {@link DeadlineWatchdog}.
+ *
+ * write blocked past the deadline fails with {@link java.net.SocketTimeoutException}, and the stream is closed
+ * since the frame partially written can't be recovered.
+ */
+public interface DeadlineOutputStream {
+
+    /**
+     * bound the writes made afterward by the deadline
+     * @param deadline deadline in {@link System#nanoTime()}
+     */
+    void setDeadline(long deadline);
+
+    /**
+     * let the writes made afterward block without deadline
+     */
+    void clearDeadline();
+}
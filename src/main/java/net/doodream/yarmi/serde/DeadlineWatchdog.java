@@ -0,0 +1,205 @@
+package net.doodream.yarmi.serde;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * DeadlineWatchdog bounds timed I/O of {@link Reader} / {@link Writer} performed on the calling thread.
+ * blocking stream doesn't support timeout on its own (especially for write), so single daemon thread watches
+ * deadlines of all the armed {@link Watch}es and, when one is overrun, interrupts the blocked thread and closes
+ * the stream. stream is left with partial message in that case, so it can't be used anymore anyway.
+ * stream shared by many calls is watched without closing it (see {@link #watch()}), so that single overrun call
+ * doesn't fail the others.
+ *
+ * arming & disarming a watch are just a few volatile writes, so timed I/O costs almost same as untimed one
+ * and no thread hand-off happens on the I/O path.
+ */
+public final class DeadlineWatchdog {
+
+    private static final Logger Log = LoggerFactory.getLogger(DeadlineWatchdog.class);
+    private static final long MAX_TICK_IN_NANOS = TimeUnit.MILLISECONDS.toNanos(10L);
+    // watchdog keeps ticking for a while after the last timed I/O, so that back-to-back I/O doesn't wake it up every time
+    private static final int MAX_IDLE_TICKS = 100;
+
+    private static final ConcurrentLinkedQueue<WeakReference<Watch>> watches = new ConcurrentLinkedQueue<>();
+    private static final AtomicInteger armedCount = new AtomicInteger(0);
+    private static volatile Thread watchdog;
+    private static volatile boolean isParked;
+
+    private DeadlineWatchdog() { }
+
+    /**
+     * create new watch for the stream
+     * @param target stream (or socket) to be closed when the deadline is overrun
+     * @return watch which is armed before each timed I/O and disarmed after it
+     */
+    public static Watch watch(Closeable target) {
+        final Watch watch = new Watch(target);
+        // watches of closed streams are dropped here as well, as watchdog prunes them only while any watch is armed
+        watches.removeIf(reference -> reference.get() == null);
+        watches.add(new WeakReference<>(watch));
+        return watch;
+    }
+
+    /**
+     * create new watch which only interrupts the blocked thread when the deadline is overrun, leaving the stream open.
+     * the watch can be armed again after the overrun
+     * @return watch which is armed before each timed I/O and disarmed after it
+     */
+    public static Watch watch() {
+        return watch(null);
+    }
+
+    public static final class Watch {
+        private static final int IDLE = 0;
+        private static final int ARMED = 1;
+        private static final int EXPIRING = 2;
+        private static final int EXPIRED = 3;
+        private static final AtomicIntegerFieldUpdater<Watch> STATE = AtomicIntegerFieldUpdater.newUpdater(Watch.class, "state");
+
+        private final Closeable target;
+        private volatile int state;
+        private volatile Thread owner;
+        private volatile long deadline;
+        // whether the owner has been interrupted before arming, which is kept after the watch clears its own interrupt
+        private boolean wasInterrupted;
+
+        private Watch(Closeable target) {
+            this.target = target;
+        }
+
+        /**
+         * arm the watch for I/O performed by calling thread
+         * @param timeout timeout
+         * @param unit unit of timeout
+         * @throws TimeoutException the watch has been expired before, which means the stream is already closed
+         */
+        public void start(long timeout, TimeUnit unit) throws TimeoutException {
+            owner = Thread.currentThread();
+            wasInterrupted = owner.isInterrupted();
+            deadline = System.nanoTime() + unit.toNanos(timeout);
+            if(!STATE.compareAndSet(this, IDLE, ARMED)) {
+                throw new TimeoutException("stream closed by previous timeout");
+            }
+            armedCount.incrementAndGet();
+            if((watchdog == null) || isParked) {
+                wakeWatchdog();
+            }
+        }
+
+        /**
+         * disarm the watch
+         * @return true if I/O completed in time, otherwise false
+         */
+        public boolean stop() {
+            if(STATE.compareAndSet(this, ARMED, IDLE)) {
+                armedCount.decrementAndGet();
+                return true;
+            }
+            // watchdog is interrupting the owner, wait it done and clear the interrupt it delivered
+            while (state != EXPIRED) {
+                Thread.yield();
+            }
+            Thread.interrupted();
+            if(wasInterrupted) {
+                Thread.currentThread().interrupt();
+            }
+            if(target == null) {
+                // stream is still open, so the watch is reused
+                state = IDLE;
+            }
+            return false;
+        }
+
+        /**
+         * disarm the watch on failure of I/O
+         * @param cause failure of I/O
+         * @throws IOException I/O failed in time
+         * @throws TimeoutException I/O failed because the deadline is overrun
+         */
+        public void fail(IOException cause) throws IOException, TimeoutException {
+            if(stop()) {
+                throw cause;
+            }
+            final TimeoutException exception = new TimeoutException(cause.getMessage());
+            exception.initCause(cause);
+            throw exception;
+        }
+
+        private void expire() {
+            if(!STATE.compareAndSet(this, ARMED, EXPIRING)) {
+                return;
+            }
+            armedCount.decrementAndGet();
+            owner.interrupt();
+            if(target != null) {
+                try {
+                    target.close();
+                } catch (IOException e) {
+                    Log.trace("fail to close on timeout : {}", e.getMessage());
+                }
+            }
+            state = EXPIRED;
+        }
+    }
+
+    private static synchronized void wakeWatchdog() {
+        if(watchdog == null) {
+            watchdog = new Thread(DeadlineWatchdog::watchLoop, "yarmi-deadline-watchdog");
+            watchdog.setDaemon(true);
+            watchdog.start();
+            return;
+        }
+        LockSupport.unpark(watchdog);
+    }
+
+    private static void watchLoop() {
+        int idleTicks = 0;
+        while (true) {
+            if(armedCount.get() == 0) {
+                if(++idleTicks < MAX_IDLE_TICKS) {
+                    LockSupport.parkNanos(DeadlineWatchdog.class, MAX_TICK_IN_NANOS);
+                    continue;
+                }
+                isParked = true;
+                if(armedCount.get() == 0) {
+                    LockSupport.park(DeadlineWatchdog.class);
+                }
+                isParked = false;
+                continue;
+            }
+            idleTicks = 0;
+            final long now = System.nanoTime();
+            long sleep = MAX_TICK_IN_NANOS;
+            final Iterator<WeakReference<Watch>> iterator = watches.iterator();
+            while (iterator.hasNext()) {
+                final Watch watch = iterator.next().get();
+                if(watch == null) {
+                    iterator.remove();
+                    continue;
+                }
+                if(watch.state != Watch.ARMED) {
+                    continue;
+                }
+                final long remain = watch.deadline - now;
+                if(remain <= 0) {
+                    watch.expire();
+                } else if(remain < sleep) {
+                    sleep = remain;
+                }
+            }
+            LockSupport.parkNanos(DeadlineWatchdog.class, sleep);
+        }
+    }
+}
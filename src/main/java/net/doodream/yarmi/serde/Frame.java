@@ -0,0 +1,136 @@
+package net.doodream.yarmi.serde;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Frame is the unit of framed wire format, consisted of fixed size header and opaque payload
+ *
+ *  | length (4) | flags (4) | nonce (4) | endpoint (4) | payload (length) |
+ *
+ * header conveys enough information to route the frame (e.g. to the pending call with same nonce)
+ * without decoding the payload, so that reader only has to slice frames from the stream and
+ * actual decoding can be done by worker threads in parallel.
+ *
+ * payload of the frame read by {@link FrameReader} is held in a buffer from {@link BufferPool}, so the consumer
+ * should {@link #release()} the frame once the payload is decoded.
+ */
+public class Frame {
+
+    public static final int HEADER_SIZE = 16;
+    /**
+     * upper bound of payload length, frame exceeding this is considered as corrupted stream
+     */
+    public static final int MAX_PAYLOAD_SIZE = 64 * 1024 * 1024;
+
+    public static final int FLAG_NONE = 0;
+    /**
+     * payload is session control message, which should be handled in the order of arrival
+     */
+    public static final int FLAG_CONTROL = 1;
+    /**
+     * payload is compressed by {@link Compression}
+     */
+    public static final int FLAG_COMPRESSED = 1 << 1;
+    /**
+     * payload is raw chunk of blob session, which is not encoded by converter
+     */
+    public static final int FLAG_CHUNK = 1 << 2;
+    /**
+     * call with the nonce is cancelled by the client, frame has no payload
+     */
+    public static final int FLAG_CANCEL = 1 << 3;
+    /**
+     * payload is a sequence of complete frames (header and payload) written by {@link Batching},
+     * which are unpacked by the reader and handed over one by one in order
+     */
+    public static final int FLAG_BATCH = 1 << 4;
+    /**
+     * call runs after the preceding ordered calls of the connection are complete, instead of running in parallel
+     */
+    public static final int FLAG_ORDERED = 1 << 5;
+
+    private final int flags;
+    private final int nonce;
+    private final int endpoint;
+    private ByteBuffer payload;
+    private BufferPool pool;
+
+    public Frame(int flags, int nonce, int endpoint, byte[] payload) {
+        this(flags, nonce, endpoint, ByteBuffer.wrap(payload), null);
+    }
+
+    /**
+     * @param payload buffer whose remaining bytes are the payload
+     * @param pool pool which the buffer is returned to on {@link #release()}, or null if the buffer is not pooled
+     */
+    public Frame(int flags, int nonce, int endpoint, ByteBuffer payload, BufferPool pool) {
+        this.flags = flags;
+        this.nonce = nonce;
+        this.endpoint = endpoint;
+        this.payload = payload;
+        this.pool = pool;
+    }
+
+    public static Frame control(byte[] payload) {
+        return new Frame(FLAG_CONTROL, 0, 0, payload);
+    }
+
+    public boolean hasFlag(int flag) {
+        return (flags & flag) == flag;
+    }
+
+    public boolean isControl() {
+        return hasFlag(FLAG_CONTROL);
+    }
+
+    public int getFlags() {
+        return flags;
+    }
+
+    public int getNonce() {
+        return nonce;
+    }
+
+    public int getEndpoint() {
+        return endpoint;
+    }
+
+    /**
+     * @return payload as byte array, which is copied unless the frame wraps exactly the array
+     */
+    public byte[] getPayload() {
+        if(payload.hasArray() && (payload.arrayOffset() == 0) && (payload.position() == 0)
+                && (payload.remaining() == payload.array().length)) {
+            return payload.array();
+        }
+        final byte[] bytes = new byte[payload.remaining()];
+        payload.duplicate().get(bytes);
+        return bytes;
+    }
+
+    /**
+     * @return buffer whose remaining bytes are the payload, its position must not be changed
+     */
+    public ByteBuffer getBuffer() {
+        return payload;
+    }
+
+    public int getLength() {
+        return payload.remaining();
+    }
+
+    /**
+     * return payload buffer to the pool, the frame can't be used afterward
+     */
+    public void release() {
+        if(pool != null) {
+            pool.release(payload);
+            pool = null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Frame {flags : %x, nonce : %d, endpoint : %x, length : %d}", flags, nonce, endpoint, payload.remaining());
+    }
+}
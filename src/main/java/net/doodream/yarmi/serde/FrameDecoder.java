@@ -0,0 +1,141 @@
+package net.doodream.yarmi.serde;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * incremental counterpart of {@link FrameReader} for non-blocking transport. bytes are fed as they arrive in arbitrary
+ * pieces, and frames are sliced out of them once complete without blocking any thread on the stream.
+ *
+ * payload is gathered into a heap buffer from {@link BufferPool}, which is returned by {@link Frame#release()}.
+ * compressed payload is inflated and batch frame is unpacked here, so consumers always see single frame of plain payload.
+ */
+public class FrameDecoder {
+
+    /**
+     * consumer of the decoded frames
+     */
+    public interface FrameConsumer {
+        void accept(Frame frame) throws IOException;
+    }
+
+    private final BufferPool pool = BufferPool.getDefault();
+    private final ByteBuffer header = ByteBuffer.allocate(Frame.HEADER_SIZE);
+    private final Compression compression;
+    // payload of the frame being gathered, null while header is being gathered
+    private ByteBuffer payload;
+    private int flags;
+    private int nonce;
+    private int endpoint;
+
+    /**
+     * @param compression compression agreed with the peer
+     */
+    public FrameDecoder(Compression compression) {
+        this.compression = compression;
+    }
+
+    /**
+     * consume all the remaining bytes of the buffer, and hand over frames completed by them
+     * @param src bytes arrived
+     * @param consumer consumer of the frames
+     * @throws IOException frame header is corrupted
+     */
+    public void decode(ByteBuffer src, FrameConsumer consumer) throws IOException {
+        while (src.hasRemaining()) {
+            if(payload == null) {
+                transfer(src, header);
+                if(header.hasRemaining()) {
+                    return;
+                }
+                header.flip();
+                final int length = header.getInt();
+                if((length < 0) || (length > Frame.MAX_PAYLOAD_SIZE)) {
+                    throw new IOException(String.format("invalid frame length %d", length));
+                }
+                flags = header.getInt();
+                nonce = header.getInt();
+                endpoint = header.getInt();
+                header.clear();
+                payload = pool.acquire(length);
+                payload.limit(length);
+            }
+            transfer(src, payload);
+            if(!payload.hasRemaining()) {
+                payload.flip();
+                final ByteBuffer complete = payload;
+                payload = null;
+                if((flags & Frame.FLAG_BATCH) != 0) {
+                    unbatch(complete, compression, pool, consumer);
+                } else {
+                    consumer.accept(frameOf(flags, nonce, endpoint, complete, compression, pool));
+                }
+            }
+        }
+    }
+
+    /**
+     * build frame of the payload, which is inflated if compressed
+     * @param payload pooled buffer of the payload, which is owned by the frame or released here
+     */
+    static Frame frameOf(int flags, int nonce, int endpoint, ByteBuffer payload, Compression compression, BufferPool pool) throws IOException {
+        if((flags & Frame.FLAG_COMPRESSED) == 0) {
+            return new Frame(flags, nonce, endpoint, payload, pool);
+        }
+        try {
+            return new Frame(flags & ~Frame.FLAG_COMPRESSED, nonce, endpoint, compression.inflate(payload, pool), pool);
+        } finally {
+            pool.release(payload);
+        }
+    }
+
+    /**
+     * hand over the frames packed in the payload of batch frame in order. each frame gets its own buffer,
+     * so it can be released independently of the others.
+     * @param batch pooled buffer of the batch payload, which is released here
+     * @throws IOException packed frame is corrupted
+     */
+    static void unbatch(ByteBuffer batch, Compression compression, BufferPool pool, FrameConsumer consumer) throws IOException {
+        try {
+            while (batch.hasRemaining()) {
+                if(batch.remaining() < Frame.HEADER_SIZE) {
+                    throw new IOException("truncated frame in batch");
+                }
+                final int length = batch.getInt();
+                final int flags = batch.getInt();
+                final int nonce = batch.getInt();
+                final int endpoint = batch.getInt();
+                if((length < 0) || (length > batch.remaining()) || ((flags & Frame.FLAG_BATCH) != 0)) {
+                    throw new IOException(String.format("invalid frame in batch (length %d, flags %x)", length, flags));
+                }
+                final ByteBuffer payload = pool.acquire(length);
+                final ByteBuffer slice = batch.duplicate();
+                slice.limit(slice.position() + length);
+                payload.put(slice);
+                payload.flip();
+                batch.position(batch.position() + length);
+                consumer.accept(frameOf(flags, nonce, endpoint, payload, compression, pool));
+            }
+        } finally {
+            pool.release(batch);
+        }
+    }
+
+    private static void transfer(ByteBuffer src, ByteBuffer dst) {
+        final int length = Math.min(src.remaining(), dst.remaining());
+        final ByteBuffer slice = src.duplicate();
+        slice.limit(slice.position() + length);
+        dst.put(slice);
+        src.position(src.position() + length);
+    }
+
+    /**
+     * return the buffer of the frame being gathered
+     */
+    public void release() {
+        if(payload != null) {
+            pool.release(payload);
+            payload = null;
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package net.doodream.yarmi.serde;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * reader for framed wire format. {@link #read()} only slices a frame from underlying stream and leaves its payload
+ * as is, so the caller can hand the frame over to other thread for decoding.
+ * {@link Reader} methods are provided for the compatibility, which read a frame and decode it in place.
+ *
+ * payload is read into a heap buffer from {@link BufferPool}, which is returned by {@link Frame#release()}.
+ * compressed payload is inflated and batch frame is unpacked here, so consumers always see single frame of plain payload.
+ */
+public class FrameReader implements Reader {
+
+    private final DataInputStream inputStream;
+    private final Converter converter;
+    private final DeadlineWatchdog.Watch watch;
+    private final BufferPool pool = BufferPool.getDefault();
+    private final Compression compression;
+    // frames unpacked from batch frame, which are returned before reading the stream again
+    private final ArrayDeque<Frame> unbatched = new ArrayDeque<>();
+
+    public FrameReader(InputStream inputStream, Converter converter) {
+        this(inputStream, converter, Compression.NONE);
+    }
+
+    /**
+     * @param compression compression agreed with the peer
+     */
+    public FrameReader(InputStream inputStream, Converter converter, Compression compression) {
+        this.inputStream = new DataInputStream(new BufferedInputStream(inputStream));
+        this.converter = converter;
+        this.compression = compression;
+        watch = DeadlineWatchdog.watch(inputStream);
+    }
+
+    /**
+     * read single frame from the stream
+     * @return frame
+     * @throws IOException stream is closed or frame header is corrupted
+     */
+    public synchronized Frame read() throws IOException {
+        while (unbatched.isEmpty()) {
+            final Frame frame = readFrame();
+            if(frame != null) {
+                return frame;
+            }
+        }
+        return unbatched.poll();
+    }
+
+    /**
+     * @return frame read from the stream, or null if batch frame is read and unpacked
+     */
+    private Frame readFrame() throws IOException {
+        final int length = inputStream.readInt();
+        if((length < 0) || (length > Frame.MAX_PAYLOAD_SIZE)) {
+            throw new IOException(String.format("invalid frame length %d", length));
+        }
+        final int flags = inputStream.readInt();
+        final int nonce = inputStream.readInt();
+        final int endpoint = inputStream.readInt();
+        final ByteBuffer payload = pool.acquire(length);
+        try {
+            inputStream.readFully(payload.array(), payload.arrayOffset(), length);
+        } catch (IOException e) {
+            pool.release(payload);
+            throw e;
+        }
+        payload.limit(length);
+        if((flags & Frame.FLAG_BATCH) != 0) {
+            FrameDecoder.unbatch(payload, compression, pool, unbatched::add);
+            return null;
+        }
+        return FrameDecoder.frameOf(flags, nonce, endpoint, payload, compression, pool);
+    }
+
+    @Override
+    public <T> T read(Class<T> cls) throws IOException {
+        return decode(read(), cls);
+    }
+
+    /**
+     * read single frame from the stream within given timeout
+     * @param timeout timeout
+     * @param timeUnit unit of timeout
+     * @return frame
+     * @throws IOException stream is closed or frame header is corrupted
+     * @throws TimeoutException frame is not received in time, the stream is closed in that case
+     */
+    public synchronized Frame read(long timeout, TimeUnit timeUnit) throws IOException, TimeoutException {
+        watch.start(timeout, timeUnit);
+        final Frame frame;
+        try {
+            frame = read();
+        } catch (IOException e) {
+            watch.fail(e);
+            throw e;
+        }
+        watch.stop();
+        return frame;
+    }
+
+    @Override
+    public <T> T read(Class<T> cls, long timeout, TimeUnit timeUnit) throws IOException, TimeoutException {
+        return decode(read(timeout, timeUnit), cls);
+    }
+
+    private <T> T decode(Frame frame, Class<T> cls) {
+        try {
+            return converter.invert(frame.getBuffer(), cls);
+        } finally {
+            frame.release();
+        }
+    }
+}
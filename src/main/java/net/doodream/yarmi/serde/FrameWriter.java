@@ -0,0 +1,588 @@
+package net.doodream.yarmi.serde;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * writer for framed wire format. object is encoded into payload by the calling thread before taking the lock
+ * of the stream, so only copying header and payload into the stream is serialized among writers.
+ * objects written via {@link Writer} methods are framed as control frame.
+ *
+ * object is encoded into a buffer from {@link BufferPool} right after the space reserved for the header,
+ * so header and payload are written at once and the buffer is returned to the pool afterward.
+ * payload is compressed when it's large enough for the {@link Compression} agreed with the peer.
+ *
+ * encoded frames are put into outbound queue of the connection, which is drained by single writer at a time.
+ * the writer holding the lock writes all the frames piled up in the queue and flushes them at once (group commit),
+ * so the number of flushes stays roughly constant as concurrent writers increase. each write returns once
+ * its frame is flushed by whichever writer drains it. asynchronous write returns right after queueing its frame,
+ * which is drained by the writer holding the lock at the moment, or by a task run on given executor.
+ *
+ * with {@link Batching}, the writer taking the lock waits for a short window so that more frames pile up, and consecutive
+ * small frames in the queue are packed into {@link Frame#FLAG_BATCH} frame, so the peer reads them at once as well.
+ *
+ * timed write is performed on the calling thread. the deadline bounds both waiting for other writers and
+ * writing into the stream. {@link DeadlineOutputStream} enforces the deadline on its own and is closed when it's
+ * overrun. otherwise the deadline is enforced by {@link DeadlineWatchdog}, and as the stream is shared by other calls,
+ * overrun call is failed alone and the stream is left open.
+ */
+public class FrameWriter implements Writer {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    // bounds latency of the draining writer under sustained load, remaining frames are drained by their own writers
+    private static final int MAX_BATCH_SIZE = 256;
+    // frame larger than this gains little from batching, so it's written on its own
+    private static final int MAX_BATCHED_LENGTH = 16 * 1024;
+    private static final long LINGER_STEP_NANOS = TimeUnit.MICROSECONDS.toNanos(20L);
+
+    private final DataOutputStream outputStream;
+    private final WritableByteChannel channel;
+    private final Converter converter;
+    private final BufferPool pool;
+    private final Compression compression;
+    private final Batching batching;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final DeadlineWatchdog.Watch watch;
+    // stream bounding its write by the deadline on its own, or null
+    private final DeadlineOutputStream deadlined;
+    private final ConcurrentLinkedQueue<Outbound> outbound = new ConcurrentLinkedQueue<>();
+    // number of frames in outbound queue, only used to end the batching window early
+    private final AtomicInteger queued = new AtomicInteger(0);
+    // set while a task draining the queue for asynchronous writes is scheduled
+    private final AtomicBoolean isDrainScheduled = new AtomicBoolean(false);
+    // header of batch frame, only accessed by the writer holding the lock
+    private final ByteBuffer batchHeader = ByteBuffer.allocate(Frame.HEADER_SIZE);
+    // frames drained in current batch, only accessed by the writer holding the lock
+    private final List<Outbound> batch = new ArrayList<>();
+
+    /**
+     * encoded frame waiting in outbound queue. its state is only updated by the writer holding the lock
+     */
+    private static class Outbound {
+        private final ByteBuffer buffer;
+        // written right after the buffer, owned by the caller
+        private final ByteBuffer body;
+        // completed once written for asynchronous write, otherwise null
+        private final CompletableFuture<Void> done;
+        private boolean written;
+        private IOException error;
+
+        private Outbound(ByteBuffer buffer, ByteBuffer body) {
+            this(buffer, body, null);
+        }
+
+        private Outbound(ByteBuffer buffer, ByteBuffer body, CompletableFuture<Void> done) {
+            this.buffer = buffer;
+            this.body = body;
+            this.done = done;
+        }
+
+        private boolean isBatchable() {
+            // batch frame is never nested
+            return (body == null) && (buffer.remaining() <= MAX_BATCHED_LENGTH)
+                    && ((buffer.getInt(buffer.position() + 4) & Frame.FLAG_BATCH) == 0);
+        }
+    }
+
+    public FrameWriter(OutputStream outputStream, Converter converter) {
+        this(outputStream, converter, BufferPool.getDefault());
+    }
+
+    /**
+     * @param pool pool of the buffers which objects are encoded into, either heap or direct
+     */
+    public FrameWriter(OutputStream outputStream, Converter converter, BufferPool pool) {
+        this(outputStream, converter, pool, Compression.NONE);
+    }
+
+    /**
+     * @param pool pool of the buffers which objects are encoded into, either heap or direct
+     * @param compression compression agreed with the peer
+     */
+    public FrameWriter(OutputStream outputStream, Converter converter, BufferPool pool, Compression compression) {
+        this(outputStream, converter, pool, compression, Batching.NONE);
+    }
+
+    /**
+     * @param pool pool of the buffers which objects are encoded into, either heap or direct
+     * @param compression compression agreed with the peer
+     * @param batching batching of the frames written concurrently
+     */
+    public FrameWriter(OutputStream outputStream, Converter converter, BufferPool pool, Compression compression, Batching batching) {
+        this.batching = batching;
+        this.outputStream = new DataOutputStream(new BufferedOutputStream(outputStream, BUFFER_SIZE));
+        this.converter = converter;
+        this.pool = pool;
+        this.compression = compression;
+        // only used to write direct buffer
+        channel = Channels.newChannel(this.outputStream);
+        watch = DeadlineWatchdog.watch();
+        deadlined = outputStream instanceof DeadlineOutputStream ? (DeadlineOutputStream) outputStream : null;
+    }
+
+    public void write(Frame frame) throws IOException {
+        send(encode(frame));
+    }
+
+    /**
+     * write frame within given timeout
+     * @param frame frame to be written
+     * @param timeout timeout
+     * @param unit unit of timeout
+     * @throws IOException stream is closed
+     * @throws TimeoutException frame can't be written in time, which may still be written later
+     */
+    public void write(Frame frame, long timeout, TimeUnit unit) throws IOException, TimeoutException {
+        send(encode(frame), timeout, unit);
+    }
+
+    /**
+     * write object as a frame which is routed by given nonce
+     * @param nonce nonce of the call
+     * @param endpoint id of endpoint
+     * @param src object to be written
+     * @throws IOException
+     */
+    public void write(int nonce, int endpoint, Object src) throws IOException {
+        send(encode(Frame.FLAG_NONE, nonce, endpoint, src));
+    }
+
+    public void write(int nonce, int endpoint, Object src, long timeout, TimeUnit unit) throws IOException, TimeoutException {
+        send(encode(Frame.FLAG_NONE, nonce, endpoint, src), timeout, unit);
+    }
+
+    /**
+     * queue object as a frame which is routed by given nonce, and return without waiting for it to be written
+     * @param nonce nonce of the call
+     * @param endpoint id of endpoint
+     * @param src object to be written
+     * @param executor runs the task draining the queue when no writer holds the lock, which may block on the stream
+     * @return future completed once the frame is written, or completed exceptionally when encoding or writing fails
+     */
+    public CompletableFuture<Void> writeAsync(int nonce, int endpoint, Object src, Executor executor) {
+        final Outbound frame;
+        try {
+            frame = new Outbound(encode(Frame.FLAG_NONE, nonce, endpoint, src), null, new CompletableFuture<>());
+        } catch (IOException e) {
+            final CompletableFuture<Void> failure = new CompletableFuture<>();
+            failure.completeExceptionally(e);
+            return failure;
+        }
+        enqueue(frame);
+        scheduleDrain(executor);
+        return frame.done;
+    }
+
+    /**
+     * write objects as single batch frame, each of which is framed and routed by its own nonce
+     * @param flags flags of each framed object (e.g. {@link Frame#FLAG_ORDERED})
+     * @param nonces nonce of each object
+     * @param endpoints id of endpoint of each object
+     * @param srcs objects to be written
+     * @param timeout timeout, or 0 to wait until written
+     * @param unit unit of timeout
+     * @throws IOException stream is closed or batch is too large
+     * @throws TimeoutException batch can't be written in time
+     */
+    public void writeBatch(int flags, int[] nonces, int[] endpoints, Object[] srcs, long timeout, TimeUnit unit) throws IOException, TimeoutException {
+        final ByteBuffer[] frames = new ByteBuffer[srcs.length];
+        long length = 0;
+        try {
+            for (int i = 0; i < srcs.length; i++) {
+                frames[i] = encode(flags, nonces[i], endpoints[i], srcs[i]);
+                length += frames[i].remaining();
+            }
+        } catch (IOException e) {
+            for (ByteBuffer frame : frames) {
+                if(frame != null) {
+                    pool.release(frame);
+                }
+            }
+            throw e;
+        }
+        if(length > Frame.MAX_PAYLOAD_SIZE) {
+            for (ByteBuffer frame : frames) {
+                pool.release(frame);
+            }
+            throw new IOException(String.format("too large batch (%d bytes)", length));
+        }
+        final ByteBuffer batch = pool.acquire(Frame.HEADER_SIZE + (int) length);
+        batch.position(Frame.HEADER_SIZE);
+        for (ByteBuffer frame : frames) {
+            batch.put(frame);
+            pool.release(frame);
+        }
+        batch.flip();
+        putHeader(batch, (int) length, Frame.FLAG_BATCH, 0, 0);
+        if(timeout > 0) {
+            send(batch, timeout, unit);
+        } else {
+            send(batch);
+        }
+    }
+
+    /**
+     * write raw bytes as a frame without encoding. the payload is the prefix followed by the data, where the data is
+     * written straight from given buffer without copying it, so the buffer can be reused once this returns.
+     * @param flags flags of the frame
+     * @param nonce nonce of the frame
+     * @param endpoint endpoint of the frame
+     * @param prefix small header of the payload, which is copied
+     * @param data remaining bytes of the buffer are written, its position is not changed
+     * @throws IOException
+     */
+    public void writeRaw(int flags, int nonce, int endpoint, byte[] prefix, ByteBuffer data) throws IOException {
+        final ByteBuffer head = pool.acquire(Frame.HEADER_SIZE + prefix.length);
+        head.position(Frame.HEADER_SIZE);
+        head.put(prefix);
+        head.flip();
+        putHeader(head, prefix.length + data.remaining(), flags, nonce, endpoint);
+        send(head, data);
+    }
+
+    /**
+     * write frame without payload, which conveys nothing but its header (e.g. {@link Frame#FLAG_CANCEL})
+     * @param flags flags of the frame
+     * @param nonce nonce of the frame
+     * @param endpoint endpoint of the frame
+     * @throws IOException
+     */
+    public void write(int flags, int nonce, int endpoint) throws IOException {
+        final ByteBuffer header = pool.acquire(Frame.HEADER_SIZE);
+        header.limit(Frame.HEADER_SIZE);
+        putHeader(header, 0, flags, nonce, endpoint);
+        send(header);
+    }
+
+    @Override
+    public void write(Object src) throws IOException {
+        send(encode(Frame.FLAG_CONTROL, 0, 0, src));
+    }
+
+    @Override
+    public void write(Object src, long timeout, TimeUnit unit) throws TimeoutException {
+        try {
+            send(encode(Frame.FLAG_CONTROL, 0, 0, src), timeout, unit);
+        } catch (IOException e) {
+            throw new TimeoutException(e.getMessage());
+        }
+    }
+
+    /**
+     * encode object into pooled buffer with frame header in front of it
+     * @throws IOException the object can't be converted, so the caller fails before anything is written
+     */
+    private ByteBuffer encode(int flags, int nonce, int endpoint, Object src) throws IOException {
+        ByteBuffer buffer;
+        try {
+            buffer = converter.convert(src, pool, Frame.HEADER_SIZE);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        final ByteBuffer compressed = compression.deflate(buffer, Frame.HEADER_SIZE, pool);
+        if(compressed != null) {
+            pool.release(buffer);
+            buffer = compressed;
+            flags |= Frame.FLAG_COMPRESSED;
+        }
+        putHeader(buffer, buffer.limit() - Frame.HEADER_SIZE, flags, nonce, endpoint);
+        return buffer;
+    }
+
+    /**
+     * copy frame into pooled buffer with its header
+     */
+    private ByteBuffer encode(Frame frame) {
+        final ByteBuffer buffer = pool.acquire(Frame.HEADER_SIZE + frame.getLength());
+        buffer.position(Frame.HEADER_SIZE);
+        buffer.put(frame.getBuffer().duplicate());
+        buffer.flip();
+        putHeader(buffer, frame.getLength(), frame.getFlags(), frame.getNonce(), frame.getEndpoint());
+        return buffer;
+    }
+
+    private static void putHeader(ByteBuffer buffer, int length, int flags, int nonce, int endpoint) {
+        buffer.putInt(0, length);
+        buffer.putInt(4, flags);
+        buffer.putInt(8, nonce);
+        buffer.putInt(12, endpoint);
+    }
+
+    private void send(ByteBuffer encoded) throws IOException {
+        send(encoded, null);
+    }
+
+    private void send(ByteBuffer encoded, ByteBuffer body) throws IOException {
+        final Outbound frame = new Outbound(encoded, body);
+        enqueue(frame);
+        lock.lock();
+        try {
+            if(!frame.written) {
+                linger(frame);
+            }
+            drainUntilWritten(frame);
+        } finally {
+            lock.unlock();
+        }
+        if(frame.error != null) {
+            throw frame.error;
+        }
+    }
+
+    private void send(ByteBuffer encoded, long timeout, TimeUnit unit) throws IOException, TimeoutException {
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        final Outbound frame = new Outbound(encoded, null);
+        enqueue(frame);
+        boolean locked;
+        boolean interrupted = false;
+        try {
+            locked = lock.tryLock(timeout, unit);
+        } catch (InterruptedException e) {
+            // interrupt is kept for the caller
+            Thread.currentThread().interrupt();
+            interrupted = true;
+            locked = false;
+        }
+        if(!locked) {
+            if(outbound.remove(frame)) {
+                // not taken by any writer yet
+                queued.decrementAndGet();
+                pool.release(encoded);
+                if(interrupted) {
+                    throw new InterruptedIOException("interrupted while waiting for writer");
+                }
+                throw new TimeoutException("writer is busy");
+            }
+            // being written by other writer, wait for the result
+            lock.lock();
+        }
+        try {
+            if(!frame.written) {
+                final long remaining = deadline - System.nanoTime();
+                if((remaining <= 0) && outbound.remove(frame)) {
+                    // deadline is passed while waiting for other writers
+                    queued.decrementAndGet();
+                    pool.release(encoded);
+                    throw new TimeoutException("writer is busy");
+                }
+                if(deadlined != null) {
+                    drainBefore(frame, deadline);
+                } else {
+                    watch.start(remaining, TimeUnit.NANOSECONDS);
+                    try {
+                        linger(frame);
+                        drainUntilWritten(frame);
+                    } catch (IOException e) {
+                        watch.fail(e);
+                    }
+                    if(!watch.stop()) {
+                        throw new TimeoutException("written after deadline");
+                    }
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        if(frame.error != null) {
+            throw frame.error;
+        }
+    }
+
+    /**
+     * drain the queue with the deadline handed over to the stream, which is closed when the deadline is overrun.
+     * called only by the writer holding the lock
+     */
+    private void drainBefore(Outbound frame, long deadline) throws IOException, TimeoutException {
+        deadlined.setDeadline(deadline);
+        try {
+            linger(frame);
+            drainUntilWritten(frame);
+        } catch (SocketTimeoutException e) {
+            final TimeoutException exception = new TimeoutException(e.getMessage());
+            exception.initCause(e);
+            throw exception;
+        } finally {
+            deadlined.clearDeadline();
+        }
+    }
+
+    /**
+     * drain the queue until given frame is written. if it fails before the frame is taken from the queue,
+     * the frame is withdrawn, so that it's not written later by other writer after the failure is reported.
+     * called only by the writer holding the lock
+     */
+    private void drainUntilWritten(Outbound frame) throws IOException {
+        try {
+            while (!frame.written) {
+                drain();
+            }
+        } catch (IOException e) {
+            if(outbound.remove(frame)) {
+                queued.decrementAndGet();
+                pool.release(frame.buffer);
+            }
+            throw e;
+        }
+    }
+
+    private void scheduleDrain(Executor executor) {
+        if(isDrainScheduled.compareAndSet(false, true)) {
+            executor.execute(() -> drainQueued(executor));
+        }
+    }
+
+    /**
+     * drain the queue for asynchronous writes, whose failure is reported through their futures
+     */
+    private void drainQueued(Executor executor) {
+        lock.lock();
+        try {
+            final Outbound first = outbound.peek();
+            if(first != null) {
+                linger(first);
+            }
+            while (!outbound.isEmpty()) {
+                drain();
+            }
+        } catch (IOException e) {
+            // remaining frames are drained by the task scheduled below, and fail alike if the stream is broken
+        } finally {
+            lock.unlock();
+        }
+        isDrainScheduled.set(false);
+        // frame queued right before the flag is cleared is taken here
+        if(!outbound.isEmpty()) {
+            scheduleDrain(executor);
+        }
+    }
+
+    private void enqueue(Outbound frame) {
+        queued.incrementAndGet();
+        outbound.offer(frame);
+    }
+
+    /**
+     * wait for the batching window, so that frames of other writers pile up in the queue.
+     * called only by the writer holding the lock, and only for batchable frame
+     */
+    private void linger(Outbound frame) {
+        if(!batching.isEnabled() || !frame.isBatchable()) {
+            return;
+        }
+        final long until = System.nanoTime() + batching.getWindow();
+        long remaining;
+        while ((queued.get() < batching.getMaxFrames()) && ((remaining = until - System.nanoTime()) > 0)) {
+            LockSupport.parkNanos(this, Math.min(remaining, LINGER_STEP_NANOS));
+            if(Thread.currentThread().isInterrupted()) {
+                // frame is written anyway, interrupt is left for the caller
+                return;
+            }
+        }
+    }
+
+    /**
+     * write all the frames in outbound queue and flush them at once. called only by the writer holding the lock
+     */
+    private void drain() throws IOException {
+        IOException error = null;
+        Outbound frame;
+        while ((batch.size() < MAX_BATCH_SIZE) && ((frame = outbound.poll()) != null)) {
+            queued.decrementAndGet();
+            batch.add(frame);
+        }
+        try {
+            int from = 0;
+            while (from < batch.size()) {
+                from = batching.isEnabled() ? writeBatch(from) : writeFrame(from);
+            }
+            outputStream.flush();
+        } catch (IOException e) {
+            error = e;
+        }
+        for (Outbound written : batch) {
+            written.written = true;
+            written.error = error;
+            pool.release(written.buffer);
+            if(written.done != null) {
+                if(error == null) {
+                    written.done.complete(null);
+                } else {
+                    written.done.completeExceptionally(error);
+                }
+            }
+        }
+        batch.clear();
+        if(error != null) {
+            throw error;
+        }
+    }
+
+    /**
+     * @return index of the frame next to the written one
+     */
+    private int writeFrame(int index) throws IOException {
+        final Outbound frame = batch.get(index);
+        writeBuffer(frame.buffer);
+        if(frame.body != null) {
+            writeBuffer(frame.body);
+        }
+        return index + 1;
+    }
+
+    /**
+     * pack consecutive batchable frames from the index into batch frame, or write single frame as is
+     * @return index of the frame next to the written ones
+     */
+    private int writeBatch(int from) throws IOException {
+        int to = from;
+        int length = 0;
+        while ((to < batch.size()) && (to - from < batching.getMaxFrames()) && batch.get(to).isBatchable()) {
+            final int size = batch.get(to).buffer.remaining();
+            if((long) length + size > Frame.MAX_PAYLOAD_SIZE) {
+                // rest is packed into next batch, so that the reader accepts the payload
+                break;
+            }
+            length += size;
+            to++;
+        }
+        if(to - from < 2) {
+            return writeFrame(from);
+        }
+        putHeader(batchHeader, length, Frame.FLAG_BATCH, 0, 0);
+        outputStream.write(batchHeader.array(), 0, Frame.HEADER_SIZE);
+        for (int i = from; i < to; i++) {
+            writeBuffer(batch.get(i).buffer);
+        }
+        return to;
+    }
+
+    private void writeBuffer(ByteBuffer buffer) throws IOException {
+        if(buffer.hasArray()) {
+            outputStream.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+            return;
+        }
+        final ByteBuffer duplicate = buffer.duplicate();
+        while (duplicate.hasRemaining()) {
+            channel.write(duplicate);
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package net.doodream.yarmi.serde;
+
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * output stream writing into a buffer acquired from {@link BufferPool}. the buffer is replaced with larger one
+ * from the pool when it's full, so stream based encoders can encode into pooled buffer.
+ */
+public class PooledOutputStream extends OutputStream {
+
+    private final BufferPool pool;
+    private ByteBuffer buffer;
+
+    /**
+     * @param pool pool which the buffer is acquired from
+     * @param headroom bytes reserved at the beginning of the buffer (e.g. for frame header)
+     * @param capacity initial capacity for the content
+     */
+    public PooledOutputStream(BufferPool pool, int headroom, int capacity) {
+        this.pool = pool;
+        buffer = pool.acquire(headroom + capacity);
+        buffer.position(headroom);
+    }
+
+    @Override
+    public void write(int b) {
+        ensure(1);
+        buffer.put((byte) b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+        ensure(len);
+        buffer.put(b, off, len);
+    }
+
+    /**
+     * @return written buffer which is flipped, including headroom. the stream must not be used afterward.
+     */
+    public ByteBuffer toByteBuffer() {
+        final ByteBuffer written = buffer;
+        buffer = null;
+        written.flip();
+        return written;
+    }
+
+    /**
+     * release buffer without taking it, when encoding fails
+     */
+    public void discard() {
+        pool.release(buffer);
+        buffer = null;
+    }
+
+    private void ensure(int size) {
+        if(buffer.remaining() >= size) {
+            return;
+        }
+        final ByteBuffer larger = pool.acquire(Math.max(buffer.capacity() << 1, buffer.position() + size));
+        buffer.flip();
+        larger.put(buffer);
+        pool.release(buffer);
+        buffer = larger;
+    }
+}
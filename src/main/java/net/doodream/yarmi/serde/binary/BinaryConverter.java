@@ -0,0 +1,232 @@
+package net.doodream.yarmi.serde.binary;
+
+import net.doodream.yarmi.data.ControllerInfo;
+import net.doodream.yarmi.data.RMIServiceInfo;
+import net.doodream.yarmi.data.Request;
+import net.doodream.yarmi.serde.BufferPool;
+import net.doodream.yarmi.serde.Converter;
+import net.doodream.yarmi.serde.DeadlineWatchdog;
+import net.doodream.yarmi.serde.Frame;
+import net.doodream.yarmi.serde.Reader;
+import net.doodream.yarmi.serde.Writer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Type;
+import java.nio.ByteBuffer;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * BinaryConverter encodes objects in compact positional binary format. unlike {@link net.doodream.yarmi.serde.bson.BsonConverter},
+ * field names are not written, fields are written in the order of layout derived from each class instead.
+ * classes reachable from the service definition are registered with compact ids in {@link #fingerprint(RMIServiceInfo)},
+ * which is called by the negotiator on both sides, so that peers with different layouts fail in the handshake.
+ * only those classes and classes allowed by {@link #allow(Class[])} can be named in the message, so the peer can't
+ * make this side instantiate arbitrary class.
+ *
+ * messages written by {@link Writer} are prefixed with their length.
+ */
+public class BinaryConverter implements Converter {
+
+    private static final Logger Log = LoggerFactory.getLogger(BinaryConverter.class);
+
+    private final Schema schema = new Schema();
+
+    /**
+     * allow objects of given classes (and classes reachable from their fields) to be decoded from the value
+     * whose type is not declared in the service (e.g. declared as Object)
+     * @param classes classes to be allowed
+     */
+    public void allow(Class<?>... classes) {
+        for (Class<?> cls : classes) {
+            schema.allow(cls);
+        }
+    }
+
+    @Override
+    public Reader reader(final InputStream inputStream) {
+        return new Reader() {
+            // not buffered, so that nothing beyond the message is consumed from the stream
+            private final DataInputStream dataInputStream = new DataInputStream(inputStream);
+            private final DeadlineWatchdog.Watch watch = DeadlineWatchdog.watch(inputStream);
+
+            @Override
+            public synchronized <T> T read(Class<T> cls) throws IOException {
+                final int length = dataInputStream.readInt();
+                if((length < 0) || (length > Frame.MAX_PAYLOAD_SIZE)) {
+                    throw new IOException(String.format("invalid message length %d", length));
+                }
+                final byte[] message = new byte[length];
+                dataInputStream.readFully(message);
+                return invert(message, cls);
+            }
+
+            @Override
+            public synchronized <T> T read(Class<T> cls, long timeout, TimeUnit timeUnit) throws IOException, TimeoutException {
+                watch.start(timeout, timeUnit);
+                final T value;
+                try {
+                    value = read(cls);
+                } catch (IOException e) {
+                    watch.fail(e);
+                    throw e;
+                }
+                watch.stop();
+                return value;
+            }
+        };
+    }
+
+    @Override
+    public Writer writer(final OutputStream outputStream) {
+        return new Writer() {
+            private final DataOutputStream dataOutputStream = new DataOutputStream(outputStream);
+            private final DeadlineWatchdog.Watch watch = DeadlineWatchdog.watch(outputStream);
+
+            @Override
+            public synchronized void write(Object src) throws IOException {
+                final byte[] message = convert(src);
+                dataOutputStream.writeInt(message.length);
+                dataOutputStream.write(message);
+                dataOutputStream.flush();
+            }
+
+            @Override
+            public synchronized void write(Object src, long timeout, TimeUnit unit) throws TimeoutException {
+                watch.start(timeout, unit);
+                try {
+                    write(src);
+                } catch (IOException e) {
+                    try {
+                        watch.fail(e);
+                    } catch (IOException ignored) {
+                        // I/O error is considered as timeout to the caller
+                    }
+                    throw new TimeoutException(e.getMessage());
+                }
+                watch.stop();
+            }
+        };
+    }
+
+    @Override
+    public byte[] convert(Object src) {
+        final BinaryOutput out = new BinaryOutput();
+        try {
+            schema.dynamic().write(out, src);
+        } catch (IOException e) {
+            Log.warn("fail to convert {} : {}", src.getClass(), e.getMessage());
+            return new byte[0];
+        }
+        return out.toByteArray();
+    }
+
+    @Override
+    public ByteBuffer convert(Object src, BufferPool pool, int headroom) {
+        if(pool.isDirect()) {
+            return Converter.super.convert(src, pool, headroom);
+        }
+        final BinaryOutput out = new BinaryOutput(pool, headroom);
+        try {
+            schema.dynamic().write(out, src);
+        } catch (IOException e) {
+            out.discard();
+            throw new UncheckedIOException(e);
+        }
+        return out.toByteBuffer();
+    }
+
+    @Override
+    public <T> T invert(byte[] b, Class<T> cls) {
+        return invert(b, (Type) cls);
+    }
+
+    @Override
+    public <T> T invert(byte[] b, Type type) {
+        return invert(new BinaryInput(b), type);
+    }
+
+    @Override
+    public <T> T invert(ByteBuffer b, Type type) {
+        if(!b.hasArray()) {
+            return Converter.super.invert(b, type);
+        }
+        return invert(new BinaryInput(b.array(), b.arrayOffset() + b.position(), b.remaining()), type);
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T invert(BinaryInput in, Type type) {
+        try {
+            return (T) schema.resolve(schema.dynamic().read(in), type);
+        } catch (IOException | InstantiationException e) {
+            Log.debug("fail to convert into {} : {}", type, e.getMessage());
+        }
+        return null;
+    }
+
+    @Override
+    public Request invertRequest(byte[] b, Type[] parameterTypes) {
+        return resolveArguments(invert(b, Request.class), parameterTypes);
+    }
+
+    @Override
+    public Request invertRequest(ByteBuffer b, Type[] parameterTypes) {
+        return resolveArguments(invert(b, Request.class), parameterTypes);
+    }
+
+    private Request resolveArguments(Request request, Type[] parameterTypes) {
+        if((request == null) || (parameterTypes == null)) {
+            return request;
+        }
+        final Object[] args = request.getArgs();
+        if(args == null) {
+            return request;
+        }
+        try {
+            // objects are decoded into their own classes, only containers may need to be converted
+            for (int i = 0; (i < args.length) && (i < parameterTypes.length); i++) {
+                args[i] = schema.resolve(args[i], parameterTypes[i]);
+            }
+        } catch (InstantiationException e) {
+            Log.debug("fail to convert request : {}", e.getMessage());
+            return null;
+        }
+        return request;
+    }
+
+    @Override
+    public Object resolve(Object unresolved, Type type) throws InstantiationException {
+        return schema.resolve(unresolved, type);
+    }
+
+    @Override
+    public long fingerprint(RMIServiceInfo service) {
+        final Set<Class<?>> classes = new HashSet<>();
+        final List<ControllerInfo> controllerInfos = service.getControllerInfos();
+        if(controllerInfos != null) {
+            for (ControllerInfo controllerInfo : controllerInfos) {
+                for (Method method : controllerInfo.getStubCls().getDeclaredMethods()) {
+                    schema.collect(method.getGenericReturnType(), classes);
+                    schema.allow(method.getGenericReturnType());
+                    for (Type type : method.getGenericParameterTypes()) {
+                        schema.collect(type, classes);
+                        schema.allow(type);
+                    }
+                }
+            }
+        }
+        schema.register(classes);
+        return schema.fingerprint();
+    }
+}
@@ -0,0 +1,134 @@
+package net.doodream.yarmi.serde.binary;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * input counterpart of {@link BinaryOutput}
+ */
+class BinaryInput {
+
+    private final byte[] buffer;
+    private final int limit;
+    private int position;
+    private List<Class<?>> classRefs;
+
+    BinaryInput(byte[] buffer) {
+        this(buffer, 0, buffer.length);
+    }
+
+    BinaryInput(byte[] buffer, int offset, int length) {
+        this.buffer = buffer;
+        position = offset;
+        limit = offset + length;
+    }
+
+    int readByte() throws IOException {
+        if(position >= limit) {
+            throw new EOFException("unexpected end of message");
+        }
+        return buffer[position++];
+    }
+
+    int readVarint() throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            final int b = readByte();
+            value |= (b & 0x7F) << shift;
+            if((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("malformed varint");
+    }
+
+    long readVarlong() throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 70; shift += 7) {
+            final int b = readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("malformed varint");
+    }
+
+    int readZigzagInt() throws IOException {
+        final int value = readVarint();
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    long readZigzagLong() throws IOException {
+        final long value = readVarlong();
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    float readFloat() throws IOException {
+        return Float.intBitsToFloat((int) readFixed(4));
+    }
+
+    double readDouble() throws IOException {
+        return Double.longBitsToDouble(readFixed(8));
+    }
+
+    byte[] readBytes(int length) throws IOException {
+        checkRemaining(length);
+        final byte[] bytes = new byte[length];
+        System.arraycopy(buffer, position, bytes, 0, length);
+        position += length;
+        return bytes;
+    }
+
+    /**
+     * read string written by {@link BinaryOutput#writeString(String, int)}
+     * @param bias bias added to the length prefix
+     * @return string, or null if the length prefix is less than bias
+     */
+    String readString(int bias) throws IOException {
+        final int length = readVarint() - bias;
+        if(length < 0) {
+            return null;
+        }
+        checkRemaining(length);
+        final String value = new String(buffer, position, length, StandardCharsets.UTF_8);
+        position += length;
+        return value;
+    }
+
+    int remaining() {
+        return limit - position;
+    }
+
+    void addRef(Class<?> cls) {
+        if(classRefs == null) {
+            classRefs = new ArrayList<>();
+        }
+        classRefs.add(cls);
+    }
+
+    Class<?> getRef(int ref) throws IOException {
+        if((classRefs == null) || (ref < 0) || (ref >= classRefs.size())) {
+            throw new IOException(String.format("invalid class reference %d", ref));
+        }
+        return classRefs.get(ref);
+    }
+
+    private long readFixed(int size) throws IOException {
+        checkRemaining(size);
+        long bits = 0;
+        for (int i = 0; i < size; i++) {
+            bits = (bits << 8) | (buffer[position++] & 0xFF);
+        }
+        return bits;
+    }
+
+    private void checkRemaining(int length) throws IOException {
+        if((length < 0) || (length > limit - position)) {
+            throw new EOFException("unexpected end of message");
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package net.doodream.yarmi.serde.binary;
+
+import net.doodream.yarmi.serde.BufferPool;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * growable output buffer for binary format. integers are written as (zigzag) varint, so small values take
+ * single byte. it also keeps classes already written by name within the message, so that the name is written
+ * only once per message.
+ *
+ * when it's created with {@link BufferPool}, the message is written into heap buffer from the pool in place.
+ */
+class BinaryOutput {
+
+    private final BufferPool pool;
+    private ByteBuffer pooled;
+    private byte[] buffer;
+    private int position;
+    private Map<Class<?>, Integer> classRefs;
+
+    BinaryOutput() {
+        this(64);
+    }
+
+    BinaryOutput(int capacity) {
+        pool = null;
+        buffer = new byte[capacity];
+    }
+
+    /**
+     * @param pool pool of heap buffers
+     * @param headroom bytes reserved at the beginning of the buffer
+     */
+    BinaryOutput(BufferPool pool, int headroom) {
+        this.pool = pool;
+        pooled = pool.acquire(headroom + 64);
+        buffer = pooled.array();
+        position = headroom;
+    }
+
+    void writeByte(int b) {
+        ensure(1);
+        buffer[position++] = (byte) b;
+    }
+
+    void writeVarint(int value) {
+        ensure(5);
+        while ((value & ~0x7F) != 0) {
+            buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[position++] = (byte) value;
+    }
+
+    void writeVarlong(long value) {
+        ensure(10);
+        while ((value & ~0x7FL) != 0) {
+            buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[position++] = (byte) value;
+    }
+
+    void writeZigzag(int value) {
+        writeVarint((value << 1) ^ (value >> 31));
+    }
+
+    void writeZigzag(long value) {
+        writeVarlong((value << 1) ^ (value >> 63));
+    }
+
+    void writeFloat(float value) {
+        writeFixed(Float.floatToIntBits(value), 4);
+    }
+
+    void writeDouble(double value) {
+        writeFixed(Double.doubleToLongBits(value), 8);
+    }
+
+    void writeBytes(byte[] bytes) {
+        ensure(bytes.length);
+        System.arraycopy(bytes, 0, buffer, position, bytes.length);
+        position += bytes.length;
+    }
+
+    /**
+     * write string prefixed with its length
+     * @param value string to be written
+     * @param bias added to the length prefix, which allows caller to reserve small values (e.g. 0 for null)
+     */
+    void writeString(String value, int bias) {
+        final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarint(bytes.length + bias);
+        writeBytes(bytes);
+    }
+
+    /**
+     * @param cls class to be written by name
+     * @return index of the class if it's already written in this message, otherwise null (and the class is indexed)
+     */
+    Integer refOf(Class<?> cls) {
+        if(classRefs == null) {
+            classRefs = new HashMap<>();
+        }
+        final Integer ref = classRefs.get(cls);
+        if(ref == null) {
+            classRefs.put(cls, classRefs.size());
+        }
+        return ref;
+    }
+
+    byte[] toByteArray() {
+        return Arrays.copyOf(buffer, position);
+    }
+
+    /**
+     * @return pooled buffer flipped, including headroom
+     */
+    ByteBuffer toByteBuffer() {
+        pooled.limit(position);
+        pooled.position(0);
+        return pooled;
+    }
+
+    /**
+     * return pooled buffer when writing fails
+     */
+    void discard() {
+        pool.release(pooled);
+        pooled = null;
+    }
+
+    private void writeFixed(long bits, int size) {
+        ensure(size);
+        for (int shift = (size - 1) * 8; shift >= 0; shift -= 8) {
+            buffer[position++] = (byte) (bits >>> shift);
+        }
+    }
+
+    private void ensure(int size) {
+        if(position + size <= buffer.length) {
+            return;
+        }
+        final int capacity = Math.max(buffer.length << 1, position + size);
+        if(pool == null) {
+            buffer = Arrays.copyOf(buffer, capacity);
+            return;
+        }
+        final ByteBuffer larger = pool.acquire(capacity);
+        System.arraycopy(buffer, 0, larger.array(), 0, position);
+        pool.release(pooled);
+        pooled = larger;
+        buffer = larger.array();
+    }
+}
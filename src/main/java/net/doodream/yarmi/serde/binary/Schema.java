@@ -0,0 +1,1096 @@
+package net.doodream.yarmi.serde.binary;
+
+import net.doodream.yarmi.data.ControllerInfo;
+import net.doodream.yarmi.data.RMIServiceInfo;
+import net.doodream.yarmi.data.Request;
+import net.doodream.yarmi.data.Response;
+import net.doodream.yarmi.net.session.BlobSession;
+import net.doodream.yarmi.net.session.SessionCommand;
+import net.doodream.yarmi.net.session.SessionControlMessage;
+import net.doodream.yarmi.net.session.param.SCMChunkParam;
+import net.doodream.yarmi.net.session.param.SCMErrorParam;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Schema derives positional layout ({@link Codec}) of each type once and caches it. fields of object are written
+ * in fixed order without their names, so peers must have same layouts, which is checked by {@link #fingerprint()}
+ * during the handshake.
+ *
+ * values whose type is not known statically (e.g. declared as Object or type variable) are written with a tag.
+ * objects among them are identified by compact id if their classes are registered, otherwise by class name which
+ * is written only once per message.
+ *
+ * class named by the peer is never loaded by its name. only registered classes and classes allowed explicitly
+ * (see {@link #allow(Type)}) are instantiated, and message naming any other class is rejected.
+ */
+class Schema {
+
+    private static final Logger Log = LoggerFactory.getLogger(Schema.class);
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private static final int TAG_NULL = 0;
+    private static final int TAG_FALSE = 1;
+    private static final int TAG_TRUE = 2;
+    private static final int TAG_INT = 3;
+    private static final int TAG_LONG = 4;
+    private static final int TAG_DOUBLE = 5;
+    private static final int TAG_FLOAT = 6;
+    private static final int TAG_SHORT = 7;
+    private static final int TAG_BYTE = 8;
+    private static final int TAG_CHAR = 9;
+    private static final int TAG_STRING = 10;
+    private static final int TAG_BYTES = 11;
+    private static final int TAG_CLASS = 12;
+    private static final int TAG_LIST = 13;
+    private static final int TAG_SET = 14;
+    private static final int TAG_MAP = 15;
+    private static final int TAG_ARRAY = 16;
+    // object of registered class, followed by id of the class
+    private static final int TAG_STRUCT = 17;
+    // object of unregistered class, followed by name of the class
+    private static final int TAG_NAMED = 18;
+    // object of unregistered class which is already named in the message, followed by index of the name
+    private static final int TAG_NAMED_REF = 19;
+
+    // classes exchanged by the framework itself, which are always registered in this order
+    private static final Class<?>[] BUILTIN_CLASSES = {
+            Request.class,
+            Response.class,
+            SessionControlMessage.class,
+            SessionCommand.class,
+            SCMChunkParam.class,
+            SCMErrorParam.class,
+            SCMErrorParam.ErrorType.class,
+            BlobSession.class,
+            RMIServiceInfo.class,
+            ControllerInfo.class
+    };
+
+    private final ConcurrentHashMap<Type, Codec> codecs = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Class<?>, Integer> classIds = new ConcurrentHashMap<>();
+    // classes which can be named in the message, including registered ones
+    private final ConcurrentHashMap<String, Class<?>> allowed = new ConcurrentHashMap<>();
+    private volatile Class<?>[] classes = new Class<?>[0];
+    private final Codec dynamic = new DynamicCodec();
+
+    Schema() {
+        append(Arrays.asList(BUILTIN_CLASSES));
+    }
+
+    /**
+     * codec of value, which is able to encode value of any type
+     */
+    Codec dynamic() {
+        return dynamic;
+    }
+
+    Codec codecOf(Type type) {
+        Codec codec = codecs.get(type);
+        if(codec != null) {
+            return codec;
+        }
+        codec = compile(type);
+        final Codec prev = codecs.putIfAbsent(type, codec);
+        return prev == null ? codec : prev;
+    }
+
+    /**
+     * register classes so that their objects are identified with compact id. ids are assigned in order of
+     * class name, after the classes registered before.
+     * @param newClasses classes to be registered
+     */
+    synchronized void register(Collection<Class<?>> newClasses) {
+        final List<Class<?>> sorted = new ArrayList<>();
+        for (Class<?> cls : newClasses) {
+            if(!classIds.containsKey(cls) && !sorted.contains(cls)) {
+                sorted.add(cls);
+            }
+        }
+        sorted.sort(Comparator.comparing(Class::getName));
+        append(sorted);
+    }
+
+    private synchronized void append(List<Class<?>> newClasses) {
+        final Class<?>[] registered = Arrays.copyOf(classes, classes.length + newClasses.size());
+        for (int i = classes.length; i < registered.length; i++) {
+            registered[i] = newClasses.get(i - classes.length);
+            classIds.put(registered[i], i);
+            allowed.put(registered[i].getName(), registered[i]);
+        }
+        classes = registered;
+    }
+
+    /**
+     * collect classes reachable from given type, which can be registered
+     * @param type type to start from
+     * @param collected set of collected classes
+     */
+    void collect(Type type, Set<Class<?>> collected) {
+        if(type instanceof ParameterizedType) {
+            collect(((ParameterizedType) type).getRawType(), collected);
+            for (Type argument : ((ParameterizedType) type).getActualTypeArguments()) {
+                collect(argument, collected);
+            }
+        } else if(type instanceof GenericArrayType) {
+            collect(((GenericArrayType) type).getGenericComponentType(), collected);
+        } else if(type instanceof WildcardType) {
+            for (Type bound : ((WildcardType) type).getUpperBounds()) {
+                collect(bound, collected);
+            }
+        } else if(type instanceof Class) {
+            final Class<?> cls = (Class<?>) type;
+            if(cls.isArray()) {
+                collect(cls.getComponentType(), collected);
+                return;
+            }
+            if(cls.getName().startsWith("java.") || !(cls.isEnum() || isStruct(cls)) || !collected.add(cls)) {
+                return;
+            }
+            if(!cls.isEnum()) {
+                for (Field field : layoutOf(cls)) {
+                    collect(field.getGenericType(), collected);
+                }
+            }
+        }
+    }
+
+    /**
+     * allow the classes reachable from given type to be named in the message, without registering them.
+     * (e.g. class of value declared as Object, or classes of the local service which are not registered)
+     * @param type type to start from
+     */
+    void allow(Type type) {
+        reach(type, new HashSet<>());
+    }
+
+    private void reach(Type type, Set<Class<?>> reached) {
+        if(type instanceof ParameterizedType) {
+            reach(((ParameterizedType) type).getRawType(), reached);
+            for (Type argument : ((ParameterizedType) type).getActualTypeArguments()) {
+                reach(argument, reached);
+            }
+        } else if(type instanceof GenericArrayType) {
+            reach(((GenericArrayType) type).getGenericComponentType(), reached);
+        } else if(type instanceof WildcardType) {
+            for (Type bound : ((WildcardType) type).getUpperBounds()) {
+                reach(bound, reached);
+            }
+        } else if(type instanceof Class) {
+            final Class<?> cls = (Class<?>) type;
+            if(cls.isArray()) {
+                reach(cls.getComponentType(), reached);
+                return;
+            }
+            if(cls.isPrimitive() || !reached.add(cls)) {
+                return;
+            }
+            allowed.put(cls.getName(), cls);
+            if(isStruct(cls) && !cls.getName().startsWith("java.")) {
+                for (Field field : layoutOf(cls)) {
+                    reach(field.getGenericType(), reached);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return hash of layouts of all the registered classes
+     */
+    long fingerprint() {
+        long hash = FNV_OFFSET;
+        for (Class<?> cls : classes) {
+            final StringBuilder builder = new StringBuilder(cls.getName()).append('{');
+            if(cls.isEnum()) {
+                for (Object constant : cls.getEnumConstants()) {
+                    builder.append(((Enum<?>) constant).name()).append(';');
+                }
+            } else {
+                for (Field field : layoutOf(cls)) {
+                    builder.append(field.getName()).append(':').append(field.getGenericType().getTypeName()).append(';');
+                }
+            }
+            for (char c : builder.append('}').toString().toCharArray()) {
+                hash = (hash ^ c) * FNV_PRIME;
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * convert decoded value into given type, if it is not instance of the type (e.g. {@link ArrayList} for {@link LinkedList})
+     */
+    Object resolve(Object value, Type type) throws InstantiationException {
+        if(value == null) {
+            return null;
+        }
+        final Class<?> cls = boxed(rawClassOf(type));
+        if(cls.isInstance(value)) {
+            return value;
+        }
+        if((value instanceof Number) && (cls.getSuperclass() == Number.class)) {
+            return PrimitiveCodec.narrow((Number) value, cls);
+        }
+        if((value instanceof String) && (cls == Class.class)) {
+            try {
+                return loadClass((String) value);
+            } catch (IOException e) {
+                throw new InstantiationException(e.getMessage());
+            }
+        }
+        if((value instanceof Collection) && Collection.class.isAssignableFrom(cls)) {
+            final Collection<Object> collection = new CollectionCodec(cls, dynamic).newCollection(((Collection<?>) value).size());
+            collection.addAll((Collection<?>) value);
+            return collection;
+        }
+        if((value instanceof Map) && Map.class.isAssignableFrom(cls)) {
+            final Map<Object, Object> map = new MapCodec(cls, dynamic, dynamic).newMap();
+            map.putAll((Map<?, ?>) value);
+            return map;
+        }
+        return value;
+    }
+
+    private Codec compile(Type type) {
+        if(type instanceof ParameterizedType) {
+            final Class<?> cls = (Class<?>) ((ParameterizedType) type).getRawType();
+            final Type[] arguments = ((ParameterizedType) type).getActualTypeArguments();
+            if(Collection.class.isAssignableFrom(cls) && (arguments.length == 1)) {
+                return new CollectionCodec(cls, codecOf(arguments[0]));
+            }
+            if(Map.class.isAssignableFrom(cls) && (arguments.length == 2)) {
+                return new MapCodec(cls, codecOf(arguments[0]), codecOf(arguments[1]));
+            }
+            // type arguments of object are not used for its layout
+            return codecOf(cls);
+        }
+        if(type instanceof GenericArrayType) {
+            final Type component = ((GenericArrayType) type).getGenericComponentType();
+            return new ArrayCodec(rawClassOf(component), codecOf(component));
+        }
+        if(!(type instanceof Class)) {
+            // type variable or wildcard
+            return dynamic;
+        }
+        final Class<?> cls = (Class<?>) type;
+        if(cls.isPrimitive()) {
+            return new PrimitiveCodec(cls);
+        }
+        if(cls.getSuperclass() == Number.class && cls.getName().startsWith("java.lang.")
+                || cls == Boolean.class || cls == Character.class) {
+            return new NullableCodec(new PrimitiveCodec(cls));
+        }
+        if(cls == String.class) {
+            return StringCodec.INSTANCE;
+        }
+        if(cls == byte[].class) {
+            return BytesCodec.INSTANCE;
+        }
+        if(cls == Class.class) {
+            return ClassCodec.INSTANCE;
+        }
+        if(cls.isArray()) {
+            return new ArrayCodec(cls.getComponentType(), codecOf(cls.getComponentType()));
+        }
+        if(cls.isEnum()) {
+            return new EnumCodec(cls);
+        }
+        if(Collection.class.isAssignableFrom(cls)) {
+            return new CollectionCodec(cls, dynamic);
+        }
+        if(Map.class.isAssignableFrom(cls)) {
+            return new MapCodec(cls, dynamic, dynamic);
+        }
+        if(isStruct(cls)) {
+            return new StructCodec(cls);
+        }
+        return dynamic;
+    }
+
+    private static boolean isStruct(Class<?> cls) {
+        return !cls.isPrimitive() && !cls.isArray() && !cls.isEnum() && !cls.isInterface()
+                && !Modifier.isAbstract(cls.getModifiers())
+                && (cls != Object.class) && (cls != String.class) && (cls != Class.class)
+                && !cls.getName().startsWith("java.lang.")
+                && !Collection.class.isAssignableFrom(cls) && !Map.class.isAssignableFrom(cls);
+    }
+
+    /**
+     * fields of the class in the order of layout, from super class to the class. fields declared in same class
+     * are ordered by name, because {@link Class#getDeclaredFields()} doesn't guarantee any order
+     */
+    private static List<Field> layoutOf(Class<?> cls) {
+        final LinkedList<Field> fields = new LinkedList<>();
+        for (Class<?> c = cls; (c != null) && (c != Object.class); c = c.getSuperclass()) {
+            final List<Field> declared = new ArrayList<>();
+            for (Field field : c.getDeclaredFields()) {
+                final int modifiers = field.getModifiers();
+                if(Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers) || field.isSynthetic()) {
+                    continue;
+                }
+                declared.add(field);
+            }
+            declared.sort(Comparator.comparing(Field::getName));
+            fields.addAll(0, declared);
+        }
+        return fields;
+    }
+
+    private static Class<?> rawClassOf(Type type) {
+        if(type instanceof Class) {
+            return (Class<?>) type;
+        }
+        if(type instanceof ParameterizedType) {
+            return (Class<?>) ((ParameterizedType) type).getRawType();
+        }
+        if(type instanceof GenericArrayType) {
+            return Array.newInstance(rawClassOf(((GenericArrayType) type).getGenericComponentType()), 0).getClass();
+        }
+        return Object.class;
+    }
+
+    private static Class<?> boxed(Class<?> cls) {
+        if(!cls.isPrimitive()) {
+            return cls;
+        }
+        return Array.get(Array.newInstance(cls, 1), 0).getClass();
+    }
+
+    /**
+     * @return class named in the message, which must be either registered or allowed
+     * @throws IOException the class is not allowed
+     */
+    private Class<?> allowedClassOf(String name) throws IOException {
+        final Class<?> cls = allowed.get(name);
+        if(cls == null) {
+            throw new IOException(String.format("class %s is not allowed", name));
+        }
+        return cls;
+    }
+
+    /**
+     * load class declared as value of {@link Class} field (e.g. adapter of {@link RMIServiceInfo}), which is neither
+     * initialized nor instantiated here
+     */
+    private static Class<?> loadClass(String name) throws IOException {
+        try {
+            return Class.forName(name, false, Schema.class.getClassLoader());
+        } catch (ClassNotFoundException e) {
+            throw new IOException(String.format("unknown class %s", name));
+        }
+    }
+
+    private static MethodHandle findConstructor(Class<?> cls) {
+        try {
+            final Constructor<?> constructor = cls.getDeclaredConstructor();
+            constructor.setAccessible(true);
+            return LOOKUP.unreflectConstructor(constructor).asType(MethodType.methodType(Object.class));
+        } catch (NoSuchMethodException | IllegalAccessException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    private static int readSize(BinaryInput in, int bias) throws IOException {
+        final int size = in.readVarint() - bias;
+        // every element takes one byte at least
+        if(size > in.remaining()) {
+            throw new IOException(String.format("invalid size %d", size));
+        }
+        return size;
+    }
+
+    /**
+     * Codec writes & reads value of a type. value is nullable unless the type is primitive
+     */
+    abstract static class Codec {
+        abstract void write(BinaryOutput out, Object value) throws IOException;
+
+        abstract Object read(BinaryInput in) throws IOException;
+
+        /**
+         * write non-null value without null marker, used when the presence of value is already known to reader
+         */
+        void writeBody(BinaryOutput out, Object value) throws IOException {
+            write(out, value);
+        }
+
+        Object readBody(BinaryInput in) throws IOException {
+            return read(in);
+        }
+    }
+
+    private static class PrimitiveCodec extends Codec {
+        private static final int INT = 0;
+        private static final int LONG = 1;
+        private static final int DOUBLE = 2;
+        private static final int FLOAT = 3;
+        private static final int BOOLEAN = 4;
+        private static final int SHORT = 5;
+        private static final int BYTE = 6;
+        private static final int CHAR = 7;
+
+        private final int kind;
+
+        private PrimitiveCodec(Class<?> cls) {
+            if(cls == int.class || cls == Integer.class) {
+                kind = INT;
+            } else if(cls == long.class || cls == Long.class) {
+                kind = LONG;
+            } else if(cls == double.class || cls == Double.class) {
+                kind = DOUBLE;
+            } else if(cls == float.class || cls == Float.class) {
+                kind = FLOAT;
+            } else if(cls == boolean.class || cls == Boolean.class) {
+                kind = BOOLEAN;
+            } else if(cls == short.class || cls == Short.class) {
+                kind = SHORT;
+            } else if(cls == byte.class || cls == Byte.class) {
+                kind = BYTE;
+            } else if(cls == char.class || cls == Character.class) {
+                kind = CHAR;
+            } else {
+                throw new IllegalArgumentException(String.format("%s is not primitive", cls));
+            }
+        }
+
+        @Override
+        void write(BinaryOutput out, Object value) {
+            switch (kind) {
+                case INT:
+                    out.writeZigzag(((Number) value).intValue());
+                    break;
+                case LONG:
+                    out.writeZigzag(((Number) value).longValue());
+                    break;
+                case DOUBLE:
+                    out.writeDouble(((Number) value).doubleValue());
+                    break;
+                case FLOAT:
+                    out.writeFloat(((Number) value).floatValue());
+                    break;
+                case BOOLEAN:
+                    out.writeByte((Boolean) value ? 1 : 0);
+                    break;
+                case SHORT:
+                    out.writeZigzag(((Number) value).shortValue());
+                    break;
+                case BYTE:
+                    out.writeByte(((Number) value).byteValue());
+                    break;
+                default:
+                    out.writeVarint((Character) value);
+                    break;
+            }
+        }
+
+        @Override
+        Object read(BinaryInput in) throws IOException {
+            switch (kind) {
+                case INT:
+                    return in.readZigzagInt();
+                case LONG:
+                    return in.readZigzagLong();
+                case DOUBLE:
+                    return in.readDouble();
+                case FLOAT:
+                    return in.readFloat();
+                case BOOLEAN:
+                    return in.readByte() != 0;
+                case SHORT:
+                    return (short) in.readZigzagInt();
+                case BYTE:
+                    return (byte) in.readByte();
+                default:
+                    return (char) in.readVarint();
+            }
+        }
+
+        private static Object narrow(Number number, Class<?> cls) {
+            if(cls == Integer.class) {
+                return number.intValue();
+            } else if(cls == Long.class) {
+                return number.longValue();
+            } else if(cls == Double.class) {
+                return number.doubleValue();
+            } else if(cls == Float.class) {
+                return number.floatValue();
+            } else if(cls == Short.class) {
+                return number.shortValue();
+            } else if(cls == Byte.class) {
+                return number.byteValue();
+            }
+            return number;
+        }
+    }
+
+    private static class NullableCodec extends Codec {
+        private final Codec codec;
+
+        private NullableCodec(Codec codec) {
+            this.codec = codec;
+        }
+
+        @Override
+        void write(BinaryOutput out, Object value) throws IOException {
+            if(value == null) {
+                out.writeByte(0);
+                return;
+            }
+            out.writeByte(1);
+            codec.write(out, value);
+        }
+
+        @Override
+        Object read(BinaryInput in) throws IOException {
+            return in.readByte() == 0 ? null : codec.read(in);
+        }
+    }
+
+    private static class StringCodec extends Codec {
+        private static final StringCodec INSTANCE = new StringCodec();
+
+        @Override
+        void write(BinaryOutput out, Object value) {
+            if(value == null) {
+                out.writeVarint(0);
+                return;
+            }
+            out.writeString((String) value, 1);
+        }
+
+        @Override
+        Object read(BinaryInput in) throws IOException {
+            return in.readString(1);
+        }
+    }
+
+    private static class BytesCodec extends Codec {
+        private static final BytesCodec INSTANCE = new BytesCodec();
+
+        @Override
+        void write(BinaryOutput out, Object value) {
+            if(value == null) {
+                out.writeVarint(0);
+                return;
+            }
+            out.writeVarint(((byte[]) value).length + 1);
+            out.writeBytes((byte[]) value);
+        }
+
+        @Override
+        Object read(BinaryInput in) throws IOException {
+            final int length = in.readVarint() - 1;
+            return length < 0 ? null : in.readBytes(length);
+        }
+    }
+
+    private static class ClassCodec extends Codec {
+        private static final ClassCodec INSTANCE = new ClassCodec();
+
+        @Override
+        void write(BinaryOutput out, Object value) {
+            if(value == null) {
+                out.writeVarint(0);
+                return;
+            }
+            out.writeString(((Class<?>) value).getName(), 1);
+        }
+
+        @Override
+        Object read(BinaryInput in) throws IOException {
+            final String name = in.readString(1);
+            return name == null ? null : loadClass(name);
+        }
+    }
+
+    private static class EnumCodec extends Codec {
+        private final Object[] constants;
+
+        private EnumCodec(Class<?> cls) {
+            constants = cls.getEnumConstants();
+        }
+
+        @Override
+        void write(BinaryOutput out, Object value) {
+            out.writeVarint(value == null ? 0 : ((Enum<?>) value).ordinal() + 1);
+        }
+
+        @Override
+        Object read(BinaryInput in) throws IOException {
+            final int ordinal = in.readVarint() - 1;
+            if(ordinal < 0) {
+                return null;
+            }
+            if(ordinal >= constants.length) {
+                throw new IOException(String.format("invalid ordinal %d", ordinal));
+            }
+            return constants[ordinal];
+        }
+    }
+
+    private static class ArrayCodec extends Codec {
+        private final Class<?> componentType;
+        private final Codec codec;
+
+        private ArrayCodec(Class<?> componentType, Codec codec) {
+            this.componentType = componentType;
+            this.codec = codec;
+        }
+
+        @Override
+        void write(BinaryOutput out, Object value) throws IOException {
+            if(value == null) {
+                out.writeVarint(0);
+                return;
+            }
+            final int length = Array.getLength(value);
+            out.writeVarint(length + 1);
+            if(value instanceof Object[]) {
+                for (Object element : (Object[]) value) {
+                    codec.write(out, element);
+                }
+                return;
+            }
+            for (int i = 0; i < length; i++) {
+                codec.write(out, Array.get(value, i));
+            }
+        }
+
+        @Override
+        Object read(BinaryInput in) throws IOException {
+            final int length = readSize(in, 1);
+            if(length < 0) {
+                return null;
+            }
+            final Object array = Array.newInstance(componentType, length);
+            if(array instanceof Object[]) {
+                final Object[] objects = (Object[]) array;
+                for (int i = 0; i < length; i++) {
+                    objects[i] = codec.read(in);
+                }
+                return array;
+            }
+            for (int i = 0; i < length; i++) {
+                Array.set(array, i, codec.read(in));
+            }
+            return array;
+        }
+    }
+
+    private static class CollectionCodec extends Codec {
+        private final Class<?> cls;
+        private final Codec codec;
+        // constructor of concrete collection class, null if declared type is interface
+        private final MethodHandle factory;
+
+        private CollectionCodec(Class<?> cls, Codec codec) {
+            this.cls = cls;
+            this.codec = codec;
+            factory = cls.isInterface() || Modifier.isAbstract(cls.getModifiers()) ? null : findConstructor(cls);
+        }
+
+        @Override
+        void write(BinaryOutput out, Object value) throws IOException {
+            if(value == null) {
+                out.writeVarint(0);
+                return;
+            }
+            final Collection<?> collection = (Collection<?>) value;
+            out.writeVarint(collection.size() + 1);
+            for (Object element : collection) {
+                codec.write(out, element);
+            }
+        }
+
+        @Override
+        Object read(BinaryInput in) throws IOException {
+            final int size = readSize(in, 1);
+            if(size < 0) {
+                return null;
+            }
+            final Collection<Object> collection;
+            try {
+                collection = newCollection(size);
+            } catch (InstantiationException e) {
+                throw new IOException(e.getMessage());
+            }
+            for (int i = 0; i < size; i++) {
+                collection.add(codec.read(in));
+            }
+            return collection;
+        }
+
+        @SuppressWarnings("unchecked")
+        private Collection<Object> newCollection(int size) throws InstantiationException {
+            if(factory != null) {
+                try {
+                    return (Collection<Object>) factory.invoke();
+                } catch (Throwable throwable) {
+                    throw new InstantiationException(throwable.getMessage());
+                }
+            }
+            if(SortedSet.class.isAssignableFrom(cls)) {
+                return new TreeSet<>();
+            }
+            if(Set.class.isAssignableFrom(cls)) {
+                return new LinkedHashSet<>(Math.max(16, size * 2));
+            }
+            if(Queue.class.isAssignableFrom(cls)) {
+                return new LinkedList<>();
+            }
+            return new ArrayList<>(size);
+        }
+    }
+
+    private static class MapCodec extends Codec {
+        private final Class<?> cls;
+        private final Codec keyCodec;
+        private final Codec valueCodec;
+        private final MethodHandle factory;
+
+        private MapCodec(Class<?> cls, Codec keyCodec, Codec valueCodec) {
+            this.cls = cls;
+            this.keyCodec = keyCodec;
+            this.valueCodec = valueCodec;
+            factory = cls.isInterface() || Modifier.isAbstract(cls.getModifiers()) ? null : findConstructor(cls);
+        }
+
+        @Override
+        void write(BinaryOutput out, Object value) throws IOException {
+            if(value == null) {
+                out.writeVarint(0);
+                return;
+            }
+            final Map<?, ?> map = (Map<?, ?>) value;
+            out.writeVarint(map.size() + 1);
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                keyCodec.write(out, entry.getKey());
+                valueCodec.write(out, entry.getValue());
+            }
+        }
+
+        @Override
+        Object read(BinaryInput in) throws IOException {
+            final int size = readSize(in, 1);
+            if(size < 0) {
+                return null;
+            }
+            final Map<Object, Object> map;
+            try {
+                map = newMap();
+            } catch (InstantiationException e) {
+                throw new IOException(e.getMessage());
+            }
+            for (int i = 0; i < size; i++) {
+                final Object key = keyCodec.read(in);
+                map.put(key, valueCodec.read(in));
+            }
+            return map;
+        }
+
+        @SuppressWarnings("unchecked")
+        private Map<Object, Object> newMap() throws InstantiationException {
+            if(factory != null) {
+                try {
+                    return (Map<Object, Object>) factory.invoke();
+                } catch (Throwable throwable) {
+                    throw new InstantiationException(throwable.getMessage());
+                }
+            }
+            if(SortedMap.class.isAssignableFrom(cls)) {
+                return new TreeMap<>();
+            }
+            return new LinkedHashMap<>();
+        }
+    }
+
+    /**
+     * writes fields of object in the order of layout
+     */
+    private class StructCodec extends Codec {
+        private final Class<?> cls;
+        private final MethodHandle constructor;
+        private volatile FieldCodec[] fields;
+
+        private StructCodec(Class<?> cls) {
+            this.cls = cls;
+            constructor = findConstructor(cls);
+        }
+
+        @Override
+        void write(BinaryOutput out, Object value) throws IOException {
+            if(value == null) {
+                out.writeByte(0);
+                return;
+            }
+            out.writeByte(1);
+            writeBody(out, value);
+        }
+
+        @Override
+        Object read(BinaryInput in) throws IOException {
+            return in.readByte() == 0 ? null : readBody(in);
+        }
+
+        @Override
+        void writeBody(BinaryOutput out, Object value) throws IOException {
+            for (FieldCodec field : fields()) {
+                final Object fieldValue;
+                try {
+                    fieldValue = field.getter.invoke(value);
+                } catch (Throwable throwable) {
+                    throw new IOException(String.format("fail to get %s.%s", cls.getSimpleName(), field.name), throwable);
+                }
+                field.codec.write(out, fieldValue);
+            }
+        }
+
+        @Override
+        Object readBody(BinaryInput in) throws IOException {
+            if(constructor == null) {
+                throw new IOException(String.format("no default constructor for %s", cls.getName()));
+            }
+            final Object object;
+            try {
+                object = constructor.invoke();
+            } catch (Throwable throwable) {
+                throw new IOException(String.format("fail to instantiate %s", cls.getName()), throwable);
+            }
+            for (FieldCodec field : fields()) {
+                final Object fieldValue = field.codec.read(in);
+                try {
+                    field.setter.invoke(object, fieldValue);
+                } catch (Throwable throwable) {
+                    Log.warn("fail to set {}.{} : {}", cls.getSimpleName(), field.name, throwable.getMessage());
+                }
+            }
+            return object;
+        }
+
+        private FieldCodec[] fields() {
+            FieldCodec[] fieldCodecs = fields;
+            if(fieldCodecs == null) {
+                // field codecs are compiled lazily to allow recursive types
+                fieldCodecs = fields = compileFields(cls);
+            }
+            return fieldCodecs;
+        }
+    }
+
+    private static class FieldCodec {
+        private final String name;
+        private final MethodHandle getter;
+        private final MethodHandle setter;
+        private final Codec codec;
+
+        private FieldCodec(String name, MethodHandle getter, MethodHandle setter, Codec codec) {
+            this.name = name;
+            this.getter = getter;
+            this.setter = setter;
+            this.codec = codec;
+        }
+    }
+
+    private FieldCodec[] compileFields(Class<?> cls) {
+        final List<FieldCodec> fieldCodecs = new ArrayList<>();
+        for (Field field : layoutOf(cls)) {
+            MethodHandle getter;
+            MethodHandle setter;
+            try {
+                field.setAccessible(true);
+                getter = LOOKUP.unreflectGetter(field);
+                if(Modifier.isFinal(field.getModifiers())) {
+                    setter = LOOKUP.findVirtual(Field.class, "set", MethodType.methodType(void.class, Object.class, Object.class))
+                            .bindTo(field);
+                } else {
+                    setter = LOOKUP.unreflectSetter(field);
+                }
+            } catch (IllegalAccessException | NoSuchMethodException | RuntimeException e) {
+                // the layout is kept even if the field is not accessible, value of the field is considered as null
+                Log.warn("field {}.{} is not accessible : {}", cls.getSimpleName(), field.getName(), e.getMessage());
+                getter = MethodHandles.dropArguments(MethodHandles.constant(Object.class, null), 0, Object.class);
+                setter = MethodHandles.dropArguments(MethodHandles.constant(Object.class, null), 0, Object.class, Object.class);
+            }
+            fieldCodecs.add(new FieldCodec(field.getName(),
+                    getter.asType(MethodType.methodType(Object.class, Object.class)),
+                    setter.asType(MethodType.methodType(void.class, Object.class, Object.class)),
+                    codecOf(field.getGenericType())));
+        }
+        return fieldCodecs.toArray(new FieldCodec[0]);
+    }
+
+    /**
+     * writes value with a tag which tells its type
+     */
+    private class DynamicCodec extends Codec {
+
+        @Override
+        void write(BinaryOutput out, Object value) throws IOException {
+            if(value == null) {
+                out.writeByte(TAG_NULL);
+                return;
+            }
+            final Class<?> cls = value.getClass();
+            if(cls == String.class) {
+                out.writeByte(TAG_STRING);
+                out.writeString((String) value, 0);
+            } else if(cls == Integer.class) {
+                out.writeByte(TAG_INT);
+                out.writeZigzag((Integer) value);
+            } else if(cls == Long.class) {
+                out.writeByte(TAG_LONG);
+                out.writeZigzag((Long) value);
+            } else if(cls == Boolean.class) {
+                out.writeByte((Boolean) value ? TAG_TRUE : TAG_FALSE);
+            } else if(cls == Double.class) {
+                out.writeByte(TAG_DOUBLE);
+                out.writeDouble((Double) value);
+            } else if(cls == Float.class) {
+                out.writeByte(TAG_FLOAT);
+                out.writeFloat((Float) value);
+            } else if(cls == Short.class) {
+                out.writeByte(TAG_SHORT);
+                out.writeZigzag((Short) value);
+            } else if(cls == Byte.class) {
+                out.writeByte(TAG_BYTE);
+                out.writeByte((Byte) value);
+            } else if(cls == Character.class) {
+                out.writeByte(TAG_CHAR);
+                out.writeVarint((Character) value);
+            } else if(cls == byte[].class) {
+                out.writeByte(TAG_BYTES);
+                out.writeVarint(((byte[]) value).length);
+                out.writeBytes((byte[]) value);
+            } else if(cls == Class.class) {
+                out.writeByte(TAG_CLASS);
+                out.writeString(((Class<?>) value).getName(), 0);
+            } else if(cls == Object[].class) {
+                out.writeByte(TAG_ARRAY);
+                writeElements(out, Arrays.asList((Object[]) value));
+            } else if(value instanceof Set) {
+                out.writeByte(TAG_SET);
+                writeElements(out, (Collection<?>) value);
+            } else if(value instanceof Collection) {
+                out.writeByte(TAG_LIST);
+                writeElements(out, (Collection<?>) value);
+            } else if(value instanceof Map) {
+                out.writeByte(TAG_MAP);
+                out.writeVarint(((Map<?, ?>) value).size());
+                for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                    write(out, entry.getKey());
+                    write(out, entry.getValue());
+                }
+            } else {
+                writeObject(out, value instanceof Enum ? ((Enum<?>) value).getDeclaringClass() : cls, value);
+            }
+        }
+
+        private void writeElements(BinaryOutput out, Collection<?> elements) throws IOException {
+            out.writeVarint(elements.size());
+            for (Object element : elements) {
+                write(out, element);
+            }
+        }
+
+        private void writeObject(BinaryOutput out, Class<?> cls, Object value) throws IOException {
+            final Integer id = classIds.get(cls);
+            if(id != null) {
+                out.writeByte(TAG_STRUCT);
+                out.writeVarint(id);
+            } else {
+                final Integer ref = out.refOf(cls);
+                if(ref == null) {
+                    out.writeByte(TAG_NAMED);
+                    out.writeString(cls.getName(), 0);
+                } else {
+                    out.writeByte(TAG_NAMED_REF);
+                    out.writeVarint(ref);
+                }
+            }
+            codecOf(cls).writeBody(out, value);
+        }
+
+        @Override
+        Object read(BinaryInput in) throws IOException {
+            final int tag = in.readByte();
+            switch (tag) {
+                case TAG_NULL:
+                    return null;
+                case TAG_FALSE:
+                    return false;
+                case TAG_TRUE:
+                    return true;
+                case TAG_INT:
+                    return in.readZigzagInt();
+                case TAG_LONG:
+                    return in.readZigzagLong();
+                case TAG_DOUBLE:
+                    return in.readDouble();
+                case TAG_FLOAT:
+                    return in.readFloat();
+                case TAG_SHORT:
+                    return (short) in.readZigzagInt();
+                case TAG_BYTE:
+                    return (byte) in.readByte();
+                case TAG_CHAR:
+                    return (char) in.readVarint();
+                case TAG_STRING:
+                    return in.readString(0);
+                case TAG_BYTES:
+                    return in.readBytes(in.readVarint());
+                case TAG_CLASS:
+                    return allowedClassOf(in.readString(0));
+                case TAG_ARRAY:
+                    return readElements(in, new ArrayList<>()).toArray();
+                case TAG_SET:
+                    return readElements(in, new LinkedHashSet<>());
+                case TAG_LIST:
+                    return readElements(in, new ArrayList<>());
+                case TAG_MAP:
+                    final int size = readSize(in, 0);
+                    final Map<Object, Object> map = new LinkedHashMap<>();
+                    for (int i = 0; i < size; i++) {
+                        final Object key = read(in);
+                        map.put(key, read(in));
+                    }
+                    return map;
+                case TAG_STRUCT:
+                    return codecOf(registeredClassOf(in.readVarint())).readBody(in);
+                case TAG_NAMED:
+                    final Class<?> cls = allowedClassOf(in.readString(0));
+                    in.addRef(cls);
+                    return codecOf(cls).readBody(in);
+                case TAG_NAMED_REF:
+                    return codecOf(in.getRef(in.readVarint())).readBody(in);
+                default:
+                    throw new IOException(String.format("unknown tag %d", tag));
+            }
+        }
+
+        private <C extends Collection<Object>> C readElements(BinaryInput in, C elements) throws IOException {
+            final int size = readSize(in, 0);
+            for (int i = 0; i < size; i++) {
+                elements.add(read(in));
+            }
+            return elements;
+        }
+
+        private Class<?> registeredClassOf(int id) throws IOException {
+            final Class<?>[] registered = classes;
+            if((id < 0) || (id >= registered.length)) {
+                throw new IOException(String.format("unknown class id %d", id));
+            }
+            return registered[id];
+        }
+    }
+}
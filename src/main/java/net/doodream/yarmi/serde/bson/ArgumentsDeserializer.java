@@ -0,0 +1,51 @@
+package net.doodream.yarmi.serde.bson;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.deser.std.StdDeserializer;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * ArgumentsDeserializer decodes arguments of request directly into parameter types of the target endpoint,
+ * which are given as {@link #PARAMETER_TYPES} attribute of the reader. arguments beyond known types
+ * (or all the arguments if no type is given) are decoded generically.
+ */
+class ArgumentsDeserializer extends StdDeserializer<Object[]> {
+
+    static final String PARAMETER_TYPES = "yarmi.parameterTypes";
+    private static final Object[] EMPTY_ARGS = new Object[0];
+
+    ArgumentsDeserializer() {
+        super(Object[].class);
+    }
+
+    @Override
+    public Object[] deserialize(JsonParser p, DeserializationContext ctxt) throws IOException {
+        if(!p.isExpectedStartArrayToken()) {
+            return (Object[]) ctxt.handleUnexpectedToken(Object[].class, p);
+        }
+        final JavaType[] types = (JavaType[]) ctxt.getAttribute(PARAMETER_TYPES);
+        Object[] args = types == null ? EMPTY_ARGS : new Object[types.length];
+        int count = 0;
+        JsonToken token;
+        while ((token = p.nextToken()) != JsonToken.END_ARRAY) {
+            if(count == args.length) {
+                args = Arrays.copyOf(args, Math.max(4, count * 2));
+            }
+            final Object arg;
+            if(token == JsonToken.VALUE_NULL) {
+                arg = null;
+            } else if((types != null) && (count < types.length)) {
+                arg = ctxt.readValue(p, types[count]);
+            } else {
+                arg = ctxt.readValue(p, Object.class);
+            }
+            args[count++] = arg;
+        }
+        return count == args.length ? args : Arrays.copyOf(args, count);
+    }
+}
@@ -1,17 +1,24 @@
 package net.doodream.yarmi.serde.bson;
 
-import com.doodream.cutils.Types;
 import com.fasterxml.jackson.annotation.JsonAutoDetect;
 import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.PropertyAccessor;
 import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JavaType;
 import com.fasterxml.jackson.databind.MapperFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.type.TypeFactory;
 import de.undercouch.bson4jackson.BsonFactory;
 import de.undercouch.bson4jackson.BsonGenerator;
 import de.undercouch.bson4jackson.BsonParser;
+import net.doodream.yarmi.data.Request;
+import net.doodream.yarmi.serde.BufferPool;
 import net.doodream.yarmi.serde.Converter;
+import net.doodream.yarmi.serde.DeadlineWatchdog;
+import net.doodream.yarmi.serde.PooledOutputStream;
 import net.doodream.yarmi.serde.Reader;
 import net.doodream.yarmi.serde.Writer;
 import org.slf4j.Logger;
@@ -21,16 +28,22 @@ import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.lang.reflect.*;
-import java.util.*;
-import java.util.concurrent.*;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Type;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 public class BsonConverter implements Converter {
     private static final Logger Log = LoggerFactory.getLogger(BsonConverter.class);
 
     private ObjectMapper objectMapper;
     private BsonFactory bsonFactory;
-    private final ExecutorService executorService = Executors.newWorkStealingPool();
+    private final TypeResolver typeResolver = new TypeResolver();
+    private final ConcurrentHashMap<Type, ObjectReader> typedReaders = new ConcurrentHashMap<>();
+    // keyed by identity of parameter type array of each endpoint
+    private final ConcurrentHashMap<Type[], ObjectReader> requestReaders = new ConcurrentHashMap<>();
 
     public BsonConverter() {
 
@@ -41,18 +54,9 @@ public class BsonConverter implements Converter {
                 .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET)
                 .enable(JsonGenerator.Feature.AUTO_CLOSE_JSON_CONTENT))
                 .setSerializationInclusion(JsonInclude.Include.NON_NULL)
-                .disable(MapperFeature.AUTO_DETECT_IS_GETTERS, MapperFeature.AUTO_DETECT_GETTERS)
-                .setVisibility(PropertyAccessor.FIELD, JsonAutoDetect.Visibility.ANY);
-    }
-
-
-    @Override
-    protected void finalize() throws Throwable {
-        super.finalize();
-        if(executorService.isShutdown() || executorService.isTerminated()) {
-            return;
-        }
-        executorService.shutdown();
+                .disable(MapperFeature.AUTO_DETECT_IS_GETTERS, MapperFeature.AUTO_DETECT_GETTERS, MapperFeature.AUTO_DETECT_SETTERS)
+                .setVisibility(PropertyAccessor.FIELD, JsonAutoDetect.Visibility.ANY)
+                .addMixIn(Request.class, RequestMixin.class);
     }
 
     @Override
@@ -61,6 +65,7 @@ public class BsonConverter implements Converter {
             return new Reader() {
 
                 private final BsonParser parser = bsonFactory.createParser(new BufferedInputStream(inputStream));
+                private final DeadlineWatchdog.Watch watch = DeadlineWatchdog.watch(inputStream);
 
                 @Override
                 public synchronized <T> T read(Class<T> cls) throws IOException {
@@ -69,16 +74,16 @@ public class BsonConverter implements Converter {
 
                 @Override
                 public synchronized <T> T read(Class<T> cls, long timeout, TimeUnit timeUnit) throws IOException, TimeoutException {
-                    Future<T> result = executorService.submit(() -> {
-                        return parser.readValueAs(cls);
-                    });
+                    watch.start(timeout, timeUnit);
+                    final T value;
                     try {
-                        return result.get(timeout, timeUnit);
-                    } catch (InterruptedException e) {
-                        throw new TimeoutException(e.getMessage());
-                    } catch (ExecutionException e) {
-                        throw new IOException(e);
+                        value = parser.readValueAs(cls);
+                    } catch (IOException e) {
+                        watch.fail(e);
+                        throw e;
                     }
+                    watch.stop();
+                    return value;
                 }
             };
         } catch (IOException e) {
@@ -93,6 +98,7 @@ public class BsonConverter implements Converter {
             return new Writer() {
 
                 private final BsonGenerator bsonGenerator = bsonFactory.createGenerator(outputStream);
+                private final DeadlineWatchdog.Watch watch = DeadlineWatchdog.watch(outputStream);
 
                 @Override
                 public synchronized void write(Object src) throws IOException {
@@ -102,19 +108,18 @@ public class BsonConverter implements Converter {
                 // => max due time is managed by client policy, instead of I/O configuration
                 @Override
                 public synchronized void write(Object src, long timeout, TimeUnit unit) throws TimeoutException {
-                    final Future<Boolean> writeTask = executorService.submit(() -> {
+                    watch.start(timeout, unit);
+                    try {
+                        bsonGenerator.writeObject(src);
+                    } catch (IOException e) {
                         try {
-                            bsonGenerator.writeObject(src);
-                            return true;
-                        } catch (IOException e) {
-                            return false;
+                            watch.fail(e);
+                        } catch (IOException ignored) {
+                            // I/O error is considered as timeout to the caller
                         }
-                    });
-                    try {
-                        writeTask.get(timeout, unit);
-                    } catch (InterruptedException | ExecutionException e) {
                         throw new TimeoutException(e.getMessage());
                     }
+                    watch.stop();
                 }
             };
         } catch (IOException e) {
@@ -133,6 +138,18 @@ public class BsonConverter implements Converter {
         return new byte[0];
     }
 
+    @Override
+    public ByteBuffer convert(Object src, BufferPool pool, int headroom) {
+        final PooledOutputStream outputStream = new PooledOutputStream(pool, headroom, 256);
+        try {
+            objectMapper.writeValue(outputStream, src);
+        } catch (IOException e) {
+            outputStream.discard();
+            throw new UncheckedIOException(e);
+        }
+        return outputStream.toByteBuffer();
+    }
+
     @Override
     public <T> T invert(byte[] b, Class<T> cls) {
         try {
@@ -143,109 +160,75 @@ public class BsonConverter implements Converter {
         return null;
     }
 
+    @Override
+    public <T> T invert(byte[] b, Type type) {
+        return invert(b, 0, b.length, type);
+    }
 
     @Override
-    public Object resolve(final Object unresolved, Type type) throws InstantiationException, IllegalAccessException {
-        if(unresolved == null) {
-            return null;
-        }
-        if(type.equals(Class.class) && (unresolved instanceof String)) {
-            try {
-                return Class.forName((String) unresolved);
-            } catch (ClassNotFoundException e) {
-                e.printStackTrace();
-            }
-        }
-        Class clsz;
-        try {
-            if (type instanceof ParameterizedType) {
-                clsz = Class.forName(Types.getTypeName(((ParameterizedType) type).getRawType()));
-            } else {
-                clsz = Class.forName(Types.getTypeName(type));
-            }
-        } catch (ClassNotFoundException e) {
-            return unresolved;
-        }
-        final Class cls = clsz;
-        final Class unresolvedCls = unresolved.getClass();
-
-        if(cls.isInterface()) {
-            Type[] typeArguments = ((ParameterizedType) type).getActualTypeArguments();
-            if (typeArguments == null || (typeArguments.length == 0)) {
-                return unresolved;
-            }
-
-            if (cls.equals(List.class)) {
-                ArrayList unresolvedList = (ArrayList) unresolved;
-                final ArrayList<Object> resolvedList = new ArrayList<>();
-                for (Object o : unresolvedList) {
-                    resolvedList.add(resolve(o, typeArguments[0]));
-                }
-                return resolvedList;
-            } else if (cls.equals(Map.class)) {
-                HashMap<?, Object> unresolvedMap = (HashMap) unresolved;
-                for (Map.Entry<?, Object> entry : unresolvedMap.entrySet()) {
-                    entry.setValue(resolve(entry.getValue(), typeArguments[1]));
-                }
-                return unresolvedMap;
-            } else if (cls.equals(Set.class)) {
-                HashSet<Object> unresolvedSet = new HashSet<>((List<Object>)unresolved);
-                final Set<Object> resolvedSet = new HashSet<>();
-                for (Object o : unresolvedSet) {
-                    resolvedSet.add(resolve(o, typeArguments[0]));
-                }
-                return resolvedSet;
-            } else {
-                Log.warn("fail to handle {} {}", unresolved, cls);
-                return unresolved;
-            }
-        } else {
-            if(unresolvedCls.equals(LinkedHashMap.class)) {
-                return resolveKvMap((Map<?, ?>) unresolved, cls);
-            }
+    public <T> T invert(ByteBuffer b, Type type) {
+        if(!b.hasArray()) {
+            return Converter.super.invert(b, type);
         }
+        return invert(b.array(), b.arrayOffset() + b.position(), b.remaining(), type);
+    }
 
-        if(cls.equals(unresolvedCls) ||
-                Types.isCastable(unresolved, type) ||
-                Types.isCastable(unresolved, cls)) {
-            return cls.cast(unresolved);
+    private <T> T invert(byte[] b, int offset, int length, Type type) {
+        final ObjectReader reader = typedReaders.computeIfAbsent(type, t -> objectMapper.readerFor(objectMapper.getTypeFactory().constructType(t)));
+        try {
+            return reader.readValue(b, offset, length);
+        } catch (IOException e) {
+            Log.debug("fail to convert into {} : {}", type, e.getMessage());
         }
+        return null;
+    }
 
+    @Override
+    public Request invertRequest(byte[] b, Type[] parameterTypes) {
+        return invertRequest(b, 0, b.length, parameterTypes);
+    }
 
-
-        if(unresolvedCls.getSuperclass().equals(Number.class)) {
-            // TODO: 18. 12. 5 handle subclass type of Number
+    @Override
+    public Request invertRequest(ByteBuffer b, Type[] parameterTypes) {
+        if(!b.hasArray()) {
+            return Converter.super.invertRequest(b, parameterTypes);
         }
+        return invertRequest(b.array(), b.arrayOffset() + b.position(), b.remaining(), parameterTypes);
+    }
 
-        try {
-            Constructor<?> constructor = cls.getConstructor(unresolvedCls);
-            return constructor.newInstance(unresolved);
-        } catch (NoSuchMethodException | InvocationTargetException ignored) {
-
+    private Request invertRequest(byte[] b, int offset, int length, Type[] parameterTypes) {
+        if(parameterTypes == null) {
+            return invert(b, offset, length, Request.class);
         }
+        final ObjectReader reader = requestReaders.computeIfAbsent(parameterTypes, this::buildRequestReader);
         try {
-            Method valueOf = cls.getMethod("valueOf", String.class);
-            return valueOf.invoke(null, String.valueOf(unresolved));
-        } catch (NoSuchMethodException | InvocationTargetException ignored) {
-
+            return reader.readValue(b, offset, length);
+        } catch (IOException e) {
+            Log.debug("fail to convert request : {}", e.getMessage());
         }
-        return unresolved;
-
+        return null;
     }
 
-    private Object resolveKvMap(final Map<?, ?> map, Class cls) throws IllegalAccessException, InstantiationException {
-        final Object object = cls.newInstance();
-        final Field[] fields = cls.getDeclaredFields();
-        for (Field field : fields) {
-            if(map.containsKey(field.getName())) {
-                final Type fieldType = field.getGenericType();
-                Object resolvedField = resolve(map.get(field.getName()), fieldType);
-                field.setAccessible(true);
-                field.set(object, resolvedField);
-            }
+    private ObjectReader buildRequestReader(Type[] parameterTypes) {
+        final TypeFactory typeFactory = objectMapper.getTypeFactory();
+        final JavaType[] javaTypes = new JavaType[parameterTypes.length];
+        for (int i = 0; i < parameterTypes.length; i++) {
+            javaTypes[i] = typeFactory.constructType(parameterTypes[i]);
         }
+        return objectMapper.readerFor(Request.class)
+                .withAttribute(ArgumentsDeserializer.PARAMETER_TYPES, javaTypes);
+    }
 
-        return object;
+    @Override
+    public Object resolve(final Object unresolved, Type type) throws InstantiationException, IllegalAccessException {
+        return typeResolver.resolve(unresolved, type);
     }
 
+    /**
+     * decodes arguments of {@link Request} with {@link ArgumentsDeserializer}
+     */
+    private static abstract class RequestMixin {
+        @JsonDeserialize(using = ArgumentsDeserializer.class)
+        Object[] args;
+    }
 }
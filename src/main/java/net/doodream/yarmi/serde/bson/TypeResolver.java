@@ -0,0 +1,346 @@
+package net.doodream.yarmi.serde.bson;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * TypeResolver resolves generically decoded value (e.g. map of fields, list of maps) into given type.
+ * each target type is compiled once into a {@link Plan} and cached, so resolving value doesn't involve any
+ * reflective lookup once the plan is ready.
+ */
+class TypeResolver {
+
+    private static final Logger Log = LoggerFactory.getLogger(TypeResolver.class);
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+    interface Plan {
+        Object resolve(Object unresolved) throws InstantiationException, IllegalAccessException;
+    }
+
+    private static final Plan IDENTITY = unresolved -> unresolved;
+
+    private final ConcurrentHashMap<Type, Plan> plans = new ConcurrentHashMap<>();
+
+    Object resolve(Object unresolved, Type type) throws InstantiationException, IllegalAccessException {
+        if(unresolved == null) {
+            return null;
+        }
+        return planOf(type).resolve(unresolved);
+    }
+
+    Plan planOf(Type type) {
+        Plan plan = plans.get(type);
+        if(plan != null) {
+            return plan;
+        }
+        plan = compile(type);
+        final Plan prev = plans.putIfAbsent(type, plan);
+        return prev == null ? plan : prev;
+    }
+
+    private Plan compile(Type type) {
+        if(type == Class.class) {
+            return unresolved -> {
+                if(unresolved instanceof String) {
+                    try {
+                        return Class.forName((String) unresolved);
+                    } catch (ClassNotFoundException e) {
+                        Log.warn("fail to resolve class {}", unresolved);
+                    }
+                }
+                return unresolved;
+            };
+        }
+        final Type[] typeArguments;
+        final Class<?> cls;
+        if(type instanceof ParameterizedType) {
+            typeArguments = ((ParameterizedType) type).getActualTypeArguments();
+            cls = (Class<?>) ((ParameterizedType) type).getRawType();
+        } else if(type instanceof Class) {
+            typeArguments = new Type[0];
+            cls = (Class<?>) type;
+        } else {
+            // type variable or wildcard, nothing to resolve
+            return IDENTITY;
+        }
+
+        if(cls == Object.class) {
+            return IDENTITY;
+        }
+        if(cls.isPrimitive() || NumberPlan.isBoxed(cls)) {
+            return new NumberPlan(cls);
+        }
+        if(List.class.isAssignableFrom(cls) || Set.class.isAssignableFrom(cls)) {
+            if(typeArguments.length == 0) {
+                return IDENTITY;
+            }
+            return new CollectionPlan(planOf(typeArguments[0]), Set.class.isAssignableFrom(cls),
+                    cls.isInterface() ? null : findConstructor(cls));
+        }
+        if(Map.class.isAssignableFrom(cls)) {
+            if(typeArguments.length < 2) {
+                return IDENTITY;
+            }
+            return new MapPlan(planOf(typeArguments[1]));
+        }
+        if(cls.isInterface() || cls.isArray() || Modifier.isAbstract(cls.getModifiers())) {
+            Log.debug("no plan for {}", type);
+            return IDENTITY;
+        }
+        return new ObjectPlan(cls);
+    }
+
+    /**
+     * converts number into primitive or boxed numeric type. other numbers (e.g. BigDecimal, AtomicLong) are
+     * built by {@link ObjectPlan} from their constructor or valueOf
+     */
+    private static class NumberPlan implements Plan {
+        private final Class<?> cls;
+
+        private NumberPlan(Class<?> cls) {
+            this.cls = cls;
+        }
+
+        private static boolean isBoxed(Class<?> cls) {
+            return (cls == Integer.class) || (cls == Long.class) || (cls == Double.class) ||
+                    (cls == Float.class) || (cls == Short.class) || (cls == Byte.class);
+        }
+
+        @Override
+        public Object resolve(Object unresolved) {
+            if(!(unresolved instanceof Number)) {
+                return unresolved;
+            }
+            final Number number = (Number) unresolved;
+            if(cls == int.class || cls == Integer.class) {
+                return number.intValue();
+            } else if(cls == long.class || cls == Long.class) {
+                return number.longValue();
+            } else if(cls == double.class || cls == Double.class) {
+                return number.doubleValue();
+            } else if(cls == float.class || cls == Float.class) {
+                return number.floatValue();
+            } else if(cls == short.class || cls == Short.class) {
+                return number.shortValue();
+            } else if(cls == byte.class || cls == Byte.class) {
+                return number.byteValue();
+            }
+            return unresolved;
+        }
+    }
+
+    private static class CollectionPlan implements Plan {
+        private final Plan elementPlan;
+        private final boolean isSet;
+        // constructor of concrete collection class, null if declared type is interface
+        private final MethodHandle factory;
+
+        private CollectionPlan(Plan elementPlan, boolean isSet, MethodHandle factory) {
+            this.elementPlan = elementPlan;
+            this.isSet = isSet;
+            this.factory = factory;
+        }
+
+        @Override
+        public Object resolve(Object unresolved) throws InstantiationException, IllegalAccessException {
+            if(!(unresolved instanceof Collection)) {
+                return unresolved;
+            }
+            final Collection<?> collection = (Collection<?>) unresolved;
+            final Collection<Object> resolved = newCollection(collection.size());
+            for (Object o : collection) {
+                resolved.add(o == null ? null : elementPlan.resolve(o));
+            }
+            return resolved;
+        }
+
+        private Collection<Object> newCollection(int size) throws InstantiationException {
+            if(factory != null) {
+                try {
+                    return (Collection<Object>) factory.invoke();
+                } catch (Throwable throwable) {
+                    throw new InstantiationException(throwable.getMessage());
+                }
+            }
+            return isSet ? new HashSet<>() : new ArrayList<>(size);
+        }
+    }
+
+    private static class MapPlan implements Plan {
+        private final Plan valuePlan;
+
+        private MapPlan(Plan valuePlan) {
+            this.valuePlan = valuePlan;
+        }
+
+        @Override
+        public Object resolve(Object unresolved) throws InstantiationException, IllegalAccessException {
+            if(!(unresolved instanceof Map)) {
+                return unresolved;
+            }
+            for (Map.Entry<?, Object> entry : ((Map<?, Object>) unresolved).entrySet()) {
+                final Object value = entry.getValue();
+                if(value != null) {
+                    entry.setValue(valuePlan.resolve(value));
+                }
+            }
+            return unresolved;
+        }
+    }
+
+    /**
+     * builds object of the class from map of its fields. values of other types are converted with
+     * constructor taking the value (or its primitive), static valueOf(String) or constructor taking string
+     */
+    private class ObjectPlan implements Plan {
+        private final Class<?> cls;
+        private final MethodHandle constructor;
+        private final MethodHandle valueOf;
+        private final MethodHandle fromString;
+        private final ConcurrentHashMap<Class<?>, Optional<MethodHandle>> converters = new ConcurrentHashMap<>();
+        private volatile FieldSetter[] setters;
+
+        private ObjectPlan(Class<?> cls) {
+            this.cls = cls;
+            constructor = findConstructor(cls);
+            valueOf = findValueOf(cls);
+            fromString = findConverter(String.class).orElse(null);
+        }
+
+        @Override
+        public Object resolve(Object unresolved) throws InstantiationException, IllegalAccessException {
+            if(cls.isInstance(unresolved)) {
+                return unresolved;
+            }
+            if(unresolved instanceof Map) {
+                return resolveKvMap((Map<?, ?>) unresolved);
+            }
+            final MethodHandle converter = converters.computeIfAbsent(unresolved.getClass(), this::findConverter).orElse(null);
+            try {
+                if(converter != null) {
+                    return converter.invoke(unresolved);
+                }
+                if(valueOf != null) {
+                    return valueOf.invoke(String.valueOf(unresolved));
+                }
+                if(fromString != null) {
+                    return fromString.invoke(String.valueOf(unresolved));
+                }
+            } catch (Throwable throwable) {
+                Log.debug("fail to convert {} into {} : {}", unresolved, cls, throwable.getMessage());
+            }
+            return unresolved;
+        }
+
+        private Object resolveKvMap(Map<?, ?> map) throws InstantiationException, IllegalAccessException {
+            if(constructor == null) {
+                throw new InstantiationException(String.format("no default constructor for %s", cls.getName()));
+            }
+            final Object object;
+            try {
+                object = constructor.invoke();
+            } catch (Throwable throwable) {
+                throw new InstantiationException(throwable.getMessage());
+            }
+            FieldSetter[] fieldSetters = setters;
+            if(fieldSetters == null) {
+                // field plans are compiled lazily to allow recursive types
+                fieldSetters = setters = compileSetters(cls);
+            }
+            for (FieldSetter setter : fieldSetters) {
+                final Object value = map.get(setter.name);
+                if((value == null) && !map.containsKey(setter.name)) {
+                    continue;
+                }
+                try {
+                    setter.setter.invoke(object, value == null ? null : setter.plan.resolve(value));
+                } catch (InstantiationException | IllegalAccessException e) {
+                    throw e;
+                } catch (Throwable throwable) {
+                    Log.warn("fail to set {}.{} : {}", cls.getSimpleName(), setter.name, throwable.getMessage());
+                }
+            }
+            return object;
+        }
+
+        private Optional<MethodHandle> findConverter(Class<?> valueCls) {
+            // boxed value is also taken by constructor of its primitive (e.g. AtomicLong(long), BigDecimal(double))
+            final Class<?> primitive = MethodType.methodType(valueCls).unwrap().returnType();
+            for (Class<?> parameterType : new Class<?>[] {valueCls, primitive}) {
+                try {
+                    return Optional.of(LOOKUP.unreflectConstructor(cls.getConstructor(parameterType))
+                            .asType(MethodType.methodType(Object.class, Object.class)));
+                } catch (NoSuchMethodException | IllegalAccessException ignored) {
+                }
+            }
+            return Optional.empty();
+        }
+    }
+
+    private static class FieldSetter {
+        private final String name;
+        private final MethodHandle setter;
+        private final Plan plan;
+
+        private FieldSetter(String name, MethodHandle setter, Plan plan) {
+            this.name = name;
+            this.setter = setter;
+            this.plan = plan;
+        }
+    }
+
+    private FieldSetter[] compileSetters(Class<?> cls) {
+        final List<FieldSetter> setters = new ArrayList<>();
+        for (Class<?> c = cls; (c != null) && (c != Object.class); c = c.getSuperclass()) {
+            for (Field field : c.getDeclaredFields()) {
+                if(Modifier.isStatic(field.getModifiers())) {
+                    continue;
+                }
+                try {
+                    field.setAccessible(true);
+                    MethodHandle setter;
+                    if(Modifier.isFinal(field.getModifiers())) {
+                        setter = LOOKUP.findVirtual(Field.class, "set", MethodType.methodType(void.class, Object.class, Object.class))
+                                .bindTo(field);
+                    } else {
+                        setter = LOOKUP.unreflectSetter(field);
+                    }
+                    setter = setter.asType(MethodType.methodType(void.class, Object.class, Object.class));
+                    setters.add(new FieldSetter(field.getName(), setter, planOf(field.getGenericType())));
+                } catch (IllegalAccessException | NoSuchMethodException | RuntimeException e) {
+                    Log.warn("field {}.{} is not accessible : {}", cls.getSimpleName(), field.getName(), e.getMessage());
+                }
+            }
+        }
+        return setters.toArray(new FieldSetter[0]);
+    }
+
+    private static MethodHandle findConstructor(Class<?> cls) {
+        try {
+            final Constructor<?> constructor = cls.getDeclaredConstructor();
+            constructor.setAccessible(true);
+            return LOOKUP.unreflectConstructor(constructor).asType(MethodType.methodType(Object.class));
+        } catch (NoSuchMethodException | IllegalAccessException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    private static MethodHandle findValueOf(Class<?> cls) {
+        try {
+            final Method valueOf = cls.getMethod("valueOf", String.class);
+            if(!Modifier.isStatic(valueOf.getModifiers())) {
+                return null;
+            }
+            return LOOKUP.unreflect(valueOf).asType(MethodType.methodType(Object.class, String.class));
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            return null;
+        }
+    }
+}
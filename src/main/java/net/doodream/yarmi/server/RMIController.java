@@ -14,6 +14,8 @@ import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.lang.reflect.Type;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 
 public class RMIController {
 
@@ -161,6 +163,13 @@ public class RMIController {
         return new ArrayList<>(endpointMap.keySet());
     }
 
+    /**
+     * @return {@link Collection} of endpoints within controller
+     */
+    Collection<Endpoint> getEndpointList() {
+        return endpointMap.values();
+    }
+
     /**
      * handle client request and return response
      * @param request valid {@link Request} from client
@@ -176,26 +185,54 @@ public class RMIController {
             return Response.from(RMIError.NOT_FOUND);
         }
 
-        final Type[] types = endpoint.getJMethod().getGenericParameterTypes();
-        final List<Param> unresolvedParams = request.getParams();
-        final List<Object> resolvedParams = new ArrayList<>();
-        unresolvedParams.sort((o1, o2) -> Param.sort(o1, o2));
+        final Object[] args = request.getArgs();
+        final Type[] types = endpoint.getParameterTypes();
+        final Class<?>[] classes = endpoint.getParameterClasses();
+        if(args.length != types.length) {
+            return Response.from(RMIError.BAD_REQUEST);
+        }
 
-        for (int i = 0; i < unresolvedParams.size(); i++) {
-            final Param param = unresolvedParams.get(i);
-            Object resolved;
-            try {
-                resolved = param.resolve(converter, types[i]);
-            } catch (InstantiationException | ClassNotFoundException e) {
+        for (int i = 0; i < args.length; i++) {
+            if(classes[i] == BlobSession.class) {
+                args[i] = request.getSession();
+                continue;
+            }
+            final Object arg = args[i];
+            if((arg == null) || classes[i].isInstance(arg)) {
                 continue;
             }
-            if(resolved instanceof BlobSession) {
-                resolved = request.getSession();
+            // argument is not decoded into parameter type (e.g. endpoint is unknown to adapter), resolve it generically
+            try {
+                args[i] = converter.resolve(arg, types[i]);
+            } catch (InstantiationException | ClassNotFoundException e) {
+                Log.warn("fail to resolve argument {} of {} : {}", i, endpoint.getJMethod().getName(), e.getMessage());
+                return Response.from(RMIError.BAD_REQUEST);
             }
-            resolvedParams.add(resolved);
         }
 
         Log.trace("invoke request handler {} for ({})", endpoint.getJMethod().getName(), request.getNonce());
-        return (Response) endpoint.getJMethod().invoke(impl, resolvedParams.toArray(new Object[0]));
+        final Object result = endpoint.getJMethod().invoke(impl, args);
+        if(endpoint.isAsync()) {
+            return awaitResponse((CompletableFuture<?>) result);
+        }
+        return (Response) result;
+    }
+
+    /**
+     * wait for the response from the controller returning {@link CompletableFuture}
+     */
+    private static Response awaitResponse(CompletableFuture<?> future) throws InvocationTargetException {
+        if(future == null) {
+            return null;
+        }
+        try {
+            return (Response) future.get();
+        } catch (ExecutionException e) {
+            throw new InvocationTargetException(e.getCause());
+        } catch (InterruptedException e) {
+            // call is cancelled by the client
+            future.cancel(true);
+            throw new InvocationTargetException(e);
+        }
     }
 }
@@ -3,8 +3,10 @@ package net.doodream.yarmi.server;
 
 import net.doodream.yarmi.Properties;
 import net.doodream.yarmi.annotation.AdapterParam;
+import net.doodream.yarmi.annotation.Interruptible;
 import net.doodream.yarmi.annotation.server.Service;
 import net.doodream.yarmi.data.*;
+import net.doodream.yarmi.net.RequestHandler;
 import net.doodream.yarmi.net.ServiceAdapter;
 import net.doodream.yarmi.net.session.BlobSession;
 import net.doodream.yarmi.serde.Converter;
@@ -14,11 +16,14 @@ import org.slf4j.LoggerFactory;
 import java.io.IOException;
 import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Type;
 import java.net.InetAddress;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * Created by innocentevil on 18. 5. 4.
@@ -32,9 +37,12 @@ public class RMIService {
     private static final Logger Log = LoggerFactory.getLogger(RMIService.class);
 
     private HashMap<String, RMIController> controllerMap;
+    private HashMap<Integer, Type[]> parameterTypeMap;
+    private HashSet<Integer> interruptibleEndpoints;
     private RMIServiceInfo serviceInfo;
     private ServiceAdapter adapter;
     private Converter converter;
+    private final LongAdder expiredCalls = new LongAdder();
 
     private RMIService() { }
 
@@ -62,6 +70,16 @@ public class RMIService {
             return this;
         }
 
+        public Builder interruptibleEndpoints(HashSet<Integer> interruptibleEndpoints) {
+            service.interruptibleEndpoints = interruptibleEndpoints;
+            return this;
+        }
+
+        public Builder parameterTypeMap(HashMap<Integer, Type[]> parameterTypeMap) {
+            service.parameterTypeMap = parameterTypeMap;
+            return this;
+        }
+
         public RMIService build() {
             // TODO: 19. 6. 6 check minimal service requirement fulfillment
             return service;
@@ -96,6 +114,8 @@ public class RMIService {
 
             final List<ControllerInfo> controllerInfos = new ArrayList<>();
             final HashMap<String, RMIController> controllerMap = new HashMap<>();
+            final HashMap<Integer, Type[]> parameterTypeMap = new HashMap<>();
+            final HashSet<Integer> interruptibleEndpoints = new HashSet<>();
 
             for (Field field : cls.getDeclaredFields()) {
                 if(RMIController.isValidController(field)) {
@@ -103,6 +123,8 @@ public class RMIService {
                     ControllerInfo controllerInfo = ControllerInfo.build(controller);
                     controllerInfos.add(controllerInfo);
                     buildControllerMap(controllerMap, controller);
+                    buildParameterTypeMap(parameterTypeMap, controller);
+                    collectInterruptibleEndpoints(interruptibleEndpoints, controller);
                 }
             }
 
@@ -120,6 +142,8 @@ public class RMIService {
             return RMIService.builder()
                     .adapter(adapter)
                     .controllerMap(controllerMap)
+                    .parameterTypeMap(parameterTypeMap)
+                    .interruptibleEndpoints(interruptibleEndpoints)
                     .converter(converter)
                     .serviceInfo(serviceInfo)
                     .build();
@@ -157,6 +181,34 @@ public class RMIService {
         }
     }
 
+    /**
+     * collect id of endpoints whose method is annotated with {@link Interruptible}
+     * @param set set used to collect endpoint ids
+     * @param controller controller whose endpoints are collected
+     */
+    private static void collectInterruptibleEndpoints(final HashSet<Integer> set, final RMIController controller) {
+        for (Endpoint endpoint : controller.getEndpointList()) {
+            if(endpoint.getJMethod().isAnnotationPresent(Interruptible.class)) {
+                set.add(endpoint.getId());
+            }
+        }
+    }
+
+    /**
+     * add parameter types of endpoints into map which provides lookup from endpoint id carried in the frame
+     * @param map map used to collect parameter types
+     * @param controller controller whose endpoints are collected
+     * @throws IllegalArgumentException endpoints share the same id
+     */
+    private static void buildParameterTypeMap(final HashMap<Integer, Type[]> map, final RMIController controller) {
+        for (Endpoint endpoint : controller.getEndpointList()) {
+            // id is hash of the endpoint, so arguments would be decoded into wrong types if it's shared
+            if(map.putIfAbsent(endpoint.getId(), endpoint.getParameterTypes()) != null) {
+                throw new IllegalArgumentException(String.format("endpoint id collision (%x) @ %s", endpoint.getId(), endpoint.getJMethod()));
+            }
+        }
+    }
+
     /**
      * start listening for client connection over default network interface, while advertising service
      * @throws IOException server 측 네트워크 endpoint 생성의 실패 혹은 I/O 오류
@@ -178,11 +230,24 @@ public class RMIService {
      * @throws InstantiationException if dependent class represents an abstract class,an interface, an array class, a primitive type, or void;or if the class has no nullary constructor;
      */
     public void listen(InetAddress network) throws IllegalAccessException, IOException, InstantiationException {
-        serviceInfo.setProxyFactoryHint(adapter.listen(serviceInfo, network, request -> {
-            try {
-                return routeRequest(request);
-            } catch (IllegalAccessException | InvalidResponseException | IOException e) {
-                return RMIError.INTERNAL_SERVER_ERROR.getResponse();
+        serviceInfo.setProxyFactoryHint(adapter.listen(serviceInfo, network, new RequestHandler() {
+            @Override
+            public Type[] getParameterTypes(int endpoint) {
+                return parameterTypeMap.get(endpoint);
+            }
+
+            @Override
+            public boolean isInterruptible(int endpoint) {
+                return interruptibleEndpoints.contains(endpoint);
+            }
+
+            @Override
+            public Response apply(Request request) {
+                try {
+                    return routeRequest(request);
+                } catch (IllegalAccessException | InvalidResponseException | IOException e) {
+                    return RMIError.INTERNAL_SERVER_ERROR.getResponse();
+                }
             }
         }));
     }
@@ -204,6 +269,14 @@ public class RMIService {
         RMIController controller = controllerMap.get(request.getEndpoint());
 
         if(controller != null) {
+            if(request.isExpired()) {
+                // client already gave up the call while it's queued
+                Log.debug("shed expired request ({})", request.getNonce());
+                expiredCalls.increment();
+                return end(Response.error(RMIError.TIMEOUT), request);
+            }
+            // calls made by the controller inherit the deadline of the request
+            final Deadline previous = Deadline.attach(request.getDeadline());
             try {
                 Log.trace("handle request ({}) @ service", request.getNonce());
                 response = controller.handleRequest(request, converter);
@@ -214,6 +287,8 @@ public class RMIService {
             } catch (InvocationTargetException e) {
                 Log.error("InvocationError : {}", e);
                 return end(Response.from(RMIError.INTERNAL_SERVER_ERROR), request);
+            } finally {
+                Deadline.restore(previous);
             }
         }
 
@@ -257,4 +332,25 @@ public class RMIService {
     public RMIServiceInfo getServiceInfo() {
         return serviceInfo;
     }
+
+    /**
+     * @return number of the calls cancelled by the clients before they're started
+     */
+    public long getDroppedCallCount() {
+        return adapter.getDroppedCallCount();
+    }
+
+    /**
+     * @return number of the invocations interrupted as the clients cancel the calls
+     */
+    public long getInterruptedCallCount() {
+        return adapter.getInterruptedCallCount();
+    }
+
+    /**
+     * @return number of the calls shed without invocation as their deadline passed while they're queued
+     */
+    public long getExpiredCallCount() {
+        return expiredCalls.sum();
+    }
 }
@@ -2,13 +2,28 @@ package net.doodream.yarmi.test;
 
 
 import com.doodream.cutils.Types;
+import net.doodream.yarmi.annotation.server.Controller;
+import net.doodream.yarmi.data.Endpoint;
 import net.doodream.yarmi.data.RMIServiceInfo;
+import net.doodream.yarmi.data.Request;
 import net.doodream.yarmi.data.Response;
+import net.doodream.yarmi.net.AsyncRMISocket;
+import net.doodream.yarmi.net.tcp.NioRMISocket;
+import net.doodream.yarmi.serde.Batching;
+import net.doodream.yarmi.serde.BufferPool;
+import net.doodream.yarmi.serde.Compression;
 import net.doodream.yarmi.serde.Converter;
+import net.doodream.yarmi.serde.Frame;
+import net.doodream.yarmi.serde.FrameDecoder;
+import net.doodream.yarmi.serde.FrameReader;
+import net.doodream.yarmi.serde.FrameWriter;
 import net.doodream.yarmi.serde.Reader;
 import net.doodream.yarmi.serde.Writer;
+import net.doodream.yarmi.serde.binary.BinaryConverter;
 import net.doodream.yarmi.serde.bson.BsonConverter;
+import net.doodream.yarmi.test.data.ComplexObject;
 import net.doodream.yarmi.test.data.User;
+import net.doodream.yarmi.test.service.echoback.EchoBackController;
 import net.doodream.yarmi.test.service.echoback.EchoBackService;
 import org.junit.Assert;
 import org.junit.Before;
@@ -17,11 +32,27 @@ import org.junit.Test;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.lang.reflect.Type;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Deflater;
 
 public class ConverterTest {
 
@@ -30,11 +61,48 @@ public class ConverterTest {
 
     @Before
     public void setup() {
+        // test objects are sent without service, so their classes are allowed explicitly
+        final BinaryConverter binaryConverter = new BinaryConverter();
+        binaryConverter.allow(User.class, ComplexObject.class);
         converters = Arrays.asList(
-                new BsonConverter()
+                new BsonConverter(),
+                binaryConverter,
+                legacyConverterOf(new BsonConverter())
         );
     }
 
+    /**
+     * converter implementing only the methods of the original interface, whose buffer & typed methods are defaults
+     */
+    private static Converter legacyConverterOf(Converter converter) {
+        return new Converter() {
+            @Override
+            public Reader reader(InputStream inputStream) {
+                return converter.reader(inputStream);
+            }
+
+            @Override
+            public Writer writer(OutputStream outputStream) {
+                return converter.writer(outputStream);
+            }
+
+            @Override
+            public byte[] convert(Object src) {
+                return converter.convert(src);
+            }
+
+            @Override
+            public <T> T invert(byte[] b, Class<T> cls) {
+                return converter.invert(b, cls);
+            }
+
+            @Override
+            public Object resolve(Object unresolved, Type type) throws ClassNotFoundException, IllegalAccessException, InstantiationException {
+                return converter.resolve(unresolved, type);
+            }
+        };
+    }
+
 
     @Test
     public void converterSerDeserTest() throws ClassNotFoundException, IOException, InstantiationException, IllegalAccessException {
@@ -49,6 +117,277 @@ public class ConverterTest {
             Assert.assertTrue(testSimpleObject(converter));
             Assert.assertTrue(testGenericObject(converter));
             Assert.assertTrue(testComplexGeneric(converter));
+            Assert.assertTrue(testComplexObject(converter));
+        }
+        // numbers other than primitive & boxed ones are built from the decoded number
+        final Converter bson = new BsonConverter();
+        Assert.assertEquals(new BigDecimal("1.5"), bson.resolve(1.5, BigDecimal.class));
+        Assert.assertEquals(BigInteger.valueOf(100L), bson.resolve(100, BigInteger.class));
+        Assert.assertEquals(100L, ((AtomicLong) bson.resolve(100L, AtomicLong.class)).get());
+    }
+
+    @Test
+    public void binaryClassAllowTest() {
+        final BinaryConverter sender = new BinaryConverter();
+        sender.allow(User.class);
+        final User user = new User();
+        user.setName("james");
+        final byte[] message = sender.convert(Response.success(user));
+        Assert.assertEquals(user, sender.invert(message, Response.class).getBody());
+        // peer which doesn't know the class rejects the message rather than loading the class by its name
+        Assert.assertNull(new BinaryConverter().invert(message, Response.class));
+    }
+
+    @Test
+    public void frameSerDeserTest() throws IOException {
+        for (Converter converter : converters) {
+            final User user = User.builder()
+                    .name("David")
+                    .age(39)
+                    .build();
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            FrameWriter writer = new FrameWriter(baos, converter);
+            writer.write(3, 0x1234, Response.success(user));
+            writer.write(Response.success("control"));
+            new FrameWriter(baos, converter, new BufferPool(true)).write(4, 0x1234, Response.success(user));
+            final List<User> users = new ArrayList<>();
+            for (int i = 0; i < 100; i++) {
+                users.add(user);
+            }
+            new FrameWriter(baos, converter, BufferPool.getDefault(), Compression.of(256, Deflater.BEST_SPEED)).write(5, 0x1234, Response.success(users));
+
+            FrameReader reader = new FrameReader(new ByteArrayInputStream(baos.toByteArray()), converter);
+            Frame frame = reader.read();
+            Assert.assertFalse(frame.isControl());
+            Assert.assertEquals(3, frame.getNonce());
+            Assert.assertEquals(0x1234, frame.getEndpoint());
+            Response response = converter.invert(frame.getPayload(), Response.class);
+            Assert.assertTrue(response.isSuccessful());
+            Response<User> typed = converter.invert(frame.getBuffer(), Types.getType(Response.class, User.class));
+            Assert.assertEquals(user, typed.getBody());
+            frame.release();
+
+            frame = reader.read();
+            Assert.assertTrue(frame.isControl());
+            Assert.assertEquals("control", converter.invert(frame.getPayload(), Response.class).getBody());
+
+            frame = reader.read();
+            Assert.assertEquals(4, frame.getNonce());
+            typed = converter.invert(frame.getBuffer(), Types.getType(Response.class, User.class));
+            Assert.assertEquals(user, typed.getBody());
+            frame.release();
+
+            // compressed frame is inflated by the reader
+            frame = reader.read();
+            Assert.assertEquals(5, frame.getNonce());
+            Assert.assertFalse(frame.hasFlag(Frame.FLAG_COMPRESSED));
+            Response<List<User>> list = converter.invert(frame.getBuffer(), Types.getType(Response.class, Types.getType(List.class, User.class)));
+            Assert.assertEquals(users, list.getBody());
+            frame.release();
+        }
+    }
+
+    @Test
+    public void frameDecodeTest() throws IOException {
+        for (Converter converter : converters) {
+            final User user = User.builder()
+                    .name("David")
+                    .age(39)
+                    .build();
+            final List<User> users = new ArrayList<>();
+            for (int i = 0; i < 100; i++) {
+                users.add(user);
+            }
+            final Compression compression = Compression.of(256, Deflater.BEST_SPEED);
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            FrameWriter writer = new FrameWriter(baos, converter, BufferPool.getDefault(), compression);
+            writer.write(3, 0x1234, Response.success(user));
+            writer.write(Frame.FLAG_CANCEL, 4, 0x1234);
+            writer.write(5, 0x1234, Response.success(users));
+
+            // bytes arrive in arbitrary pieces
+            final List<Frame> frames = new ArrayList<>();
+            final FrameDecoder decoder = new FrameDecoder(compression);
+            final byte[] bytes = baos.toByteArray();
+            for (int i = 0; i < bytes.length; i += 7) {
+                decoder.decode(ByteBuffer.wrap(bytes, i, Math.min(7, bytes.length - i)), frames::add);
+            }
+            Assert.assertEquals(3, frames.size());
+
+            Response<User> typed = converter.invert(frames.get(0).getBuffer(), Types.getType(Response.class, User.class));
+            Assert.assertEquals(user, typed.getBody());
+            Assert.assertTrue(frames.get(1).hasFlag(Frame.FLAG_CANCEL));
+            Assert.assertEquals(0, frames.get(1).getLength());
+            Assert.assertEquals(4, frames.get(1).getNonce());
+            Assert.assertFalse(frames.get(2).hasFlag(Frame.FLAG_COMPRESSED));
+            Response<List<User>> list = converter.invert(frames.get(2).getBuffer(), Types.getType(Response.class, Types.getType(List.class, User.class)));
+            Assert.assertEquals(users, list.getBody());
+            for (Frame frame : frames) {
+                frame.release();
+            }
+        }
+    }
+
+    @Test
+    public void concurrentFrameWriteTest() throws IOException, InterruptedException {
+        for (Converter converter : converters) {
+            final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            final FrameWriter writer = new FrameWriter(baos, converter);
+            final ExecutorService executorService = Executors.newFixedThreadPool(8);
+            final int count = 800;
+            for (int i = 0; i < count; i++) {
+                final int nonce = i;
+                executorService.execute(() -> {
+                    try {
+                        writer.write(nonce, 0, Response.success(nonce));
+                    } catch (IOException e) {
+                        Assert.fail(e.getMessage());
+                    }
+                });
+            }
+            executorService.shutdown();
+            Assert.assertTrue(executorService.awaitTermination(10, TimeUnit.SECONDS));
+
+            // frames written concurrently are not interleaved with each other
+            final FrameReader reader = new FrameReader(new ByteArrayInputStream(baos.toByteArray()), converter);
+            final Set<Integer> nonces = new HashSet<>();
+            for (int i = 0; i < count; i++) {
+                final Frame frame = reader.read();
+                Response response = converter.invert(frame.getBuffer(), Response.class);
+                Assert.assertEquals(frame.getNonce(), ((Number) response.getBody()).intValue());
+                nonces.add(frame.getNonce());
+                frame.release();
+            }
+            Assert.assertEquals(count, nonces.size());
+        }
+    }
+
+    @Test
+    public void batchFrameWriteTest() throws IOException, InterruptedException {
+        for (Converter converter : converters) {
+            final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            final FrameWriter writer = new FrameWriter(baos, converter, BufferPool.getDefault(), Compression.NONE, Batching.of(500000L, 4));
+            final ExecutorService executorService = Executors.newFixedThreadPool(4);
+            final long start = System.currentTimeMillis();
+            for (int i = 0; i < 4; i++) {
+                final int nonce = i;
+                executorService.execute(() -> {
+                    try {
+                        writer.write(nonce, 0, Response.success(nonce));
+                    } catch (IOException e) {
+                        Assert.fail(e.getMessage());
+                    }
+                });
+                if(i == 0) {
+                    // first writer waits in the window for the others
+                    Thread.sleep(50L);
+                }
+            }
+            executorService.shutdown();
+            Assert.assertTrue(executorService.awaitTermination(10, TimeUnit.SECONDS));
+            // window ends as soon as max. frames are gathered
+            Assert.assertTrue(System.currentTimeMillis() - start < 400L);
+
+            // all the frames are packed into single batch frame
+            final byte[] bytes = baos.toByteArray();
+            final ByteBuffer header = ByteBuffer.wrap(bytes);
+            Assert.assertEquals(bytes.length - Frame.HEADER_SIZE, header.getInt());
+            Assert.assertEquals(Frame.FLAG_BATCH, header.getInt());
+
+            // which are unpacked by both reader and decoder
+            final FrameReader reader = new FrameReader(new ByteArrayInputStream(bytes), converter);
+            final List<Frame> frames = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                frames.add(reader.read());
+            }
+            final FrameDecoder decoder = new FrameDecoder(Compression.NONE);
+            for (int i = 0; i < bytes.length; i += 7) {
+                decoder.decode(ByteBuffer.wrap(bytes, i, Math.min(7, bytes.length - i)), frames::add);
+            }
+            Assert.assertEquals(8, frames.size());
+            final Set<Integer> nonces = new HashSet<>();
+            for (Frame frame : frames) {
+                Response response = converter.invert(frame.getBuffer(), Response.class);
+                Assert.assertEquals(frame.getNonce(), ((Number) response.getBody()).intValue());
+                nonces.add(frame.getNonce());
+                frame.release();
+            }
+            Assert.assertEquals(4, nonces.size());
+        }
+    }
+
+    @Test
+    public void unconvertibleFrameWriteTest() {
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        final FrameWriter writer = new FrameWriter(baos, new BsonConverter());
+        try {
+            // bean without any property can't be serialized
+            writer.write(1, 0, new Object());
+            Assert.fail("unconvertible object is written");
+        } catch (IOException ignored) { }
+        // nothing is sent for the failed call
+        Assert.assertEquals(0, baos.size());
+    }
+
+    @Test
+    public void stalledPeerWriteTest() throws IOException, InterruptedException {
+        // peer accepting connection but never reading from it
+        try (ServerSocket peer = new ServerSocket(0)) {
+            final NioRMISocket socket = new NioRMISocket("localhost", peer.getLocalPort());
+            socket.open();
+            final Socket accepted = peer.accept();
+            final CountDownLatch closed = new CountDownLatch(1);
+            socket.startRead(Compression.NONE, new AsyncRMISocket.FrameListener() {
+                @Override
+                public void onFrame(Frame frame) {
+                    frame.release();
+                }
+
+                @Override
+                public void onClose(IOException cause) {
+                    closed.countDown();
+                }
+            });
+            final FrameWriter writer = new FrameWriter(socket.getOutputStream(), converters.get(0));
+            final byte[] payload = new byte[256 * 1024];
+            boolean timedOut = false;
+            for (int i = 0; (i < 1000) && !timedOut; i++) {
+                final long start = System.nanoTime();
+                try {
+                    writer.write(i, 0, Response.success(payload), 200L, TimeUnit.MILLISECONDS);
+                } catch (TimeoutException e) {
+                    timedOut = true;
+                }
+                // write never blocks much longer than its timeout, even when the send buffer is full
+                Assert.assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(1000L));
+            }
+            Assert.assertTrue(timedOut);
+            // frame left partially written breaks the connection, so it's closed for all the calls
+            Assert.assertTrue(socket.isClosed());
+            Assert.assertTrue(closed.await(1, TimeUnit.SECONDS));
+            accepted.close();
+        }
+    }
+
+    @Test
+    public void requestSerDeserTest() throws NoSuchFieldException, NoSuchMethodException, ClassNotFoundException, InstantiationException, IllegalAccessException {
+        final Controller controller = EchoBackService.class.getDeclaredField("echoBackController").getAnnotation(Controller.class);
+        final Endpoint endpoint = Endpoint.create(controller, EchoBackController.class.getMethod("sendUserList", List.class));
+        for (Converter converter : converters) {
+            final List<User> users = new ArrayList<>();
+            users.add(User.builder().name("David").age(39).build());
+            final byte[] encoded = converter.convert(Request.fromEndpoint(endpoint, users));
+
+            Request request = converter.invertRequest(encoded, endpoint.getParameterTypes());
+            Assert.assertNotNull(request);
+            Assert.assertEquals(1, request.getArgs().length);
+            Assert.assertEquals(users, request.getArgs()[0]);
+
+            // unknown endpoint, arguments are decoded generically and can be resolved afterward
+            request = converter.invertRequest(encoded, null);
+            Assert.assertNotNull(request);
+            Assert.assertEquals(1, request.getArgs().length);
+            Assert.assertEquals(users, converter.resolve(request.getArgs()[0], endpoint.getParameterTypes()[0]));
         }
     }
 
@@ -97,6 +436,18 @@ public class ConverterTest {
         return userListResult.equals(userLists);
     }
 
+    private boolean testComplexObject(Converter converter) throws ClassNotFoundException, InstantiationException, IllegalAccessException, IOException {
+        final ComplexObject complexObject = ComplexObject.createTestObject();
+        // resolve twice to make sure cached resolution gives same result
+        for (int i = 0; i < 2; i++) {
+            ComplexObject result = testObjectTransfer(converter, complexObject, ComplexObject.class);
+            if(!complexObject.equals(result)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     private <T> T testObjectTransfer(Converter converter, T src, Type type) throws IOException, InstantiationException, IllegalAccessException, ClassNotFoundException {
         final Response response = Response.<T>success(src);
         ByteArrayOutputStream baos = new ByteArrayOutputStream();
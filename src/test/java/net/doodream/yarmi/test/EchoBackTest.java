@@ -2,6 +2,8 @@ package net.doodream.yarmi.test;
 
 import net.doodream.yarmi.annotation.RMIException;
 import net.doodream.yarmi.client.RMIClient;
+import net.doodream.yarmi.data.Deadline;
+import net.doodream.yarmi.data.RMIError;
 import net.doodream.yarmi.data.RMIServiceInfo;
 import net.doodream.yarmi.data.Response;
 import net.doodream.yarmi.net.ServiceProxy;
@@ -13,12 +15,20 @@ import net.doodream.yarmi.test.service.echoback.DelayedResponseController;
 import net.doodream.yarmi.test.service.echoback.EchoBackController;
 import net.doodream.yarmi.test.service.echoback.EchoBackService;
 import net.doodream.yarmi.test.service.echoback.PrimitiveEchoBackController;
+import net.doodream.yarmi.test.service.echoback.SlowEchoBackService;
+import net.doodream.yarmi.test.service.echoback.SlowPrimitiveEchoBackControllerImpl;
 import org.junit.*;
 import org.junit.runners.MethodSorters;
 
 import java.io.IOException;
 import java.net.ServerSocket;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 
 @FixMethodOrder(MethodSorters.NAME_ASCENDING)
@@ -269,10 +279,254 @@ public class EchoBackTest {
         Assert.assertFalse(response.hasScm());
         Assert.assertFalse(response.hasSessionSwitch());
         Assert.assertEquals(Response.SUCCESS, response.getCode());
+        // whole blob is received by the service
+        Assert.assertEquals(Long.valueOf(zeroFill.length), controller.getBlobSize(0L).getBody());
 
         RMIClient.destroy(client);
     }
 
+    @Test
+    public void L_asyncInvocationTest() throws Exception {
+        final Object client = buildNewClient();
+        final DelayedResponseController controller = (DelayedResponseController) client;
+        final List<CompletableFuture<Response<Long>>> futures = new ArrayList<>();
+        // all the calls are in flight at once without blocking calling thread
+        for (long i = 0; i < 16; i++) {
+            futures.add(controller.getDelayedResponseAsync(100L + i));
+        }
+        for (int i = 0; i < futures.size(); i++) {
+            final Response<Long> response = futures.get(i).get(10L, TimeUnit.SECONDS);
+            Assert.assertTrue(response.isSuccessful());
+            Assert.assertEquals(Long.valueOf(100L + i), response.getBody());
+        }
+        RMIClient.destroy(client);
+
+        final Object impatientClient = RMIClient.create(service.getServiceInfo(), EchoBackService.class, new Class[]{
+                DelayedResponseController.class
+        }, 300L, TimeUnit.MILLISECONDS);
+        final DelayedResponseController impatientController = (DelayedResponseController) impatientClient;
+        try {
+            impatientController.getDelayedResponseAsync(1000L).get(10L, TimeUnit.SECONDS);
+            Assert.fail("request should be timed out");
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof RMIException);
+            Assert.assertEquals(RMIError.TIMEOUT.getResponse().getCode(), ((RMIException) e.getCause()).code());
+        }
+        // late response of the timed out request is discarded, and the connection is still usable
+        Thread.sleep(1000L);
+        Assert.assertEquals(Long.valueOf(0L), impatientController.getDelayedResponseAsync(0L).get(10L, TimeUnit.SECONDS).getBody());
+        RMIClient.destroy(impatientClient, true);
+    }
+
+
+    @Test
+    public void M_cancelOnTimeoutTest() throws Exception {
+        final Object client = RMIClient.create(service.getServiceInfo(), EchoBackService.class, new Class[]{
+                DelayedResponseController.class
+        }, 300L, TimeUnit.MILLISECONDS);
+        final DelayedResponseController controller = (DelayedResponseController) client;
+        final long interrupted = service.getInterruptedCallCount();
+        try {
+            controller.getDelayedResponse(5000L);
+            Assert.fail("request should be timed out");
+        } catch (RMIException e) {
+            Assert.assertEquals(RMIError.TIMEOUT.getResponse().getCode(), e.code());
+        }
+        // timed out call is cancelled on the service, and its invocation is interrupted
+        final long deadline = System.currentTimeMillis() + 3000L;
+        while ((service.getInterruptedCallCount() == interrupted) && (System.currentTimeMillis() < deadline)) {
+            Thread.sleep(10L);
+        }
+        Assert.assertEquals(interrupted + 1, service.getInterruptedCallCount());
+        RMIClient.destroy(client, true);
+    }
+
+    @Test
+    public void N_deadlinePropagationTest() throws Exception {
+        final Object client = RMIClient.create(service.getServiceInfo(), EchoBackService.class, new Class[]{
+                DelayedResponseController.class
+        }, 2000L, TimeUnit.MILLISECONDS);
+        final DelayedResponseController controller = (DelayedResponseController) client;
+        // controller sees the budget of the client as its deadline
+        final Response<Long> response = controller.getRemainingBudget(100L);
+        Assert.assertTrue(response.isSuccessful());
+        Assert.assertTrue(response.getBody() > 0L);
+        Assert.assertTrue(response.getBody() <= 1900L);
+
+        // call made after its inherited deadline is passed is never sent
+        final Deadline previous = Deadline.attach(Deadline.after(0L, TimeUnit.MILLISECONDS));
+        try {
+            controller.getRemainingBudget(0L);
+            Assert.fail("request should be timed out");
+        } catch (RMIException e) {
+            Assert.assertEquals(RMIError.TIMEOUT.getResponse().getCode(), e.code());
+        } finally {
+            Deadline.restore(previous);
+        }
+        RMIClient.destroy(client, true);
+    }
+
+    @Test
+    public void O_balancedClientTest() throws Exception {
+        final Object client = RMIClient.createBalanced(Collections.singletonList(service.getServiceInfo()), EchoBackService.class, new Class[]{
+                PrimitiveEchoBackController.class
+        }, 2000L, TimeUnit.MILLISECONDS);
+        Assert.assertNotNull(client);
+        final PrimitiveEchoBackController controller = (PrimitiveEchoBackController) client;
+        for (int i = 0; i < 10; i++) {
+            Assert.assertEquals(i, controller.echoBackInteger(i).getBody().intValue());
+        }
+        // same instance is known already
+        Assert.assertFalse(RMIClient.addService(client, service.getServiceInfo()));
+
+        // calls fail while there is no instance, and are routed again once it's reported back
+        Assert.assertTrue(RMIClient.removeService(client, service.getServiceInfo()));
+        try {
+            controller.echoBackInteger(1);
+            Assert.fail("no instance to route the call to");
+        } catch (RMIException e) {
+            Assert.assertEquals(RMIError.NOT_FOUND.getResponse().getCode(), e.code());
+        }
+        Assert.assertTrue(RMIClient.addService(client, service.getServiceInfo()));
+        Assert.assertEquals(1, controller.echoBackInteger(1).getBody().intValue());
+        RMIClient.destroy(client, true);
+    }
+
+    @Test
+    public void O_balancedLatencyTest() throws Exception {
+        final RMIService slowService = RMIService.create(SlowEchoBackService.class);
+        slowService.listen();
+        try {
+            final Object client = RMIClient.createBalanced(Arrays.asList(service.getServiceInfo(), slowService.getServiceInfo()), EchoBackService.class, new Class[]{
+                    PrimitiveEchoBackController.class
+            }, 2000L, TimeUnit.MILLISECONDS);
+            Assert.assertNotNull(client);
+            final PrimitiveEchoBackController controller = (PrimitiveEchoBackController) client;
+            final int before = SlowPrimitiveEchoBackControllerImpl.CALLS.get();
+            for (int i = 0; i < 30; i++) {
+                Assert.assertEquals(i, controller.echoBackInteger(i).getBody().intValue());
+            }
+            // slow instance is probed at most once, then the calls move to the fast one
+            Assert.assertTrue(SlowPrimitiveEchoBackControllerImpl.CALLS.get() - before <= 2);
+            RMIClient.destroy(client, true);
+        } finally {
+            slowService.stop();
+        }
+    }
+
+    @Test
+    public void P_hedgedRequestTest() throws Exception {
+        final Object client = RMIClient.create(service.getServiceInfo(), EchoBackService.class, new Class[]{
+                DelayedResponseController.class
+        }, 5000L, TimeUnit.MILLISECONDS);
+        final DelayedResponseController controller = (DelayedResponseController) client;
+        for (int i = 0; i < 40; i++) {
+            Assert.assertEquals(0L, controller.getIdempotentResponse(0L).getBody().longValue());
+        }
+        Assert.assertEquals(0L, RMIClient.getHedgedCallCount(client));
+
+        // slow call is hedged once it's later than usual, and the copy answers first
+        final long start = System.currentTimeMillis();
+        Assert.assertEquals(3000L, controller.getIdempotentResponse(3000L).getBody().longValue());
+        Assert.assertTrue(System.currentTimeMillis() - start < 2000L);
+        Assert.assertEquals(1L, RMIClient.getHedgedCallCount(client));
+        RMIClient.destroy(client, true);
+    }
+
+    @Test
+    public void Q_responseCacheTest() throws Exception {
+        final Object client = RMIClient.create(service.getServiceInfo(), EchoBackService.class, new Class[]{
+                DelayedResponseController.class
+        }, 2000L, TimeUnit.MILLISECONDS);
+        final DelayedResponseController controller = (DelayedResponseController) client;
+        final long first = controller.getCachedResponse(0L).getBody();
+        // same arguments are answered from the cache, while others go over the network
+        Assert.assertEquals(first, controller.getCachedResponse(0L).getBody().longValue());
+        Assert.assertNotEquals(first, controller.getCachedResponse(1L).getBody().longValue());
+        Assert.assertEquals(1L, RMIClient.getCacheHitCount(client));
+        Assert.assertEquals(2L, RMIClient.getCacheMissCount(client));
+
+        // expired response is fetched again
+        Thread.sleep(400L);
+        Assert.assertNotEquals(first, controller.getCachedResponse(0L).getBody().longValue());
+        Assert.assertEquals(3L, RMIClient.getCacheMissCount(client));
+        RMIClient.destroy(client, true);
+    }
+
+    @Test
+    public void R_singleFlightTest() throws Exception {
+        final Object client = RMIClient.create(service.getServiceInfo(), EchoBackService.class, new Class[]{
+                DelayedResponseController.class
+        }, 2000L, TimeUnit.MILLISECONDS);
+        final DelayedResponseController controller = (DelayedResponseController) client;
+        final int callers = 8;
+        final ExecutorService executor = Executors.newFixedThreadPool(callers);
+        final CountDownLatch ready = new CountDownLatch(1);
+        final List<Future<Long>> calls = new ArrayList<>();
+        for (int i = 0; i < callers; i++) {
+            calls.add(executor.submit(() -> {
+                ready.await();
+                return controller.getSharedResponse(300L).getBody();
+            }));
+        }
+        ready.countDown();
+        final Set<Long> requests = new HashSet<>();
+        for (Future<Long> call : calls) {
+            requests.add(call.get());
+        }
+        executor.shutdown();
+        // each request made is shared by the coalesced calls
+        Assert.assertTrue(RMIClient.getCoalescedCallCount(client) > 0);
+        Assert.assertEquals(callers, requests.size() + RMIClient.getCoalescedCallCount(client));
+        RMIClient.destroy(client, true);
+    }
+
+    @Test
+    public void S_concurrentCallTest() throws Exception {
+        final Object client = buildNewClient();
+        final PrimitiveEchoBackController controller = (PrimitiveEchoBackController) client;
+        final ExecutorService executor = Executors.newFixedThreadPool(16);
+        final List<Future<Boolean>> calls = new ArrayList<>();
+        // concurrent calls are batched into shared frames, and each of them gets its own response
+        for (int i = 0; i < 320; i++) {
+            final int value = i;
+            calls.add(executor.submit(() -> controller.echoBackInteger(value).getBody() == value));
+        }
+        for (Future<Boolean> call : calls) {
+            Assert.assertTrue(call.get());
+        }
+        executor.shutdown();
+        RMIClient.destroy(client, true);
+    }
+
+    @Test
+    public void T_batchCallTest() throws Exception {
+        final Object client = buildNewClient();
+        final PrimitiveEchoBackController batch = (PrimitiveEchoBackController) RMIClient.batch(client);
+        for (int i = 0; i < 100; i++) {
+            // recorded, not sent yet
+            Assert.assertNull(batch.echoBackInteger(i));
+        }
+        final List<Response> responses = RMIClient.send(batch).get();
+        Assert.assertEquals(100, responses.size());
+        for (int i = 0; i < 100; i++) {
+            Assert.assertEquals(i, ((Number) responses.get(i).getBody()).intValue());
+        }
+
+        // ordered batch runs one by one in the recorded order, even though earlier calls take longer
+        final DelayedResponseController ordered = (DelayedResponseController) RMIClient.batch(client, true);
+        ordered.getSequence(100L);
+        ordered.getSequence(50L);
+        final CompletableFuture<Response<Long>> last = ordered.getDelayedResponseAsync(0L);
+        ordered.getSequence(0L);
+        final List<Response> sequence = RMIClient.send(ordered).get();
+        Assert.assertEquals(4, sequence.size());
+        Assert.assertEquals(0L, last.get(1L, TimeUnit.SECONDS).getBody().longValue());
+        final long first = ((Number) sequence.get(0).getBody()).longValue();
+        Assert.assertEquals(first + 1, ((Number) sequence.get(1).getBody()).longValue());
+        Assert.assertEquals(first + 2, ((Number) sequence.get(3).getBody()).longValue());
+        RMIClient.destroy(client, true);
+    }
 
     @Test
     public void testMethodCallIntegerParameter() throws Exception {
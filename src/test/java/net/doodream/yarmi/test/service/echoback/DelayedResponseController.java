@@ -1,10 +1,38 @@
 package net.doodream.yarmi.test.service.echoback;
 
+import net.doodream.yarmi.annotation.Cacheable;
+import net.doodream.yarmi.annotation.Idempotent;
+import net.doodream.yarmi.annotation.Interruptible;
 import net.doodream.yarmi.annotation.RMIExpose;
+import net.doodream.yarmi.annotation.SingleFlight;
 import net.doodream.yarmi.data.Response;
 
+import java.util.concurrent.CompletableFuture;
+
 public interface DelayedResponseController {
 
     @RMIExpose
+    @Interruptible
     Response getDelayedResponse(long delay);
+
+    @RMIExpose
+    CompletableFuture<Response<Long>> getDelayedResponseAsync(long delay);
+
+    @RMIExpose
+    Response<Long> getRemainingBudget(long delay);
+
+    @RMIExpose
+    @Idempotent
+    Response<Long> getIdempotentResponse(long delay);
+
+    @RMIExpose
+    @Cacheable(ttl = 300L)
+    Response<Long> getCachedResponse(long delay);
+
+    @RMIExpose
+    @SingleFlight
+    Response<Long> getSharedResponse(long delay);
+
+    @RMIExpose
+    Response<Long> getSequence(long delay);
 }
@@ -1,8 +1,25 @@
 package net.doodream.yarmi.test.service.echoback;
 
+import net.doodream.yarmi.data.Deadline;
 import net.doodream.yarmi.data.Response;
 
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
 public class DelayedResponseControllerImpl implements DelayedResponseController{
+
+    // delay already made once, so the retry of the same call is answered right away
+    private static final Set<Long> DELAYED = ConcurrentHashMap.newKeySet();
+    // number of calls actually made to the cached method
+    private static final AtomicLong CACHED_CALLS = new AtomicLong(0);
+    // number of calls actually made to the single flight method
+    private static final AtomicLong SHARED_CALLS = new AtomicLong(0);
+    // order in which calls are complete
+    private static final AtomicLong SEQUENCE = new AtomicLong(0);
+
     @Override
     public Response getDelayedResponse(long delay) {
         try {
@@ -10,4 +27,58 @@ public class DelayedResponseControllerImpl implements DelayedResponseController{
         } catch (InterruptedException ignored) { }
         return Response.success(delay);
     }
+
+    @Override
+    public CompletableFuture<Response<Long>> getDelayedResponseAsync(long delay) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException ignored) { }
+            return Response.success(delay);
+        });
+    }
+
+    @Override
+    public Response<Long> getRemainingBudget(long delay) {
+        try {
+            Thread.sleep(delay);
+        } catch (InterruptedException ignored) { }
+        final Deadline deadline = Deadline.current();
+        return Response.success(deadline == null ? 0L : deadline.remaining(TimeUnit.MILLISECONDS));
+    }
+
+    @Override
+    public Response<Long> getIdempotentResponse(long delay) {
+        if(DELAYED.add(delay)) {
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException ignored) { }
+        }
+        return Response.success(delay);
+    }
+
+    @Override
+    public Response<Long> getCachedResponse(long delay) {
+        try {
+            Thread.sleep(delay);
+        } catch (InterruptedException ignored) { }
+        return Response.success(CACHED_CALLS.incrementAndGet());
+    }
+
+    @Override
+    public Response<Long> getSharedResponse(long delay) {
+        final long call = SHARED_CALLS.incrementAndGet();
+        try {
+            Thread.sleep(delay);
+        } catch (InterruptedException ignored) { }
+        return Response.success(call);
+    }
+
+    @Override
+    public Response<Long> getSequence(long delay) {
+        try {
+            Thread.sleep(delay);
+        } catch (InterruptedException ignored) { }
+        return Response.success(SEQUENCE.incrementAndGet());
+    }
 }
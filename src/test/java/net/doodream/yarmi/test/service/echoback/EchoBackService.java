@@ -3,7 +3,10 @@ package net.doodream.yarmi.test.service.echoback;
 import net.doodream.yarmi.annotation.AdapterParam;
 import net.doodream.yarmi.annotation.server.Controller;
 import net.doodream.yarmi.annotation.server.Service;
+import net.doodream.yarmi.net.PooledServiceProxy;
 import net.doodream.yarmi.net.tcp.TcpServiceAdapter;
+import net.doodream.yarmi.serde.Batching;
+import net.doodream.yarmi.serde.Compression;
 import net.doodream.yarmi.serde.bson.BsonConverter;
 
 @Service(
@@ -11,7 +14,11 @@ import net.doodream.yarmi.serde.bson.BsonConverter;
         provider = "www.doodream.com",
         converter = BsonConverter.class,
         params = {
-            @AdapterParam(key= TcpServiceAdapter.PARAM_PORT, value = "6464")
+            @AdapterParam(key= TcpServiceAdapter.PARAM_PORT, value = "6464"),
+            @AdapterParam(key= Compression.PARAM_THRESHOLD, value = "512"),
+            @AdapterParam(key= PooledServiceProxy.PARAM_MIN_CONNECTIONS, value = "2"),
+            @AdapterParam(key= PooledServiceProxy.PARAM_MAX_CONNECTIONS, value = "4"),
+            @AdapterParam(key= Batching.PARAM_WINDOW, value = "50")
         })
 public class EchoBackService {
 
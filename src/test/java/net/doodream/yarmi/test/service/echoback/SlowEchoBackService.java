@@ -0,0 +1,24 @@
+package net.doodream.yarmi.test.service.echoback;
+
+import net.doodream.yarmi.annotation.AdapterParam;
+import net.doodream.yarmi.annotation.server.Controller;
+import net.doodream.yarmi.annotation.server.Service;
+import net.doodream.yarmi.net.tcp.TcpServiceAdapter;
+import net.doodream.yarmi.serde.bson.BsonConverter;
+
+/**
+ * another instance of {@link EchoBackService} which answers slowly
+ */
+@Service(
+        name = "test-service",
+        provider = "www.doodream.com",
+        converter = BsonConverter.class,
+        params = {
+            @AdapterParam(key= TcpServiceAdapter.PARAM_PORT, value = "6465")
+        })
+public class SlowEchoBackService {
+
+    @Controller(path = "/echo/primitive", version = 1, module = SlowPrimitiveEchoBackControllerImpl.class)
+    PrimitiveEchoBackController primitiveEchoBackController;
+
+}
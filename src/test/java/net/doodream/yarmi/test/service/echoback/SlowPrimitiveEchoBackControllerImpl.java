@@ -0,0 +1,20 @@
+package net.doodream.yarmi.test.service.echoback;
+
+import net.doodream.yarmi.data.Response;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class SlowPrimitiveEchoBackControllerImpl extends PrimitiveEchoBackControllerImpl {
+
+    // number of calls actually made to the slow instance
+    public static final AtomicInteger CALLS = new AtomicInteger(0);
+
+    @Override
+    public Response<Integer> echoBackInteger(int v) {
+        CALLS.incrementAndGet();
+        try {
+            Thread.sleep(100L);
+        } catch (InterruptedException ignored) { }
+        return super.echoBackInteger(v);
+    }
+}
@@ -0,0 +1,64 @@
+package net.doodream.yarmi.bench;
+
+import net.doodream.yarmi.data.Response;
+import net.doodream.yarmi.serde.FrameWriter;
+import net.doodream.yarmi.serde.bson.BsonConverter;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * measures responses written per second by concurrent writers sharing single connection over loopback,
+ * where frames piled up while a writer is flushing are flushed together by the next writer.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(8)
+@Fork(1)
+public class ConcurrentWriteBenchmark {
+
+    private final Response<String> message = Response.success("Hello");
+    private ServerSocket serverSocket;
+    private Socket client;
+    private Thread sink;
+    private FrameWriter frameWriter;
+
+    @Setup
+    public void setup() throws IOException {
+        serverSocket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        client = new Socket(InetAddress.getLoopbackAddress(), serverSocket.getLocalPort());
+        final Socket accepted = serverSocket.accept();
+        // peer just discards whatever received
+        sink = new Thread(() -> {
+            final byte[] buffer = new byte[64 * 1024];
+            try (InputStream inputStream = accepted.getInputStream()) {
+                while (inputStream.read(buffer) >= 0) {
+                    // discard
+                }
+            } catch (IOException ignored) {
+            }
+        });
+        sink.setDaemon(true);
+        sink.start();
+        frameWriter = new FrameWriter(client.getOutputStream(), new BsonConverter());
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        client.close();
+        serverSocket.close();
+    }
+
+    @Benchmark
+    public void concurrentFrameWrite() throws IOException {
+        frameWriter.write(1, 0, message);
+    }
+}
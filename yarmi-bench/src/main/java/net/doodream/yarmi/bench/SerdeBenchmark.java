@@ -0,0 +1,207 @@
+package net.doodream.yarmi.bench;
+
+import com.doodream.cutils.Types;
+import net.doodream.yarmi.bench.data.ComplexObject;
+import net.doodream.yarmi.bench.data.User;
+import net.doodream.yarmi.data.Response;
+import net.doodream.yarmi.serde.Converter;
+import net.doodream.yarmi.serde.FrameReader;
+import net.doodream.yarmi.serde.FrameWriter;
+import net.doodream.yarmi.serde.Reader;
+import net.doodream.yarmi.serde.Writer;
+import net.doodream.yarmi.serde.binary.BinaryConverter;
+import net.doodream.yarmi.serde.bson.BsonConverter;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * measures serde layer with the payload shapes used in the tests. run with gc profiler to get allocation rate as well
+ *
+ *  java -jar target/benchmarks.jar SerdeBenchmark -prof gc
+ *
+ * resolve* measures converting generically decoded body into its actual type, which is the cost paid by
+ * callers not using typed invert. streaming benchmarks write a message and read it back through in-memory pipe.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SerdeBenchmark {
+
+    @Param({"bson", "binary"})
+    public String converterName;
+
+    @Param({"user", "complex", "stringList", "stringMap", "primitive"})
+    public String payloadName;
+
+    private Converter converter;
+    private Response<?> message;
+    private Type bodyType;
+    private Type responseType;
+    private byte[] encoded;
+    private Object unresolvedBody;
+    private MemoryPipe pipe;
+    private Writer writer;
+    private Reader reader;
+    private FrameWriter frameWriter;
+    private FrameReader frameReader;
+
+    @Setup
+    public void setup() {
+        converter = "binary".equals(converterName) ? new BinaryConverter() : new BsonConverter();
+        switch (payloadName) {
+            case "user":
+                message = Response.success(User.of("david", 39));
+                bodyType = User.class;
+                break;
+            case "complex":
+                message = Response.success(ComplexObject.createTestObject());
+                bodyType = ComplexObject.class;
+                break;
+            case "stringList":
+                final List<String> list = new ArrayList<>();
+                for (int i = 0; i < 32; i++) {
+                    list.add("item-" + i);
+                }
+                message = Response.success(list);
+                bodyType = Types.getType(List.class, String.class);
+                break;
+            case "stringMap":
+                final Map<String, String> map = new HashMap<>();
+                for (int i = 0; i < 32; i++) {
+                    map.put("key-" + i, "value-" + i);
+                }
+                message = Response.success(map);
+                bodyType = Types.getType(Map.class, String.class, String.class);
+                break;
+            case "primitive":
+                message = Response.success(Arrays.asList(1, 2L, 3.0, true));
+                bodyType = Types.getType(List.class, Object.class);
+                break;
+            default:
+                throw new IllegalArgumentException(String.format("unknown payload %s", payloadName));
+        }
+        responseType = Types.getType(Response.class, bodyType);
+        encoded = converter.convert(message);
+        unresolvedBody = converter.invert(encoded, Response.class).getBody();
+
+        pipe = new MemoryPipe();
+        writer = converter.writer(pipe.outputStream);
+        reader = converter.reader(pipe.inputStream);
+        frameWriter = new FrameWriter(pipe.outputStream, converter);
+        frameReader = new FrameReader(pipe.inputStream, converter);
+    }
+
+    @Benchmark
+    public byte[] convert() {
+        return converter.convert(message);
+    }
+
+    @Benchmark
+    public Response invert() {
+        return converter.invert(encoded, Response.class);
+    }
+
+    @Benchmark
+    public Response typedInvert() {
+        return converter.invert(encoded, responseType);
+    }
+
+    @Benchmark
+    public Object resolve() throws ClassNotFoundException, IllegalAccessException, InstantiationException {
+        return converter.resolve(unresolvedBody, bodyType);
+    }
+
+    @Benchmark
+    public Response streamRoundTrip() throws IOException {
+        writer.write(message);
+        final Response response = reader.read(Response.class);
+        pipe.reset();
+        return response;
+    }
+
+    @Benchmark
+    public Response frameRoundTrip() throws IOException {
+        frameWriter.write(1, 0, message);
+        final Response response = frameReader.read(Response.class);
+        pipe.reset();
+        return response;
+    }
+
+    /**
+     * single threaded in-memory pipe, whatever written to the output is read from the input.
+     * it's reset after each message is consumed, so it doesn't grow.
+     */
+    private static class MemoryPipe {
+        private byte[] buffer = new byte[4096];
+        private int writePosition;
+        private int readPosition;
+
+        private final OutputStream outputStream = new OutputStream() {
+            @Override
+            public void write(int b) {
+                ensure(1);
+                buffer[writePosition++] = (byte) b;
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+                ensure(len);
+                System.arraycopy(b, off, buffer, writePosition, len);
+                writePosition += len;
+            }
+        };
+
+        private final InputStream inputStream = new InputStream() {
+            @Override
+            public int read() {
+                if(readPosition == writePosition) {
+                    return -1;
+                }
+                return buffer[readPosition++] & 0xFF;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) {
+                if(readPosition == writePosition) {
+                    return -1;
+                }
+                final int size = Math.min(len, writePosition - readPosition);
+                System.arraycopy(buffer, readPosition, b, off, size);
+                readPosition += size;
+                return size;
+            }
+
+            @Override
+            public int available() {
+                return writePosition - readPosition;
+            }
+        };
+
+        private void reset() {
+            if(readPosition != writePosition) {
+                throw new IllegalStateException("message is not consumed entirely");
+            }
+            readPosition = 0;
+            writePosition = 0;
+        }
+
+        private void ensure(int size) {
+            if(writePosition + size > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length << 1, writePosition + size));
+            }
+        }
+    }
+}
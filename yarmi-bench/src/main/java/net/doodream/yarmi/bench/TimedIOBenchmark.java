@@ -0,0 +1,137 @@
+package net.doodream.yarmi.bench;
+
+import net.doodream.yarmi.data.Response;
+import net.doodream.yarmi.serde.Converter;
+import net.doodream.yarmi.serde.Frame;
+import net.doodream.yarmi.serde.FrameReader;
+import net.doodream.yarmi.serde.FrameWriter;
+import net.doodream.yarmi.serde.Writer;
+import net.doodream.yarmi.serde.bson.BsonConverter;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.*;
+
+/**
+ * compares timed I/O against untimed one.
+ * executor* benchmarks replicate the previous timed path, which handed each I/O over to an executor
+ * and waited for it with {@link Future#get(long, TimeUnit)}
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TimedIOBenchmark {
+
+    private static final long TIMEOUT = 10L;
+
+    private final Response<String> message = Response.success("Hello");
+    private Writer writer;
+    private FrameWriter frameWriter;
+    private FrameReader frameReader;
+    private ExecutorService executorService;
+
+    @Setup
+    public void setup() throws IOException {
+        final Converter converter = new BsonConverter();
+        writer = converter.writer(new NullOutputStream());
+        frameWriter = new FrameWriter(new NullOutputStream(), converter);
+
+        final ByteArrayOutputStream frame = new ByteArrayOutputStream();
+        new FrameWriter(frame, converter).write(1, 0, message);
+        frameReader = new FrameReader(new RepeatingInputStream(frame.toByteArray()), converter);
+        executorService = Executors.newWorkStealingPool();
+    }
+
+    @TearDown
+    public void tearDown() {
+        executorService.shutdown();
+    }
+
+    @Benchmark
+    public void untimedWrite() throws IOException {
+        writer.write(message);
+    }
+
+    @Benchmark
+    public void timedWrite() throws TimeoutException {
+        writer.write(message, TIMEOUT, TimeUnit.SECONDS);
+    }
+
+    @Benchmark
+    public Boolean executorTimedWrite() throws InterruptedException, ExecutionException, TimeoutException {
+        return executorService.submit(() -> {
+            writer.write(message);
+            return true;
+        }).get(TIMEOUT, TimeUnit.SECONDS);
+    }
+
+    @Benchmark
+    public void untimedFrameWrite() throws IOException {
+        frameWriter.write(1, 0, message);
+    }
+
+    @Benchmark
+    public void timedFrameWrite() throws IOException, TimeoutException {
+        frameWriter.write(1, 0, message, TIMEOUT, TimeUnit.SECONDS);
+    }
+
+    @Benchmark
+    public Frame untimedFrameRead() throws IOException {
+        return frameReader.read();
+    }
+
+    @Benchmark
+    public Frame timedFrameRead() throws IOException, TimeoutException {
+        return frameReader.read(TIMEOUT, TimeUnit.SECONDS);
+    }
+
+    @Benchmark
+    public Frame executorTimedFrameRead() throws InterruptedException, ExecutionException, TimeoutException {
+        return executorService.submit(() -> frameReader.read()).get(TIMEOUT, TimeUnit.SECONDS);
+    }
+
+    private static class NullOutputStream extends OutputStream {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    }
+
+    /**
+     * stream which repeats given bytes endlessly
+     */
+    private static class RepeatingInputStream extends InputStream {
+        private final byte[] bytes;
+        private int position;
+
+        private RepeatingInputStream(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        @Override
+        public int read() {
+            final int b = bytes[position++] & 0xFF;
+            if(position == bytes.length) {
+                position = 0;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            final int size = Math.min(len, bytes.length - position);
+            System.arraycopy(bytes, position, b, off, size);
+            position = (position + size) % bytes.length;
+            return size;
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package net.doodream.yarmi.bench.data;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * same shape as the complex object of yarmi-core tests
+ */
+public class ComplexObject {
+
+    private User user;
+    private Set<User> friend;
+    private List<ComplexObject> objects;
+    private Map<String, User> addressBook;
+
+    public static ComplexObject createTestObject() {
+        final Map<String, User> addressBook = new HashMap<>();
+        addressBook.put("david", User.of("david", 38));
+
+        final Set<User> friend = new HashSet<>();
+        friend.add(User.of("jane", 22));
+
+        final ComplexObject nested = new ComplexObject();
+        nested.user = User.of("david", 32);
+        nested.addressBook = addressBook;
+
+        final ComplexObject complexObject = new ComplexObject();
+        complexObject.user = User.of("james", 23);
+        complexObject.friend = friend;
+        complexObject.objects = Collections.singletonList(nested);
+        complexObject.addressBook = addressBook;
+        return complexObject;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(user, addressBook, friend, objects);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if(!(obj instanceof ComplexObject)) {
+            return false;
+        }
+        final ComplexObject other = (ComplexObject) obj;
+        return Objects.equals(user, other.user) && Objects.equals(friend, other.friend)
+                && Objects.equals(objects, other.objects) && Objects.equals(addressBook, other.addressBook);
+    }
+}
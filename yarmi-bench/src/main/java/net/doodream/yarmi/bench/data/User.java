@@ -0,0 +1,33 @@
+package net.doodream.yarmi.bench.data;
+
+import java.util.Objects;
+
+/**
+ * same shape as the user of yarmi-core tests
+ */
+public class User {
+
+    private String name;
+    private int age;
+
+    public static User of(String name, int age) {
+        final User user = new User();
+        user.name = name;
+        user.age = age;
+        return user;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(age, name);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if(!(obj instanceof User)) {
+            return false;
+        }
+        final User user = (User) obj;
+        return (age == user.age) && Objects.equals(name, user.name);
+    }
+}
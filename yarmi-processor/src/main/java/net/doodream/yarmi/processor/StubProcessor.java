@@ -0,0 +1,396 @@
+package net.doodream.yarmi.processor;
+
+import net.doodream.yarmi.annotation.RMIExpose;
+import net.doodream.yarmi.annotation.method.Delete;
+import net.doodream.yarmi.annotation.method.Get;
+import net.doodream.yarmi.annotation.method.Post;
+import net.doodream.yarmi.annotation.method.Put;
+import net.doodream.yarmi.annotation.server.Controller;
+import net.doodream.yarmi.annotation.server.Service;
+import net.doodream.yarmi.client.RMIClient;
+import net.doodream.yarmi.client.RMIStub;
+import net.doodream.yarmi.data.Endpoint;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.Filer;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.type.WildcardType;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+import javax.tools.StandardLocation;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * generates client stub ({@link RMIStub}) for each controller of the {@link Service}s being compiled, so that
+ * {@link RMIClient} calls the controller without dynamic proxy. stub of controller {@code Foo} is generated
+ * as {@code Foo_YarmiStub} in the package of the controller, and its factory is listed in
+ * {@code META-INF/services} so the client creates the stub without reflection.
+ *
+ * endpoint ids are computed at compile time for each path under which the services being compiled expose
+ * the controller, and client of the controller under other path falls back to dynamic proxy.
+ * controller which can't be implemented by plain source (private or generic one) is skipped with note,
+ * and called over dynamic proxy as before.
+ */
+@SupportedAnnotationTypes("net.doodream.yarmi.annotation.server.Service")
+public class StubProcessor extends AbstractProcessor {
+
+    // paths of the controllers whose stub is generated already
+    private final Map<String, Set<String>> generated = new HashMap<>();
+    // factories of the generated stubs, listed as services once all the rounds are over
+    private final Set<String> factories = new TreeSet<>();
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        if(roundEnv.processingOver()) {
+            writeFactories();
+            return false;
+        }
+        // single controller can be shared by services under different paths, which are all served by its stub
+        final Map<TypeElement, Set<String>> paths = new LinkedHashMap<>();
+        final Map<TypeElement, List<Element>> services = new HashMap<>();
+        for (Element service : roundEnv.getElementsAnnotatedWith(Service.class)) {
+            for (VariableElement field : ElementFilter.fieldsIn(service.getEnclosedElements())) {
+                final Controller annotation = field.getAnnotation(Controller.class);
+                if((annotation == null) || (field.asType().getKind() != TypeKind.DECLARED)) {
+                    continue;
+                }
+                final TypeElement controller = (TypeElement) ((DeclaredType) field.asType()).asElement();
+                final Set<String> generatedPaths = generated.get(controller.getQualifiedName().toString());
+                if(generatedPaths != null) {
+                    if(!generatedPaths.contains(annotation.path())) {
+                        // client of the path falls back to dynamic proxy
+                        note(field, String.format("stub for %s doesn't serve path %s", controller.getQualifiedName(), annotation.path()));
+                    }
+                    continue;
+                }
+                paths.computeIfAbsent(controller, key -> new LinkedHashSet<>()).add(annotation.path());
+                services.computeIfAbsent(controller, key -> new ArrayList<>()).add(service);
+            }
+        }
+        for (Map.Entry<TypeElement, Set<String>> entry : paths.entrySet()) {
+            final TypeElement controller = entry.getKey();
+            generated.put(controller.getQualifiedName().toString(), entry.getValue());
+            final String reason = unsupportedReasonOf(controller);
+            if(reason != null) {
+                note(controller, String.format("no stub for %s : %s", controller.getQualifiedName(), reason));
+                continue;
+            }
+            try {
+                factories.add(generate(services.get(controller), controller, entry.getValue()));
+            } catch (IOException e) {
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                        String.format("fail to generate stub for %s : %s", controller.getQualifiedName(), e.getMessage()), controller);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * list factories of the generated stubs as services, along with the ones listed by previous compilation
+     */
+    private void writeFactories() {
+        if(factories.isEmpty()) {
+            return;
+        }
+        final String resource = String.format("META-INF/services/%s", RMIStub.Factory.class.getName());
+        final Filer filer = processingEnv.getFiler();
+        try (BufferedReader reader = new BufferedReader(filer.getResource(StandardLocation.CLASS_OUTPUT, "", resource).openReader(true))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if(!line.trim().isEmpty()) {
+                    factories.add(line.trim());
+                }
+            }
+        } catch (IOException ignored) {
+            // nothing listed yet
+        }
+        try (PrintWriter writer = new PrintWriter(filer.createResource(StandardLocation.CLASS_OUTPUT, "", resource).openWriter())) {
+            for (String factory : factories) {
+                writer.println(factory);
+            }
+        } catch (IOException e) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, String.format("fail to list stubs : %s", e.getMessage()));
+        }
+    }
+
+    /**
+     * @return reason why the stub can't be generated for the controller, or null if it can
+     */
+    private String unsupportedReasonOf(TypeElement controller) {
+        if(controller.getKind() != ElementKind.INTERFACE) {
+            return "not an interface";
+        }
+        if(!controller.getTypeParameters().isEmpty()) {
+            return "generic interface";
+        }
+        for (Element enclosing = controller; enclosing instanceof TypeElement; enclosing = enclosing.getEnclosingElement()) {
+            if(enclosing.getModifiers().contains(Modifier.PRIVATE)) {
+                return "private interface";
+            }
+        }
+        for (ExecutableElement method : methodsOf(controller)) {
+            if(!method.getTypeParameters().isEmpty()) {
+                return String.format("generic method %s", method.getSimpleName());
+            }
+        }
+        return null;
+    }
+
+    private List<ExecutableElement> methodsOf(TypeElement controller) {
+        final List<ExecutableElement> methods = new ArrayList<>();
+        for (ExecutableElement method : ElementFilter.methodsIn(processingEnv.getElementUtils().getAllMembers(controller))) {
+            // default and static methods of the controller are left as they are
+            if(method.getModifiers().contains(Modifier.ABSTRACT)) {
+                methods.add(method);
+            }
+        }
+        return methods;
+    }
+
+    @SuppressWarnings("deprecation")
+    private static boolean isRMIMethod(ExecutableElement method) {
+        return (method.getAnnotation(Get.class) != null) ||
+                (method.getAnnotation(Post.class) != null) ||
+                (method.getAnnotation(Put.class) != null) ||
+                (method.getAnnotation(RMIExpose.class) != null) ||
+                (method.getAnnotation(Delete.class) != null);
+    }
+
+    /**
+     * @return binary name of the factory of the generated stub
+     */
+    private String generate(List<Element> services, TypeElement controller, Set<String> paths) throws IOException {
+        final PackageElement pkg = processingEnv.getElementUtils().getPackageOf(controller);
+        final String stubName = stubNameOf(controller);
+        final String qualifiedName = pkg.isUnnamed() ? stubName : String.format("%s.%s", pkg.getQualifiedName(), stubName);
+        final String controllerName = controller.getQualifiedName().toString();
+        final List<ExecutableElement> methods = methodsOf(controller);
+
+        final List<Element> origins = new ArrayList<>(services);
+        origins.add(controller);
+
+        try (PrintWriter writer = new PrintWriter(processingEnv.getFiler().createSourceFile(qualifiedName, origins.toArray(new Element[0])).openWriter())) {
+            if(!pkg.isUnnamed()) {
+                writer.printf("package %s;%n%n", pkg.getQualifiedName());
+            }
+            writer.printf("/**%n * generated by %s, do not edit%n */%n", StubProcessor.class.getName());
+            writer.printf("@SuppressWarnings(\"unchecked\")%n");
+            writer.printf("public final class %s extends %s implements %s {%n%n", stubName, RMIStub.class.getName(), controllerName);
+
+            writer.printf("    public static final class Factory implements %s {%n", RMIStub.Factory.class.getCanonicalName());
+            writer.printf("        @Override%n");
+            writer.printf("        public Class<?> controller() {%n");
+            writer.printf("            return %s.class;%n", controllerName);
+            writer.printf("        }%n%n");
+            writer.printf("        @Override%n");
+            writer.printf("        public %s create(%s client) {%n", RMIStub.class.getName(), RMIClient.class.getName());
+            writer.printf("            return new %s(client);%n", stubName);
+            writer.printf("        }%n");
+            writer.printf("    }%n%n");
+
+            final List<Integer> exposed = new ArrayList<>();
+            for (int i = 0; i < methods.size(); i++) {
+                if(isRMIMethod(methods.get(i))) {
+                    exposed.add(i);
+                }
+            }
+            writer.printf("    // endpoint ids of the methods under each path of the controller%n");
+            writer.printf("    private static final int[][] ENDPOINTS = {%n");
+            int row = 0;
+            for (String path : paths) {
+                final StringBuilder ids = new StringBuilder();
+                for (int i : exposed) {
+                    ids.append(ids.length() > 0 ? ", " : "").append(endpointIdOf(methods.get(i), path));
+                }
+                writer.printf("            {%s}%s // %s%n", ids, ++row < paths.size() ? "," : "", path);
+            }
+            writer.printf("    };%n%n");
+            for (int i : exposed) {
+                writer.printf("    private final %s endpoint%d;%n", Endpoint.class.getName(), i);
+            }
+            writer.printf("%n    public %s(%s client) {%n", stubName, RMIClient.class.getName());
+            writer.printf("        super(client);%n");
+            writer.printf("        final %s[] endpoints = endpoints(ENDPOINTS);%n", Endpoint.class.getName());
+            for (int j = 0; j < exposed.size(); j++) {
+                writer.printf("        endpoint%d = endpoints[%d]; // %s%n", exposed.get(j), j, methods.get(exposed.get(j)).getSimpleName());
+            }
+            writer.printf("    }%n");
+
+            for (int i = 0; i < methods.size(); i++) {
+                writeMethod(writer, methods.get(i), i);
+            }
+            writer.printf("}%n");
+        }
+        return String.format("%s$Factory", qualifiedName);
+    }
+
+    /**
+     * @return id of the endpoint, which is the same as {@link Endpoint#getId()} of the method under the path
+     */
+    private int endpointIdOf(ExecutableElement method, String path) {
+        final String declaringClass = processingEnv.getElementUtils().getBinaryName((TypeElement) method.getEnclosingElement()).toString();
+        final List<String> parameterTypes = new ArrayList<>();
+        for (VariableElement parameter : method.getParameters()) {
+            parameterTypes.add(typeNameOf(parameter.asType()));
+        }
+        return Endpoint.idOf(Endpoint.uniqueOf(declaringClass, method.getSimpleName().toString(), path, parameterTypes));
+    }
+
+    /**
+     * @return name of the type as given by {@link java.lang.reflect.Type#getTypeName()} at runtime
+     */
+    private String typeNameOf(TypeMirror type) {
+        switch (type.getKind()) {
+            case ARRAY:
+                return typeNameOf(((ArrayType) type).getComponentType()).concat("[]");
+            case DECLARED:
+                final DeclaredType declared = (DeclaredType) type;
+                final StringBuilder name = new StringBuilder(processingEnv.getElementUtils().getBinaryName((TypeElement) declared.asElement()));
+                if(!declared.getTypeArguments().isEmpty()) {
+                    name.append('<');
+                    for (int i = 0; i < declared.getTypeArguments().size(); i++) {
+                        name.append(i > 0 ? ", " : "").append(typeNameOf(declared.getTypeArguments().get(i)));
+                    }
+                    name.append('>');
+                }
+                return name.toString();
+            case WILDCARD:
+                final WildcardType wildcard = (WildcardType) type;
+                if(wildcard.getSuperBound() != null) {
+                    return "? super ".concat(typeNameOf(wildcard.getSuperBound()));
+                }
+                if(wildcard.getExtendsBound() != null) {
+                    return "? extends ".concat(typeNameOf(wildcard.getExtendsBound()));
+                }
+                return "?";
+            default:
+                // primitive or type variable
+                return type.toString();
+        }
+    }
+
+    private void writeMethod(PrintWriter writer, ExecutableElement method, int index) {
+        final StringBuilder parameters = new StringBuilder();
+        final StringBuilder arguments = new StringBuilder();
+        for (VariableElement parameter : method.getParameters()) {
+            if(parameters.length() > 0) {
+                parameters.append(", ");
+                arguments.append(", ");
+            }
+            parameters.append(String.format("%s %s", parameter.asType(), parameter.getSimpleName()));
+            arguments.append(parameter.getSimpleName());
+        }
+        final StringBuilder thrown = new StringBuilder();
+        for (TypeMirror type : method.getThrownTypes()) {
+            thrown.append(thrown.length() > 0 ? ", " : " throws ").append(type);
+        }
+        final TypeMirror returnType = method.getReturnType();
+
+        writer.printf("%n    @Override%n");
+        writer.printf("    public %s %s(%s)%s {%n", returnType, method.getSimpleName(), parameters, thrown);
+        if(!isRMIMethod(method)) {
+            // not exposed by the service, answered in the same way as dynamic proxy does
+            if(returnType.getKind() != TypeKind.VOID) {
+                writer.printf("        return %s;%n", defaultValueOf(returnType));
+            }
+            writer.printf("    }%n");
+            return;
+        }
+        // no argument is passed as null like dynamic proxy does
+        final String args = method.getParameters().isEmpty() ? "null" : String.format("new Object[] {%s}", arguments);
+        final String error = errorNameOf(method);
+        writer.printf("        try {%n");
+        if(returnType.getKind() == TypeKind.VOID) {
+            writer.printf("            call(this.endpoint%d, %s);%n", index, args);
+        } else {
+            writer.printf("            return (%s) call(this.endpoint%d, %s);%n", returnType, index, args);
+        }
+        writer.printf("        } catch (RuntimeException | Error %s) {%n", error);
+        writer.printf("            throw %s;%n", error);
+        writer.printf("        } catch (Throwable %s) {%n", error);
+        for (TypeMirror type : method.getThrownTypes()) {
+            // exception declared by the method is thrown as it is
+            writer.printf("            if(%s instanceof %s) {%n", error, type);
+            writer.printf("                throw (%s) %s;%n", type, error);
+            writer.printf("            }%n");
+        }
+        writer.printf("            throw undeclared(%s);%n", error);
+        writer.printf("        }%n");
+        writer.printf("    }%n");
+    }
+
+    /**
+     * @return name of the caught exception, which doesn't hide any parameter of the method
+     */
+    private static String errorNameOf(ExecutableElement method) {
+        String name = "e";
+        boolean isTaken = true;
+        while (isTaken) {
+            isTaken = false;
+            for (VariableElement parameter : method.getParameters()) {
+                if(parameter.getSimpleName().contentEquals(name)) {
+                    name = name.concat("_");
+                    isTaken = true;
+                }
+            }
+        }
+        return name;
+    }
+
+    /**
+     * @return value which dynamic proxy answers for the method not exposed, primitive one can't be null though
+     */
+    private static String defaultValueOf(TypeMirror type) {
+        switch (type.getKind()) {
+            case BOOLEAN:
+                return "false";
+            case CHAR:
+                return "'\\0'";
+            default:
+                return type.getKind().isPrimitive() ? String.format("(%s) 0", type) : "null";
+        }
+    }
+
+    /**
+     * @return simple name of the stub, names of the enclosing classes are joined with '_' (see {@link RMIStub#SUFFIX})
+     */
+    private static String stubNameOf(TypeElement controller) {
+        String name = controller.getSimpleName().toString();
+        for (Element enclosing = controller.getEnclosingElement(); enclosing instanceof TypeElement; enclosing = enclosing.getEnclosingElement()) {
+            name = String.format("%s_%s", enclosing.getSimpleName(), name);
+        }
+        return name.concat(RMIStub.SUFFIX);
+    }
+
+    private void note(Element element, String message) {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.NOTE, message, element);
+    }
+}
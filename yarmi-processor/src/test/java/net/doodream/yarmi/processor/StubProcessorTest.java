@@ -0,0 +1,190 @@
+package net.doodream.yarmi.processor;
+
+import net.doodream.yarmi.annotation.RMIExpose;
+import net.doodream.yarmi.annotation.server.Controller;
+import net.doodream.yarmi.client.RMIClient;
+import net.doodream.yarmi.client.RMIStub;
+import net.doodream.yarmi.data.Endpoint;
+import net.doodream.yarmi.data.Response;
+import net.doodream.yarmi.server.RMIService;
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.StandardLocation;
+import javax.tools.ToolProvider;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.net.URI;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+public class StubProcessorTest {
+
+    private static final String CONTROLLER = "package stub.test;\n" +
+            "import net.doodream.yarmi.annotation.RMIExpose;\n" +
+            "import net.doodream.yarmi.data.Response;\n" +
+            "import java.util.List;\n" +
+            "import java.util.Map;\n" +
+            "public interface EchoController {\n" +
+            "    @RMIExpose\n" +
+            "    Response<String> echo(String msg);\n" +
+            "    @RMIExpose\n" +
+            "    Response<Long> add(int a, long b);\n" +
+            "    @RMIExpose\n" +
+            "    Response<Integer> size(List<String> list);\n" +
+            "    @RMIExpose\n" +
+            "    Response<Integer> count(Map<String, List<? extends Number>> map, int[] values, Map.Entry<String, String>[] entries);\n" +
+            "    @RMIExpose\n" +
+            "    Response<String> name();\n" +
+            "    String hint();\n" +
+            "}\n";
+
+    private static final String CONTROLLER_IMPL = "package stub.test;\n" +
+            "import net.doodream.yarmi.data.Response;\n" +
+            "import java.util.List;\n" +
+            "import java.util.Map;\n" +
+            "public class EchoControllerImpl implements EchoController {\n" +
+            "    public Response<String> echo(String msg) { return Response.success(msg); }\n" +
+            "    public Response<Long> add(int a, long b) { return Response.success(a + b); }\n" +
+            "    public Response<Integer> size(List<String> list) { return Response.success(list.size()); }\n" +
+            "    public Response<Integer> count(Map<String, List<? extends Number>> map, int[] values, Map.Entry<String, String>[] entries) { return Response.success(map.size()); }\n" +
+            "    public Response<String> name() { return Response.success(\"echo\"); }\n" +
+            "    public String hint() { return \"local\"; }\n" +
+            "}\n";
+
+    private static final String SERVICE = "package stub.test;\n" +
+            "import net.doodream.yarmi.annotation.AdapterParam;\n" +
+            "import net.doodream.yarmi.annotation.server.Controller;\n" +
+            "import net.doodream.yarmi.annotation.server.Service;\n" +
+            "import net.doodream.yarmi.net.tcp.TcpServiceAdapter;\n" +
+            "import net.doodream.yarmi.serde.bson.BsonConverter;\n" +
+            "@Service(name = \"%1$s\", provider = \"www.doodream.com\", converter = BsonConverter.class,\n" +
+            "        params = @AdapterParam(key = TcpServiceAdapter.PARAM_PORT, value = \"%2$d\"))\n" +
+            "public class %1$s {\n" +
+            "    @Controller(path = \"%3$s\", version = 1, module = EchoControllerImpl.class)\n" +
+            "    EchoController controller;\n" +
+            "}\n";
+
+    @Test
+    public void stubCallTest() throws Exception {
+        // compiled into the test classes so that the classes are resolved by name as usual (e.g. in handshake)
+        final File output = new File(StubProcessorTest.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+        // controller shared by the services under different paths
+        compile(output,
+                source("stub.test.EchoController", CONTROLLER),
+                source("stub.test.EchoControllerImpl", CONTROLLER_IMPL),
+                source("stub.test.EchoService", String.format(SERVICE, "EchoService", 6466, "/echo")),
+                source("stub.test.OtherEchoService", String.format(SERVICE, "OtherEchoService", 6467, "/echo/other")));
+
+        final Class<?> controller = Class.forName("stub.test.EchoController");
+        assertEndpointIds(controller, Class.forName("stub.test.EchoService"), Class.forName("stub.test.OtherEchoService"));
+        echo(controller, Class.forName("stub.test.EchoService"));
+        echo(controller, Class.forName("stub.test.OtherEchoService"));
+    }
+
+    /**
+     * endpoint ids computed by the processor are the same as the ones of the service at runtime
+     */
+    private static void assertEndpointIds(Class<?> controller, Class<?>... services) throws Exception {
+        final Field field = Class.forName(controller.getName() + RMIStub.SUFFIX).getDeclaredField("ENDPOINTS");
+        field.setAccessible(true);
+        final Set<Set<Integer>> generated = new HashSet<>();
+        for (int[] ids : (int[][]) field.get(null)) {
+            final Set<Integer> row = new HashSet<>();
+            for (int id : ids) {
+                row.add(id);
+            }
+            generated.add(row);
+        }
+        final Set<Set<Integer>> expected = new HashSet<>();
+        for (Class<?> service : services) {
+            final Controller annotation = service.getDeclaredField("controller").getAnnotation(Controller.class);
+            final Set<Integer> row = new HashSet<>();
+            for (Method method : controller.getMethods()) {
+                if(method.isAnnotationPresent(RMIExpose.class)) {
+                    row.add(Endpoint.create(annotation, method).getId());
+                }
+            }
+            Assert.assertEquals(5, row.size());
+            expected.add(row);
+        }
+        Assert.assertEquals(expected, generated);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void echo(Class<?> controller, Class<?> svc) throws Exception {
+        final RMIService service = RMIService.create(svc);
+        service.listen();
+        try {
+            final Object client = RMIClient.create(service.getServiceInfo(), svc, new Class[]{controller}, 10000L, TimeUnit.MILLISECONDS);
+            Assert.assertTrue(client instanceof RMIStub);
+            Assert.assertTrue(controller.isInstance(client));
+
+            Response<String> response = (Response<String>) controller.getMethod("echo", String.class).invoke(client, "Hello");
+            Assert.assertTrue(response.isSuccessful());
+            Assert.assertEquals("Hello", response.getBody());
+
+            Response<Long> sum = (Response<Long>) controller.getMethod("add", int.class, long.class).invoke(client, 1, 2L);
+            Assert.assertEquals(Long.valueOf(3L), sum.getBody());
+
+            Response<Integer> size = (Response<Integer>) controller.getMethod("size", List.class).invoke(client, Arrays.asList("a", "b"));
+            Assert.assertEquals(Integer.valueOf(2), size.getBody());
+
+            Response<String> name = (Response<String>) controller.getMethod("name").invoke(client);
+            Assert.assertEquals("echo", name.getBody());
+
+            // not exposed, answered in the same way as dynamic proxy
+            Assert.assertNull(controller.getMethod("hint").invoke(client));
+            RMIClient.destroy(client);
+        } finally {
+            service.stop();
+        }
+    }
+
+    private static void compile(File output, JavaFileObject... sources) throws IOException {
+        final JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        Assert.assertNotNull("no system compiler", compiler);
+        try (StandardJavaFileManager fileManager = compiler.getStandardFileManager(null, null, null)) {
+            fileManager.setLocation(StandardLocation.CLASS_OUTPUT, Collections.singletonList(output));
+            fileManager.setLocation(StandardLocation.SOURCE_OUTPUT, Collections.singletonList(Files.createTempDirectory("yarmi-stub").toFile()));
+            fileManager.setLocation(StandardLocation.CLASS_PATH, classPath());
+            final JavaCompiler.CompilationTask task = compiler.getTask(null, fileManager, null, null, null, Arrays.asList(sources));
+            task.setProcessors(Collections.singletonList(new StubProcessor()));
+            Assert.assertTrue("fail to compile", task.call());
+        }
+    }
+
+    private static List<File> classPath() {
+        final Set<File> files = new LinkedHashSet<>();
+        for (String path : System.getProperty("java.class.path").split(File.pathSeparator)) {
+            files.add(new File(path));
+        }
+        // class path can be hidden in manifest of the test runner
+        for (Class<?> cls : new Class[]{RMIService.class, StubProcessor.class}) {
+            files.add(new File(cls.getProtectionDomain().getCodeSource().getLocation().getPath()));
+        }
+        return new ArrayList<>(files);
+    }
+
+    private static JavaFileObject source(String name, String code) {
+        return new SimpleJavaFileObject(URI.create("string:///" + name.replace('.', '/') + JavaFileObject.Kind.SOURCE.extension), JavaFileObject.Kind.SOURCE) {
+            @Override
+            public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+                return code;
+            }
+        };
+    }
+}